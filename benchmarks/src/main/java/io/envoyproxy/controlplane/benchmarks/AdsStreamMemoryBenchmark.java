@@ -0,0 +1,231 @@
+package io.envoyproxy.controlplane.benchmarks;
+
+import io.envoyproxy.controlplane.cache.Resources;
+import io.envoyproxy.controlplane.cache.SimpleCache;
+import io.envoyproxy.controlplane.server.DiscoveryServer;
+import io.envoyproxy.envoy.api.v2.DiscoveryRequest;
+import io.envoyproxy.envoy.api.v2.DiscoveryResponse;
+import io.envoyproxy.envoy.api.v2.core.Node;
+import io.grpc.stub.StreamObserver;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the heap retained by each open ADS stream of {@link DiscoveryServer}, once every stream has received and
+ * ACKed the clusters and the endpoints of some of them. The retained bytes per stream are computed from class
+ * histograms of the live heap, like those of {@code jmap -histo:live}, taken before and after the streams are opened.
+ * Classes of the benchmark are left out of the difference, and the streams keep nothing else that the server does not
+ * hold on to itself while the histogram is taken, so that only the heap retained by the server is measured. They are
+ * reported for each iteration as the {@code retainedBytesPerStream} secondary result. The primary result is the time to
+ * handle an ACK on an open stream.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g", "-XX:+UseSerialGC"})
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class AdsStreamMemoryBenchmark {
+
+  private static final String GROUP = "group";
+  private static final String BENCHMARK_PACKAGE = AdsStreamMemoryBenchmark.class.getPackage().getName() + ".";
+  // Matches the rows of a class histogram: rank, number of instances, number of bytes and class name.
+  private static final Pattern HISTOGRAM_ROW = Pattern.compile("^\\s*\\d+:\\s+\\d+\\s+(\\d+)\\s+(\\S+)");
+
+  @Param({"10000"})
+  int streams;
+
+  @Param({"100"})
+  int resourcesPerType;
+
+  @Param({"10"})
+  int endpointsPerStream;
+
+  private DiscoveryServer server;
+  private OpenStream[] openStreams;
+  private long retainedBytesPerStream;
+  private int next;
+
+  /**
+   * Sets the snapshot that all streams receive.
+   */
+  @Setup(Level.Trial)
+  public void setUp() {
+    SimpleCache<String> cache = new SimpleCache<>(node -> GROUP);
+    cache.setSnapshot(GROUP, new BenchmarkResources(resourcesPerType).snapshot("1"));
+
+    server = new DiscoveryServer(cache);
+  }
+
+  /**
+   * Opens the streams, and measures the heap they retain once they are all open.
+   */
+  @Setup(Level.Iteration)
+  public void openStreams() {
+    Map<String, Long> before = liveClassHistogram();
+
+    openStreams = new OpenStream[streams];
+    for (int stream = 0; stream < streams; stream++) {
+      openStreams[stream] = new OpenStream(stream);
+    }
+
+    Map<String, Long> after = liveClassHistogram();
+    long retainedBytes = 0;
+
+    for (Map.Entry<String, Long> entry : after.entrySet()) {
+      if (!entry.getKey().contains(BENCHMARK_PACKAGE)) {
+        retainedBytes += entry.getValue() - before.getOrDefault(entry.getKey(), 0L);
+      }
+    }
+
+    retainedBytesPerStream = retainedBytes / streams;
+
+    // The ACKs are only built once the heap was measured, since the server holds on to its own copies of them.
+    for (OpenStream stream : openStreams) {
+      stream.endpointsAck = ack(stream.endpoints(), stream.latestVersion, stream.latestNonce);
+    }
+  }
+
+  /**
+   * Closes the streams.
+   */
+  @TearDown(Level.Iteration)
+  public void closeStreams() {
+    for (OpenStream stream : openStreams) {
+      stream.requests.onCompleted();
+    }
+
+    openStreams = null;
+  }
+
+  /**
+   * ACKs the latest endpoints response again on one of the streams, which replaces the open watch of the stream.
+   */
+  @Benchmark
+  public void ackEndpoints(RetainedBytes retainedBytes) {
+    OpenStream stream = openStreams[next];
+    next = (next + 1) % openStreams.length;
+
+    stream.requests.onNext(stream.endpointsAck);
+
+    retainedBytes.retainedBytesPerStream = retainedBytesPerStream;
+  }
+
+  // Returns the bytes of the live instances of each class, as reported by the GC.ClassHistogram diagnostic command,
+  // which collects the heap before it counts the instances.
+  private static Map<String, Long> liveClassHistogram() {
+    String histogram;
+
+    try {
+      histogram = (String) ManagementFactory.getPlatformMBeanServer().invoke(
+          new ObjectName("com.sun.management:type=DiagnosticCommand"),
+          "gcClassHistogram",
+          new Object[] {new String[0]},
+          new String[] {String[].class.getName()});
+    } catch (JMException e) {
+      throw new IllegalStateException("the class histogram of the heap is not available", e);
+    }
+
+    Map<String, Long> bytesByClass = new HashMap<>();
+
+    for (String row : histogram.split("\\R")) {
+      Matcher matcher = HISTOGRAM_ROW.matcher(row);
+
+      if (matcher.find()) {
+        bytesByClass.merge(matcher.group(2), Long.parseLong(matcher.group(1)), Long::sum);
+      }
+    }
+
+    return bytesByClass;
+  }
+
+  private static DiscoveryRequest ack(DiscoveryRequest request, String version, String nonce) {
+    return request.toBuilder()
+        .setVersionInfo(version)
+        .setResponseNonce(nonce)
+        .build();
+  }
+
+  /**
+   * {@code RetainedBytes} reports the heap retained by each stream as a secondary benchmark result.
+   */
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class RetainedBytes {
+
+    public long retainedBytesPerStream;
+  }
+
+  private class OpenStream implements StreamObserver<DiscoveryResponse> {
+
+    private final int stream;
+    private final StreamObserver<DiscoveryRequest> requests;
+    // The version and nonce of the latest response are held by the server as well, unlike the response itself.
+    private String latestVersion;
+    private String latestNonce;
+    private DiscoveryRequest endpointsAck;
+
+    OpenStream(int stream) {
+      this.stream = stream;
+
+      requests = server.getAggregatedDiscoveryServiceImpl().streamAggregatedResources(this);
+
+      DiscoveryRequest clusters = DiscoveryRequest.newBuilder()
+          .setNode(Node.newBuilder().setId("node" + stream))
+          .setTypeUrl(Resources.CLUSTER_TYPE_URL)
+          .build();
+
+      requests.onNext(clusters);
+      requests.onNext(ack(clusters, latestVersion, latestNonce));
+
+      requests.onNext(endpoints());
+      requests.onNext(ack(endpoints(), latestVersion, latestNonce));
+    }
+
+    DiscoveryRequest endpoints() {
+      DiscoveryRequest.Builder endpoints = DiscoveryRequest.newBuilder()
+          .setNode(Node.newBuilder().setId("node" + stream))
+          .setTypeUrl(Resources.ENDPOINT_TYPE_URL);
+
+      for (int i = 0; i < endpointsPerStream; i++) {
+        endpoints.addResourceNames(BenchmarkResources.clusterName((stream + i) % resourcesPerType));
+      }
+
+      return endpoints.build();
+    }
+
+    @Override
+    public void onNext(DiscoveryResponse response) {
+      latestVersion = response.getVersionInfo();
+      latestNonce = response.getNonce();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+    }
+
+    @Override
+    public void onCompleted() {
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package io.envoyproxy.controlplane.benchmarks;
+
+import io.envoyproxy.controlplane.cache.Snapshot;
+import io.envoyproxy.controlplane.cache.TestResources;
+import io.envoyproxy.envoy.api.v2.Cluster;
+import io.envoyproxy.envoy.api.v2.ClusterLoadAssignment;
+import io.envoyproxy.envoy.api.v2.Listener;
+import io.envoyproxy.envoy.api.v2.RouteConfiguration;
+import io.envoyproxy.envoy.api.v2.auth.Secret;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * {@code BenchmarkResources} creates the xDS resources used by the benchmarks. Each cluster has an endpoint, and each
+ * listener has a route to one of the clusters.
+ */
+final class BenchmarkResources {
+
+  private static final int PORT = 10000;
+
+  final List<Cluster> clusters;
+  final List<ClusterLoadAssignment> endpoints;
+  final List<Listener> listeners;
+  final List<RouteConfiguration> routes;
+  final List<Secret> secrets;
+
+  BenchmarkResources(int resourcesPerType) {
+    clusters = create(resourcesPerType, i -> TestResources.createCluster(clusterName(i)));
+    endpoints = create(resourcesPerType, i -> TestResources.createEndpoint(clusterName(i), PORT + i));
+    listeners = create(
+        resourcesPerType,
+        i -> TestResources.createListener(true, "listener" + i, PORT + i, routeName(i)));
+    routes = create(resourcesPerType, i -> TestResources.createRoute(routeName(i), clusterName(i)));
+    secrets = create(resourcesPerType, i -> TestResources.createSecret("secret" + i));
+  }
+
+  static String clusterName(int i) {
+    return "cluster" + i;
+  }
+
+  static String routeName(int i) {
+    return "route" + i;
+  }
+
+  /**
+   * Returns a new snapshot of all resources with the given version.
+   *
+   * @param version the version of the snapshot
+   */
+  Snapshot snapshot(String version) {
+    return Snapshot.create(clusters, endpoints, listeners, routes, secrets, version);
+  }
+
+  private static <T> List<T> create(int count, IntFunction<T> factory) {
+    return IntStream.range(0, count).mapToObj(factory).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,69 @@
+package io.envoyproxy.controlplane.benchmarks;
+
+import com.google.protobuf.Any;
+import io.envoyproxy.controlplane.server.serializer.CachedProtoResourcesSerializer;
+import io.envoyproxy.controlplane.server.serializer.DefaultProtoResourcesSerializer;
+import io.envoyproxy.controlplane.server.serializer.ProtoResourcesSerializer;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the {@link ProtoResourcesSerializer} implementations, serializing the same resources repeatedly as when
+ * the same snapshot is sent to many envoys.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class ProtoResourcesSerializerBenchmark {
+
+  @Param({"default", "cached"})
+  String serializerType;
+
+  @Param({"10", "1000"})
+  int resourcesPerType;
+
+  private ProtoResourcesSerializer serializer;
+  private BenchmarkResources resources;
+
+  /**
+   * Creates the serializer and the resources to serialize.
+   */
+  @Setup(Level.Trial)
+  public void setUp() {
+    serializer = "cached".equals(serializerType)
+        ? new CachedProtoResourcesSerializer()
+        : new DefaultProtoResourcesSerializer();
+    resources = new BenchmarkResources(resourcesPerType);
+  }
+
+  /**
+   * Serializes the clusters.
+   */
+  @Benchmark
+  public Collection<Any> serializeClusters() {
+    return serializer.serialize(resources.clusters);
+  }
+
+  /**
+   * Serializes the listeners.
+   */
+  @Benchmark
+  public Collection<Any> serializeListeners() {
+    return serializer.serialize(resources.listeners);
+  }
+}
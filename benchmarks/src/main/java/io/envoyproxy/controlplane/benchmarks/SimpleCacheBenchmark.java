@@ -0,0 +1,177 @@
+package io.envoyproxy.controlplane.benchmarks;
+
+import io.envoyproxy.controlplane.cache.Resources;
+import io.envoyproxy.controlplane.cache.SimpleCache;
+import io.envoyproxy.controlplane.cache.Snapshot;
+import io.envoyproxy.controlplane.cache.Watch;
+import io.envoyproxy.envoy.api.v2.DiscoveryRequest;
+import io.envoyproxy.envoy.api.v2.core.Node;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the creation of watches in {@link SimpleCache}, and the fan-out of snapshot updates to open watches. Every
+ * node group has its own snapshot, and every watch requests the endpoints of a single cluster.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class SimpleCacheBenchmark {
+
+  @Param({"1", "100"})
+  int groups;
+
+  @Param({"1", "100"})
+  int watchesPerGroup;
+
+  @Param({"10", "1000"})
+  int resourcesPerType;
+
+  @Param({"1", "64"})
+  int lockStripes;
+
+  @Param({"false", "true"})
+  boolean indexWatchesByResourceName;
+
+  // Whether watches are responded to on a thread pool rather than on the thread that sets the snapshot.
+  @Param({"false", "true"})
+  boolean notificationExecutor;
+
+  @Param({"false", "true"})
+  boolean keepVersionsOfUnchangedResources;
+
+  private SimpleCache<String> cache;
+  private ExecutorService executor;
+  private Snapshot[] snapshots;
+  private DiscoveryRequest[][] requests;
+  private int version;
+
+  /**
+   * Sets a snapshot for every group.
+   */
+  @Setup(Level.Trial)
+  public void setUp() {
+    BenchmarkResources resources = new BenchmarkResources(resourcesPerType);
+
+    SimpleCache.Builder<String> builder = SimpleCache.builder(Node::getId)
+        .lockStripes(lockStripes)
+        .indexWatchesByResourceName(indexWatchesByResourceName)
+        .keepVersionsOfUnchangedResources(keepVersionsOfUnchangedResources);
+
+    if (notificationExecutor) {
+      executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+      builder.notificationExecutor(executor);
+    }
+
+    cache = builder.build();
+    snapshots = new Snapshot[] {resources.snapshot("0"), resources.snapshot("1")};
+    requests = new DiscoveryRequest[groups][watchesPerGroup];
+
+    for (int group = 0; group < groups; group++) {
+      cache.setSnapshot(groupName(group), snapshots[0]);
+
+      for (int watch = 0; watch < watchesPerGroup; watch++) {
+        requests[group][watch] = DiscoveryRequest.newBuilder()
+            .setNode(Node.newBuilder().setId(groupName(group)))
+            .setTypeUrl(Resources.ENDPOINT_TYPE_URL)
+            .addResourceNames(BenchmarkResources.clusterName(watch % resourcesPerType))
+            .build();
+      }
+    }
+  }
+
+  /**
+   * Stops the notification executor, if any.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Creates a watch that is left open, since the snapshot of its group is already known to the requester.
+   */
+  @Benchmark
+  public Watch createWatch() {
+    Watch watch = cache.createWatch(
+        false,
+        requests[0][0].toBuilder().setVersionInfo(Integer.toString(version)).build(),
+        Collections.emptySet(),
+        r -> { });
+
+    watch.cancel();
+
+    return watch;
+  }
+
+  /**
+   * Sets the next snapshot for every group, which responds to all open watches. The updates are waited for, so that
+   * responding to the watches is measured when it is done on the notification executor.
+   */
+  @Benchmark
+  public void setSnapshot(OpenWatches openWatches, Blackhole blackhole) {
+    CompletableFuture<?>[] updates = new CompletableFuture<?>[groups];
+
+    for (int group = 0; group < groups; group++) {
+      updates[group] = cache.setSnapshotAsync(groupName(group), snapshots[version]);
+    }
+
+    CompletableFuture.allOf(updates).join();
+
+    blackhole.consume(cache.statusInfo(groupName(0)));
+  }
+
+  private static String groupName(int group) {
+    return "group" + group;
+  }
+
+  /**
+   * {@code OpenWatches} opens a watch for every request before each invocation of a benchmark, at the version of the
+   * current snapshot of its group, and then selects the other snapshot as the one the benchmark sets next.
+   */
+  @State(Scope.Benchmark)
+  public static class OpenWatches {
+
+    /**
+     * Opens the watches.
+     */
+    @Setup(Level.Invocation)
+    public void openWatches(SimpleCacheBenchmark benchmark) {
+      String currentVersion = Integer.toString(benchmark.version);
+
+      for (DiscoveryRequest[] groupRequests : benchmark.requests) {
+        for (DiscoveryRequest request : groupRequests) {
+          benchmark.cache.createWatch(
+              false,
+              request.toBuilder().setVersionInfo(currentVersion).build(),
+              Collections.emptySet(),
+              r -> { });
+        }
+      }
+
+      benchmark.version = 1 - benchmark.version;
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package io.envoyproxy.controlplane.benchmarks;
+
+import io.envoyproxy.controlplane.cache.Resources;
+import io.envoyproxy.controlplane.cache.Snapshot;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the creation of snapshots, and the extraction of the resources referenced by clusters and listeners.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class SnapshotBenchmark {
+
+  @Param({"10", "1000"})
+  int resourcesPerType;
+
+  private BenchmarkResources resources;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    resources = new BenchmarkResources(resourcesPerType);
+  }
+
+  /**
+   * Creates a snapshot of all resources.
+   */
+  @Benchmark
+  public Snapshot createSnapshot() {
+    return resources.snapshot("1");
+  }
+
+  /**
+   * Returns the names of the endpoints referenced by the clusters.
+   */
+  @Benchmark
+  public Set<String> clusterResourceReferences() {
+    return Resources.getResourceReferences(resources.clusters);
+  }
+
+  /**
+   * Returns the names of the routes referenced by the listeners.
+   */
+  @Benchmark
+  public Set<String> listenerResourceReferences() {
+    return Resources.getResourceReferences(resources.listeners);
+  }
+}
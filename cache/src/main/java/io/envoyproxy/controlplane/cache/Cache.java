@@ -8,7 +8,7 @@ import javax.annotation.concurrent.ThreadSafe;
  * {@code Cache} is a generic config cache with support for watchers.
  */
 @ThreadSafe
-public interface Cache<T> extends ConfigWatcher {
+public interface Cache<T> extends ConfigWatcher<T> {
 
   /**
    * Returns all known {@link Node} groups.
@@ -1,6 +1,10 @@
 package io.envoyproxy.controlplane.cache;
 
-import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Longs;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -15,12 +19,31 @@ import javax.annotation.concurrent.ThreadSafe;
 public class CacheStatusInfo<T> implements StatusInfo<T> {
 
   private final T nodeGroup;
+  private final boolean indexByResourceName;
 
-  private final ConcurrentMap<Long, Watch> watches = new ConcurrentHashMap<>();
+  private final WatchMap<Watch> watches = new WatchMap<>();
+  private final WatchMap<DeltaWatch> deltaWatches = new WatchMap<>();
+  // Watches that request specific resources by the names of those resources, and watches that request all resources.
+  // Only maintained if indexByResourceName is set. The watches of a name are never locked while updating the map of
+  // names, since they are locked while their watches are visited, which may update the map.
+  private final ConcurrentMap<String, WatchMap<Watch>> watchesByResourceName = new ConcurrentHashMap<>();
+  private final WatchMap<Watch> wildcardWatches = new WatchMap<>();
   private volatile long lastWatchRequestTime;
 
   public CacheStatusInfo(T nodeGroup) {
+    this(nodeGroup, false);
+  }
+
+  /**
+   * Constructs a status that optionally indexes its watches by the names of the resources they request, which allows
+   * {@link #watchesRemoveIf(Collection, BiFunction)} to visit only the watches interested in a set of resources.
+   *
+   * @param nodeGroup           the node group of the watches
+   * @param indexByResourceName whether watches should be indexed by requested resource name
+   */
+  public CacheStatusInfo(T nodeGroup, boolean indexByResourceName) {
     this.nodeGroup = nodeGroup;
+    this.indexByResourceName = indexByResourceName;
   }
 
   /**
@@ -44,7 +67,7 @@ public class CacheStatusInfo<T> implements StatusInfo<T> {
    */
   @Override
   public int numWatches() {
-    return watches.size();
+    return watches.size() + deltaWatches.size();
   }
 
   /**
@@ -53,7 +76,20 @@ public class CacheStatusInfo<T> implements StatusInfo<T> {
    * @param watchId the ID for the watch that should be removed
    */
   public void removeWatch(long watchId) {
-    watches.remove(watchId);
+    Watch watch = watches.remove(watchId);
+
+    if (watch != null) {
+      unindex(watchId, watch);
+    }
+  }
+
+  /**
+   * Removes the given delta watch from the tracked collection of delta watches.
+   *
+   * @param watchId the ID for the delta watch that should be removed
+   */
+  public void removeDeltaWatch(long watchId) {
+    deltaWatches.remove(watchId);
   }
 
   /**
@@ -73,13 +109,40 @@ public class CacheStatusInfo<T> implements StatusInfo<T> {
    */
   public void setWatch(long watchId, Watch watch) {
     watches.put(watchId, watch);
+
+    if (indexByResourceName) {
+      if (watch.request().getResourceNamesCount() == 0) {
+        wildcardWatches.put(watchId, watch);
+      } else {
+        for (String name : watch.request().getResourceNamesList()) {
+          // The watches of a name are closed once they become empty, and are then replaced by new ones.
+          WatchMap<Watch> watchesOfName = watchesByResourceName.computeIfAbsent(name, n -> new WatchMap<>());
+
+          while (!watchesOfName.putIfOpen(watchId, watch)) {
+            watchesByResourceName.remove(name, watchesOfName);
+            watchesOfName = watchesByResourceName.computeIfAbsent(name, n -> new WatchMap<>());
+          }
+        }
+      }
+    }
   }
 
   /**
-   * Returns the set of IDs for all watched currently being tracked.
+   * Adds the given delta watch to the tracked collection of delta watches.
+   *
+   * @param watchId the ID for the delta watch that should be added
+   * @param watch   the delta watch that should be added
+   */
+  public void setDeltaWatch(long watchId, DeltaWatch watch) {
+    deltaWatches.put(watchId, watch);
+  }
+
+  /**
+   * Returns the set of IDs for all watched currently being tracked. The IDs are copied, use {@link #numWatches()} to
+   * only count the watches.
    */
   public Set<Long> watchIds() {
-    return ImmutableSet.copyOf(watches.keySet());
+    return new WatchIds(watches.ids());
   }
 
   /**
@@ -89,6 +152,142 @@ public class CacheStatusInfo<T> implements StatusInfo<T> {
    * @param filter the function to execute on each watch
    */
   public void watchesRemoveIf(BiFunction<Long, Watch, Boolean> filter) {
-    watches.entrySet().removeIf(entry -> filter.apply(entry.getKey(), entry.getValue()));
+    removeWatchesIf(filter::apply);
+  }
+
+  /**
+   * Iterate over the tracked watches that request all resources, or any of the given resources by name, and execute
+   * the given function. If it returns {@code true}, then the watch is removed from the tracked collection. If it
+   * returns {@code false}, then the watch is not removed. If watches are not indexed by resource name, all watches
+   * are visited.
+   *
+   * @param resourceNames the names of the resources whose watches should be visited
+   * @param filter        the function to execute on each visited watch
+   */
+  public void watchesRemoveIf(Collection<String> resourceNames, BiFunction<Long, Watch, Boolean> filter) {
+    removeWatchesIf(resourceNames, filter::apply);
+  }
+
+  /**
+   * Iterate over all tracked delta watches and execute the given function. If it returns {@code true}, then the watch
+   * is removed from the tracked collection. If it returns {@code false}, then the watch is not removed.
+   *
+   * @param filter the function to execute on each delta watch
+   */
+  public void deltaWatchesRemoveIf(BiFunction<Long, DeltaWatch, Boolean> filter) {
+    removeDeltaWatchesIf(filter::apply);
+  }
+
+  /**
+   * Same as {@link #watchesRemoveIf(BiFunction)}, without boxing the IDs of the visited watches.
+   */
+  void removeWatchesIf(WatchMap.Filter<Watch> filter) {
+    watches.removeIf((watchId, watch) -> {
+      if (filter.test(watchId, watch)) {
+        unindex(watchId, watch);
+        return true;
+      }
+
+      return false;
+    });
+  }
+
+  /**
+   * Same as {@link #watchesRemoveIf(Collection, BiFunction)}, without boxing the IDs of the visited watches.
+   */
+  void removeWatchesIf(Collection<String> resourceNames, WatchMap.Filter<Watch> filter) {
+    if (!indexByResourceName) {
+      removeWatchesIf(filter);
+      return;
+    }
+
+    wildcardWatches.removeIf((watchId, watch) -> removeIndexedWatchIf(watchId, watch, filter));
+
+    for (String name : resourceNames) {
+      WatchMap<Watch> watchesOfName = watchesByResourceName.get(name);
+
+      if (watchesOfName == null) {
+        continue;
+      }
+
+      // A watch that requests several of the resources is only visited with the first of them that it requests.
+      watchesOfName.removeIf((watchId, watch) ->
+          name.equals(firstRequested(watch, resourceNames)) && removeIndexedWatchIf(watchId, watch, filter));
+    }
+  }
+
+  /**
+   * Same as {@link #deltaWatchesRemoveIf(BiFunction)}, without boxing the IDs of the visited watches.
+   */
+  void removeDeltaWatchesIf(WatchMap.Filter<DeltaWatch> filter) {
+    deltaWatches.removeIf(filter);
+  }
+
+  // Indexed watches are unindexed when they are removed, including from the index that is being visited. Watches that
+  // were removed but not unindexed yet are skipped.
+  private boolean removeIndexedWatchIf(long watchId, Watch watch, WatchMap.Filter<Watch> filter) {
+    if (watches.get(watchId) == watch && filter.test(watchId, watch) && watches.remove(watchId, watch)) {
+      unindex(watchId, watch);
+    }
+
+    return false;
+  }
+
+  private static String firstRequested(Watch watch, Collection<String> resourceNames) {
+    for (String name : watch.request().getResourceNamesList()) {
+      if (resourceNames.contains(name)) {
+        return name;
+      }
+    }
+
+    return null;
+  }
+
+  private void unindex(long watchId, Watch watch) {
+    if (!indexByResourceName) {
+      return;
+    }
+
+    if (watch.request().getResourceNamesCount() == 0) {
+      wildcardWatches.remove(watchId, watch);
+      return;
+    }
+
+    for (String name : watch.request().getResourceNamesList()) {
+      WatchMap<Watch> watchesOfName = watchesByResourceName.get(name);
+
+      if (watchesOfName != null && watchesOfName.remove(watchId, watch) && watchesOfName.closeIfEmpty()) {
+        watchesByResourceName.remove(name, watchesOfName);
+      }
+    }
+  }
+
+  /**
+   * Read-only view of the IDs of the watches at the time they were requested, which boxes the IDs only as they are
+   * read.
+   */
+  private static final class WatchIds extends AbstractSet<Long> {
+
+    private final long[] ids;
+
+    WatchIds(long[] ids) {
+      Arrays.sort(ids);
+      this.ids = ids;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      return o instanceof Long && Arrays.binarySearch(ids, (Long) o) >= 0;
+    }
+
+    @Override
+    public Iterator<Long> iterator() {
+      return Longs.asList(ids).iterator();
+    }
+
+    @Override
+    public int size() {
+      return ids.length;
+    }
   }
 }
@@ -0,0 +1,309 @@
+package io.envoyproxy.controlplane.cache;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Striped;
+import io.envoyproxy.envoy.api.v2.DeltaDiscoveryRequest;
+import io.envoyproxy.envoy.api.v2.DiscoveryRequest;
+import io.envoyproxy.envoy.api.v2.core.Node;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@code CoalescingSnapshotCache} is a {@link SnapshotCache} that coalesces bursts of snapshot updates of a node group
+ * before passing them on to another cache. A snapshot is only set on the delegate cache once no newer snapshot was set
+ * for the group within the coalescing window, so that only the latest snapshot of a burst is pushed to the watches of
+ * the group. The maximum delay bounds how long a snapshot can be held back by a burst that does not end.
+ *
+ * <p>Snapshots that are held back are already returned by {@link #getSnapshot(Object)}, while watches are created on
+ * the delegate cache and only see them once they are passed on.
+ */
+public class CoalescingSnapshotCache<T> implements SnapshotCache<T>, DeltaConfigWatcher<T> {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CoalescingSnapshotCache.class);
+
+  private final SnapshotCache<T> delegate;
+  private final ScheduledExecutorService scheduler;
+  private final long windowNanos;
+  private final long maxDelayNanos;
+
+  private final ConcurrentMap<T, PendingUpdate> pendingUpdates = new ConcurrentHashMap<>();
+  // Serializes passing on the updates of the groups in each stripe, so that they are set in order even if the scheduler
+  // runs the flushes of a group concurrently.
+  private final Striped<Lock> flushLocks = Striped.lock(64);
+
+  /**
+   * Constructs a coalescing cache.
+   *
+   * @param delegate  the cache to pass the coalesced snapshot updates on to
+   * @param scheduler executor used to pass on the updates once they are due
+   * @param window    how long to wait for a newer snapshot of a group before passing on the latest one
+   * @param maxDelay  how long a snapshot can be held back at most, must not be shorter than the window
+   * @param unit      the time unit of the window and maximum delay
+   */
+  public CoalescingSnapshotCache(
+      SnapshotCache<T> delegate,
+      ScheduledExecutorService scheduler,
+      long window,
+      long maxDelay,
+      TimeUnit unit) {
+    Preconditions.checkArgument(window >= 0, "window cannot be negative");
+    Preconditions.checkArgument(maxDelay >= window, "maxDelay cannot be shorter than the window");
+
+    this.delegate = delegate;
+    this.scheduler = scheduler;
+    this.windowNanos = unit.toNanos(window);
+    this.maxDelayNanos = unit.toNanos(maxDelay);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean clearSnapshot(T group) {
+    // The group is cleared under the flush lock, so that an update that is being passed on is not set on the delegate
+    // cache after the group was cleared. The pending update is only dropped if the delegate cleared the group, since
+    // it is still due otherwise.
+    Lock flushLock = flushLocks.get(group);
+    flushLock.lock();
+    try {
+      if (!delegate.clearSnapshot(group)) {
+        return false;
+      }
+
+      pendingUpdates.remove(group);
+
+      return true;
+    } finally {
+      flushLock.unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Set<T> clearSnapshots(Collection<T> groups) {
+    // Locks are taken in stripe order, so that concurrent batches cannot deadlock.
+    Iterable<Lock> groupFlushLocks = flushLocks.bulkGet(groups);
+    groupFlushLocks.forEach(Lock::lock);
+    try {
+      Set<T> cleared = delegate.clearSnapshots(groups);
+
+      cleared.forEach(pendingUpdates::remove);
+
+      return cleared;
+    } finally {
+      groupFlushLocks.forEach(Lock::unlock);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Snapshot getSnapshot(T group) {
+    PendingUpdate update = pendingUpdates.get(group);
+
+    return update == null ? delegate.getSnapshot(group) : update.snapshot;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void setSnapshot(T group, Snapshot snapshot) {
+    long now = System.nanoTime();
+
+    pendingUpdates.compute(group, (g, update) -> {
+      // An update that is being passed on is replaced, and stays visible to getSnapshot until it was passed on.
+      if (update == null || update.flushing) {
+        PendingUpdate newUpdate = new PendingUpdate(snapshot, now);
+        schedule(group, newUpdate, windowNanos);
+
+        return newUpdate;
+      }
+
+      // The update is already scheduled, and is rescheduled by the flush if it is not due yet by then.
+      update.snapshot = snapshot;
+      update.lastUpdateNanos = now;
+
+      return update;
+    });
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public T group(Node node) {
+    return delegate.group(node);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Watch createWatch(
+      boolean ads,
+      DiscoveryRequest request,
+      Set<String> knownResourceNames,
+      Consumer<Response> responseConsumer,
+      boolean hasClusterChanged) {
+    return delegate.createWatch(ads, request, knownResourceNames, responseConsumer, hasClusterChanged);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Watch createWatch(
+      boolean ads,
+      DiscoveryRequest request,
+      ResourceType type,
+      T group,
+      Set<String> knownResourceNames,
+      Consumer<Response> responseConsumer,
+      boolean hasClusterChanged) {
+    return delegate.createWatch(ads, request, type, group, knownResourceNames, responseConsumer, hasClusterChanged);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean supportsDeltaWatches() {
+    return delegate instanceof DeltaConfigWatcher && ((DeltaConfigWatcher<?>) delegate).supportsDeltaWatches();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public DeltaWatch createDeltaWatch(
+      DeltaDiscoveryRequest request,
+      Map<String, String> resourceVersions,
+      Set<String> subscribedResourceNames,
+      boolean isWildcard,
+      Consumer<DeltaResponse> responseConsumer) {
+    return deltaDelegate().createDeltaWatch(
+        request,
+        resourceVersions,
+        subscribedResourceNames,
+        isWildcard,
+        responseConsumer);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public DeltaWatch createDeltaWatch(
+      DeltaDiscoveryRequest request,
+      T group,
+      Map<String, String> resourceVersions,
+      Set<String> subscribedResourceNames,
+      boolean isWildcard,
+      Consumer<DeltaResponse> responseConsumer) {
+    return deltaDelegate().createDeltaWatch(
+        request,
+        group,
+        resourceVersions,
+        subscribedResourceNames,
+        isWildcard,
+        responseConsumer);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Collection<T> groups() {
+    return delegate.groups();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public StatusInfo statusInfo(T group) {
+    return delegate.statusInfo(group);
+  }
+
+  private DeltaConfigWatcher<T> deltaDelegate() {
+    if (!supportsDeltaWatches()) {
+      throw new UnsupportedOperationException("incremental xDS is not supported by " + delegate.getClass().getName());
+    }
+
+    return (DeltaConfigWatcher<T>) delegate;
+  }
+
+  private void schedule(T group, PendingUpdate update, long delayNanos) {
+    scheduler.schedule(() -> flush(group, update), delayNanos, TimeUnit.NANOSECONDS);
+  }
+
+  private void flush(T group, PendingUpdate update) {
+    Lock flushLock = flushLocks.get(group);
+    flushLock.lock();
+    try {
+      Snapshot[] due = new Snapshot[1];
+
+      pendingUpdates.computeIfPresent(group, (g, current) -> {
+        // The update was cleared, or replaced by a newer one that has its own flush scheduled.
+        if (current != update) {
+          return current;
+        }
+
+        long remainingNanos = Math.min(
+            update.lastUpdateNanos + windowNanos,
+            update.firstUpdateNanos + maxDelayNanos) - System.nanoTime();
+
+        if (remainingNanos > 0) {
+          schedule(group, update, remainingNanos);
+
+          return update;
+        }
+
+        update.flushing = true;
+        due[0] = update.snapshot;
+
+        return update;
+      });
+
+      if (due[0] != null) {
+        try {
+          delegate.setSnapshot(group, due[0]);
+        } finally {
+          pendingUpdates.remove(group, update);
+        }
+      }
+    } catch (RuntimeException e) {
+      LOGGER.error("failed to set coalesced snapshot for group {}", group, e);
+    } finally {
+      flushLock.unlock();
+    }
+  }
+
+  private static final class PendingUpdate {
+
+    private final long firstUpdateNanos;
+    // Only modified while computing the map entry of the group, but the snapshot is also read by getSnapshot.
+    private volatile Snapshot snapshot;
+    private volatile long lastUpdateNanos;
+    private volatile boolean flushing;
+
+    PendingUpdate(Snapshot snapshot, long firstUpdateNanos) {
+      this.snapshot = snapshot;
+      this.firstUpdateNanos = firstUpdateNanos;
+      this.lastUpdateNanos = firstUpdateNanos;
+    }
+  }
+}
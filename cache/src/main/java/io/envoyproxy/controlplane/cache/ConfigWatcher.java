@@ -1,6 +1,7 @@
 package io.envoyproxy.controlplane.cache;
 
 import io.envoyproxy.envoy.api.v2.DiscoveryRequest;
+import io.envoyproxy.envoy.api.v2.core.Node;
 import java.util.Set;
 import java.util.function.Consumer;
 import javax.annotation.concurrent.ThreadSafe;
@@ -9,9 +10,22 @@ import javax.annotation.concurrent.ThreadSafe;
  * {@code ConfigWatcher} requests watches for configuration resources by type, node, last applied version identifier,
  * and resource names hint. The watch should send the responses when they are ready. The watch can be cancelled by the
  * consumer, in effect terminating the watch for the request. ConfigWatcher implementations must be thread-safe.
+ *
+ * @param <T> the type of the groups of nodes, or {@link Object} if the watcher does not group nodes
  */
 @ThreadSafe
-public interface ConfigWatcher {
+public interface ConfigWatcher<T> {
+
+  /**
+   * Returns the group of the given node, or null if this watcher does not group nodes. Callers that create many watches
+   * for the same node, such as the streams of a server, may compute the group once and pass it along with each request
+   * they create a watch for, rather than have it computed for each watch.
+   *
+   * @param node the node to get the group of
+   */
+  default T group(Node node) {
+    return null;
+  }
 
   /**
    * Returns a new configuration resource {@link Watch} for the given discovery request.
@@ -29,4 +43,31 @@ public interface ConfigWatcher {
       Set<String> knownResourceNames,
       Consumer<Response> responseConsumer,
       boolean hasClusterChanged);
+
+  /**
+   * Returns a new configuration resource {@link Watch} for the given discovery request, from a node of the given group.
+   * Watchers that do not group nodes ignore the group, and watchers that do not dispatch on the resource type ignore
+   * the type.
+   *
+   * @param ads                is the watch for an ADS request?
+   * @param request            the discovery request (node, names, etc.) to use to generate the watch
+   * @param type               the type of the request, as returned by {@link ResourceType#fromTypeUrl(String)} for its
+   *                           type URL, or null to have it resolved from the request
+   * @param group              the group of the node of the request, as returned by {@link #group(Node)}, or null to
+   *                           have it computed from the request
+   * @param knownResourceNames resources that are already known to the caller
+   * @param responseConsumer   the response handler, used to process outgoing response messages
+   * @param hasClusterChanged  Indicates if EDS should be sent immediately, even if version has not been changed.
+   *                           Supported in ADS mode.
+   */
+  default Watch createWatch(
+      boolean ads,
+      DiscoveryRequest request,
+      ResourceType type,
+      T group,
+      Set<String> knownResourceNames,
+      Consumer<Response> responseConsumer,
+      boolean hasClusterChanged) {
+    return createWatch(ads, request, knownResourceNames, responseConsumer, hasClusterChanged);
+  }
 }
@@ -0,0 +1,216 @@
+package io.envoyproxy.controlplane.cache;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.protobuf.Message;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * {@code ContentHashVersionResolver} is a {@link ResourceVersionResolver} that derives versions from the content of the
+ * resources. The version of each resource is computed once, when the resolver is created, from its deterministic
+ * serialization (see {@link Resources#getResourceVersion(Message)}). The version of a set of resources combines the
+ * names and versions of the resources, so it only changes when one of them is added, removed or modified.
+ *
+ * <p>The hashes of the names and versions of the resources are combined by addition, so that the combined version does
+ * not depend on their order, and so that a patched resolver updates the version of all its resources by subtracting
+ * the hashes of the changed resources and adding their new ones, rather than hashing every resource again.
+ *
+ * <p>Versions of the most recently requested sets of resource names are memoized, since the same sets tend to be
+ * requested by many envoys.
+ */
+public final class ContentHashVersionResolver implements ResourceVersionResolver, ResourceContentVersions {
+
+  private static final int DEFAULT_MAXIMUM_MEMOIZED_VERSIONS = 1024;
+
+  private final Map<String, String> resourceVersions;
+  private final CombinedHash combinedHash;
+  private final String version;
+  private final Cache<List<String>, String> memoizedVersions;
+
+  /**
+   * Creates a resolver for the given resources.
+   *
+   * @param resources the resources to version, by name
+   */
+  public ContentHashVersionResolver(Map<String, ? extends Message> resources) {
+    this(resources, DEFAULT_MAXIMUM_MEMOIZED_VERSIONS);
+  }
+
+  /**
+   * Creates a resolver for the given resources.
+   *
+   * @param resources               the resources to version, by name
+   * @param maximumMemoizedVersions the maximum number of versions of sets of resource names to memoize
+   */
+  public ContentHashVersionResolver(Map<String, ? extends Message> resources, int maximumMemoizedVersions) {
+    this(
+        ImmutableMap.copyOf(Maps.transformValues(resources, Resources::getResourceVersion)),
+        null,
+        maximumMemoizedVersions);
+  }
+
+  private ContentHashVersionResolver(
+      Map<String, String> resourceVersions,
+      CombinedHash combinedHash,
+      int maximumMemoizedVersions) {
+    Preconditions.checkArgument(maximumMemoizedVersions >= 0, "maximumMemoizedVersions cannot be negative");
+
+    this.resourceVersions = resourceVersions;
+    this.combinedHash = combinedHash == null ? combinedHash(resourceVersions) : combinedHash;
+    this.version = this.combinedHash.toString();
+    this.memoizedVersions = CacheBuilder.newBuilder()
+        .maximumSize(maximumMemoizedVersions)
+        .build();
+  }
+
+  /**
+   * Returns a resolver for the resources of this resolver with the given resources added or replaced, and the given
+   * names removed. Only the versions of the upserted resources are computed, the others are reused, and the versions
+   * are overlaid on those of this resolver like the resources of a patched snapshot (see {@link PatchedResourceMap}).
+   *
+   * @param upserts  the resources to add or replace, by name
+   * @param removals the names of the resources to remove
+   */
+  ContentHashVersionResolver patch(Map<String, ? extends Message> upserts, Set<String> removals) {
+    CombinedHash patchedHash = combinedHash.copy();
+
+    for (String name : removals) {
+      String previousVersion = resourceVersions.get(name);
+
+      if (previousVersion != null && !upserts.containsKey(name)) {
+        patchedHash.subtract(name, previousVersion);
+      }
+    }
+
+    Map<String, String> upsertedVersions = new LinkedHashMap<>();
+
+    upserts.forEach((name, resource) -> {
+      String previousVersion = resourceVersions.get(name);
+      String upsertedVersion = Resources.getResourceVersion(resource);
+
+      if (previousVersion != null) {
+        patchedHash.subtract(name, previousVersion);
+      }
+
+      patchedHash.add(name, upsertedVersion);
+      upsertedVersions.put(name, upsertedVersion);
+    });
+
+    return new ContentHashVersionResolver(
+        PatchedResourceMap.patch(resourceVersions, upsertedVersions, removals),
+        patchedHash,
+        DEFAULT_MAXIMUM_MEMOIZED_VERSIONS);
+  }
+
+  /**
+   * Returns the version of a single resource, or null if there is no resource with the given name.
+   *
+   * @param resourceName the name of the resource
+   */
+  @Override
+  public String resourceVersion(String resourceName) {
+    return resourceVersions.get(resourceName);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String version() {
+    return version;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String version(List<String> resourceNames) {
+    if (resourceNames.isEmpty()) {
+      return version;
+    }
+
+    List<String> key = ImmutableList.copyOf(resourceNames);
+
+    try {
+      return memoizedVersions.get(key, () -> combinedVersion(ImmutableSet.copyOf(key)));
+    } catch (ExecutionException e) {
+      // Combining versions does not throw checked exceptions.
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private String combinedVersion(Set<String> resourceNames) {
+    CombinedHash hash = new CombinedHash();
+
+    // Missing resources are part of the version as well, so that the version changes once they are added.
+    resourceNames.forEach(name -> hash.add(name, resourceVersions.get(name)));
+
+    return hash.toString();
+  }
+
+  private static CombinedHash combinedHash(Map<String, String> resourceVersions) {
+    CombinedHash hash = new CombinedHash();
+
+    resourceVersions.forEach(hash::add);
+
+    return hash;
+  }
+
+  /**
+   * The sum of the 128 bit hashes of the names and versions of resources, as two independent 64 bit halves.
+   */
+  private static final class CombinedHash {
+
+    private long low;
+    private long high;
+
+    void add(String name, String resourceVersion) {
+      HashCode hash = hash(name, resourceVersion);
+
+      low += hash.asLong();
+      high += ByteBuffer.wrap(hash.asBytes(), Long.BYTES, Long.BYTES).getLong();
+    }
+
+    void subtract(String name, String resourceVersion) {
+      HashCode hash = hash(name, resourceVersion);
+
+      low -= hash.asLong();
+      high -= ByteBuffer.wrap(hash.asBytes(), Long.BYTES, Long.BYTES).getLong();
+    }
+
+    CombinedHash copy() {
+      CombinedHash copy = new CombinedHash();
+      copy.low = low;
+      copy.high = high;
+
+      return copy;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%016x%016x", high, low);
+    }
+
+    private static HashCode hash(String name, String resourceVersion) {
+      return Hashing.murmur3_128().newHasher()
+          .putInt(name.length())
+          .putString(name, StandardCharsets.UTF_8)
+          .putBoolean(resourceVersion != null)
+          .putString(resourceVersion == null ? "" : resourceVersion, StandardCharsets.UTF_8)
+          .hash();
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package io.envoyproxy.controlplane.cache;
+
+import io.envoyproxy.envoy.api.v2.DeltaDiscoveryRequest;
+import io.envoyproxy.envoy.api.v2.core.Node;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * {@code DeltaConfigWatcher} is a {@link ConfigWatcher} that also requests watches for incremental xDS, which only
+ * respond with the resources that changed compared to the versions known by the requester. DeltaConfigWatcher
+ * implementations must be thread-safe.
+ *
+ * @param <T> the type of the groups of nodes, or {@link Object} if the watcher does not group nodes
+ */
+@ThreadSafe
+public interface DeltaConfigWatcher<T> extends ConfigWatcher<T> {
+
+  /**
+   * Returns whether this watcher creates {@link DeltaWatch}es. Watchers that pass the watches on to another watcher
+   * may only support them if that watcher does, so servers check this before serving incremental xDS streams.
+   */
+  default boolean supportsDeltaWatches() {
+    return true;
+  }
+
+  /**
+   * Returns a new configuration resource {@link DeltaWatch} for the given incremental discovery request. The watch
+   * only responds with the resources that were added or changed compared to the given resource versions known by the
+   * requester, and with the names of known resources that were removed.
+   *
+   * @param request                 the delta discovery request (node, type, etc.) to use to generate the watch
+   * @param resourceVersions        the versions of the resources currently known to the requester, by name
+   * @param subscribedResourceNames the names of the resources the requester is subscribed to
+   * @param isWildcard              is the requester subscribed to all resources of the type?
+   * @param responseConsumer        the response handler, used to process outgoing response messages
+   */
+  DeltaWatch createDeltaWatch(
+      DeltaDiscoveryRequest request,
+      Map<String, String> resourceVersions,
+      Set<String> subscribedResourceNames,
+      boolean isWildcard,
+      Consumer<DeltaResponse> responseConsumer);
+
+  /**
+   * Returns a new configuration resource {@link DeltaWatch} for the given incremental discovery request, from a node of
+   * the given group. Watchers that do not group nodes ignore the group.
+   *
+   * @param request                 the delta discovery request (node, type, etc.) to use to generate the watch
+   * @param group                   the group of the node of the request, as returned by {@link #group(Node)}, or null
+   *                                to have it computed from the request
+   * @param resourceVersions        the versions of the resources currently known to the requester, by name
+   * @param subscribedResourceNames the names of the resources the requester is subscribed to
+   * @param isWildcard              is the requester subscribed to all resources of the type?
+   * @param responseConsumer        the response handler, used to process outgoing response messages
+   */
+  default DeltaWatch createDeltaWatch(
+      DeltaDiscoveryRequest request,
+      T group,
+      Map<String, String> resourceVersions,
+      Set<String> subscribedResourceNames,
+      boolean isWildcard,
+      Consumer<DeltaResponse> responseConsumer) {
+    return createDeltaWatch(request, resourceVersions, subscribedResourceNames, isWildcard, responseConsumer);
+  }
+}
@@ -0,0 +1,42 @@
+package io.envoyproxy.controlplane.cache;
+
+import com.google.auto.value.AutoValue;
+import io.envoyproxy.envoy.api.v2.DeltaDiscoveryRequest;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@code DeltaResponse} is a data class that contains the incremental response for an assumed configuration type.
+ */
+@AutoValue
+public abstract class DeltaResponse {
+
+  public static DeltaResponse create(
+      DeltaDiscoveryRequest request,
+      Map<String, VersionedResource<?>> resources,
+      List<String> removedResources,
+      String version) {
+    return new AutoValue_DeltaResponse(request, resources, removedResources, version);
+  }
+
+  /**
+   * Returns the original request associated with the response.
+   */
+  public abstract DeltaDiscoveryRequest request();
+
+  /**
+   * Returns the added or updated resources to include in the response, by resource name.
+   */
+  public abstract Map<String, VersionedResource<?>> resources();
+
+  /**
+   * Returns the names of the resources that were removed since they were last sent.
+   */
+  public abstract List<String> removedResources();
+
+  /**
+   * Returns the version of the snapshot the response was generated from. It is informational only, since delta xDS
+   * tracks versions per resource.
+   */
+  public abstract String version();
+}
@@ -0,0 +1,57 @@
+package io.envoyproxy.controlplane.cache;
+
+import io.envoyproxy.envoy.api.v2.DeltaDiscoveryRequest;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * {@code DeltaWatch} is a dedicated stream of incremental configuration resource updates produced by the configuration
+ * cache and consumed by the delta xDS server.
+ */
+public class DeltaWatch extends AbstractWatch<DeltaDiscoveryRequest, DeltaResponse> {
+  private final Map<String, String> resourceVersions;
+  private final Set<String> subscribedResourceNames;
+  private final boolean isWildcard;
+
+  /**
+   * Construct a delta watch.
+   *
+   * @param request                 the original request for the watch
+   * @param resourceVersions        the versions of the resources currently known to the requester, by name
+   * @param subscribedResourceNames the names of the resources the requester is subscribed to
+   * @param isWildcard              is the requester subscribed to all resources of the type?
+   * @param responseConsumer        handler for outgoing response messages
+   */
+  public DeltaWatch(DeltaDiscoveryRequest request,
+                    Map<String, String> resourceVersions,
+                    Set<String> subscribedResourceNames,
+                    boolean isWildcard,
+                    Consumer<DeltaResponse> responseConsumer) {
+    super(request, responseConsumer);
+    this.resourceVersions = resourceVersions;
+    this.subscribedResourceNames = subscribedResourceNames;
+    this.isWildcard = isWildcard;
+  }
+
+  /**
+   * Returns the versions of the resources currently known to the requester, by resource name.
+   */
+  public Map<String, String> resourceVersions() {
+    return resourceVersions;
+  }
+
+  /**
+   * Returns the names of the resources the requester is subscribed to. Ignored for wildcard watches.
+   */
+  public Set<String> subscribedResourceNames() {
+    return subscribedResourceNames;
+  }
+
+  /**
+   * Returns boolean indicating whether or not the requester is subscribed to all resources of the type.
+   */
+  public boolean isWildcard() {
+    return isWildcard;
+  }
+}
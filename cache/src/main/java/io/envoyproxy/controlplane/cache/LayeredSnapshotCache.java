@@ -0,0 +1,392 @@
+package io.envoyproxy.controlplane.cache;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Striped;
+import com.google.protobuf.Message;
+import io.envoyproxy.envoy.api.v2.DeltaDiscoveryRequest;
+import io.envoyproxy.envoy.api.v2.DiscoveryRequest;
+import io.envoyproxy.envoy.api.v2.core.Node;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * {@code LayeredSnapshotCache} is a {@link SnapshotCache} that composes the snapshot of each node group from a base
+ * snapshot that is shared by all groups, and an optional overlay snapshot of the group. Resources of the overlay
+ * replace the resources of the base with the same type and name.
+ *
+ * <p>Setting the base snapshot updates all groups at once: groups without an overlay share the base snapshot itself,
+ * and the snapshot of groups with an overlay is composed again. Setting the overlay of a group with
+ * {@link #setSnapshot(Object, Snapshot)} only updates that group. Composing shares the resources of the base rather
+ * than copying them, and resource types without overlay resources keep the resources and version of the base.
+ *
+ * <p>The composed snapshots are set on a {@link SimpleCache}, which the watches are created on.
+ */
+public class LayeredSnapshotCache<T> implements SnapshotCache<T>, DeltaConfigWatcher<T> {
+
+  private final NodeGroup<T> groups;
+  private final SimpleCache<T> cache;
+
+  // Base updates take the write lock to compose the snapshots of the groups, while overlay updates, clears and the
+  // composition of groups seen for the first time take the read lock, so that they are never composed with a base that
+  // is being replaced.
+  private final ReadWriteLock layersLock = new ReentrantReadWriteLock();
+  // Serializes setting the composed snapshots of the groups in each stripe on the cache.
+  private final Striped<Lock> groupLocks = Striped.lock(64);
+
+  private final ConcurrentMap<T, Snapshot> overlays = new ConcurrentHashMap<>();
+  // The latest snapshot composed for each group. The cache may not have been updated with it yet, either because it is
+  // about to be set, or because the cache applies its updates asynchronously.
+  private final ConcurrentMap<T, Snapshot> composed = new ConcurrentHashMap<>();
+  private volatile Snapshot base;
+
+  /**
+   * Constructs a layered cache that sets the composed snapshots on a new {@link SimpleCache}.
+   *
+   * @param groups maps an envoy host to a node group
+   */
+  public LayeredSnapshotCache(NodeGroup<T> groups) {
+    this(groups, new SimpleCache<>(groups));
+  }
+
+  /**
+   * Constructs a layered cache that sets the composed snapshots on the given cache.
+   *
+   * @param groups maps an envoy host to a node group, must be the same as the one of the cache
+   * @param cache  the cache to set the composed snapshots on
+   */
+  public LayeredSnapshotCache(NodeGroup<T> groups, SimpleCache<T> cache) {
+    this.groups = groups;
+    this.cache = cache;
+  }
+
+  /**
+   * Returns the base snapshot shared by all groups, or null if none was set.
+   */
+  public Snapshot getBaseSnapshot() {
+    return base;
+  }
+
+  /**
+   * Sets the base snapshot shared by all groups, and updates the snapshots of all groups that have an overlay or are
+   * known to the cache.
+   *
+   * @param snapshot the base snapshot
+   */
+  public void setBaseSnapshot(Snapshot snapshot) {
+    Map<T, Snapshot> overlaidSnapshots = new HashMap<>();
+    List<T> baseGroups = new ArrayList<>();
+
+    // The snapshots are composed under the lock, and set on the cache after releasing it, so that updates of other
+    // groups do not wait for the watches of all groups to be responded to.
+    Lock writeLock = layersLock.writeLock();
+    writeLock.lock();
+    try {
+      base = snapshot;
+
+      Set<T> updatedGroups = ImmutableSet.<T>builder()
+          .addAll(cache.groups())
+          .addAll(composed.keySet())
+          .addAll(overlays.keySet())
+          .build();
+
+      for (T group : updatedGroups) {
+        Snapshot overlay = overlays.get(group);
+
+        if (overlay == null) {
+          composed.put(group, snapshot);
+          baseGroups.add(group);
+        } else {
+          Snapshot groupSnapshot = compose(snapshot, overlay);
+          composed.put(group, groupSnapshot);
+          overlaidSnapshots.put(group, groupSnapshot);
+        }
+      }
+    } finally {
+      writeLock.unlock();
+    }
+
+    overlaidSnapshots.forEach(this::setComposedSnapshot);
+
+    // Locks are taken in stripe order, so that concurrent base updates cannot deadlock.
+    Iterable<Lock> baseGroupLocks = groupLocks.bulkGet(baseGroups);
+    baseGroupLocks.forEach(Lock::lock);
+    try {
+      cache.setSharedSnapshot(
+          baseGroups.stream().filter(group -> composed.get(group) == snapshot).collect(Collectors.toList()),
+          snapshot);
+    } finally {
+      baseGroupLocks.forEach(Lock::unlock);
+    }
+  }
+
+  /**
+   * Sets the overlay snapshot of the given group, which is composed with the base snapshot. The versions of the
+   * overlay, combined with those of the base, make up the versions of the composed snapshot.
+   *
+   * @param group group identifier
+   * @param snapshot the overlay snapshot of the group
+   */
+  @Override
+  public void setSnapshot(T group, Snapshot snapshot) {
+    Lock readLock = layersLock.readLock();
+    readLock.lock();
+    Lock groupLock = groupLocks.get(group);
+    groupLock.lock();
+    try {
+      overlays.put(group, snapshot);
+
+      Snapshot currentBase = base;
+      Snapshot groupSnapshot = currentBase == null ? snapshot : compose(currentBase, snapshot);
+
+      composed.put(group, groupSnapshot);
+      cache.setSnapshot(group, groupSnapshot);
+    } finally {
+      groupLock.unlock();
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * Returns the composed snapshot of the given group.
+   *
+   * @param group group identifier
+   */
+  @Override
+  public Snapshot getSnapshot(T group) {
+    return cache.getSnapshot(group);
+  }
+
+  /**
+   * Clears the overlay and the composed snapshot of the given group. The group is composed again with the base snapshot
+   * if it creates new watches.
+   *
+   * @param group group identifier
+   * @return true if the snapshot was cleared, false otherwise
+   */
+  @Override
+  public boolean clearSnapshot(T group) {
+    Lock readLock = layersLock.readLock();
+    readLock.lock();
+    Lock groupLock = groupLocks.get(group);
+    groupLock.lock();
+    try {
+      if (!cache.clearSnapshot(group)) {
+        return false;
+      }
+
+      overlays.remove(group);
+      composed.remove(group);
+
+      return true;
+    } finally {
+      groupLock.unlock();
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public T group(Node node) {
+    return groups.hash(node);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Watch createWatch(
+      boolean ads,
+      DiscoveryRequest request,
+      Set<String> knownResourceNames,
+      Consumer<Response> responseConsumer,
+      boolean hasClusterChanged) {
+    ensureComposed(groups.hash(request.getNode()));
+
+    return cache.createWatch(ads, request, knownResourceNames, responseConsumer, hasClusterChanged);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public Watch createWatch(
+      boolean ads,
+      DiscoveryRequest request,
+      ResourceType type,
+      T group,
+      Set<String> knownResourceNames,
+      Consumer<Response> responseConsumer,
+      boolean hasClusterChanged) {
+    T groupOfNode = group == null ? groups.hash(request.getNode()) : (T) group;
+    ensureComposed(groupOfNode);
+
+    return cache.createWatch(
+        ads,
+        request,
+        type,
+        groupOfNode,
+        knownResourceNames,
+        responseConsumer,
+        hasClusterChanged);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public DeltaWatch createDeltaWatch(
+      DeltaDiscoveryRequest request,
+      Map<String, String> resourceVersions,
+      Set<String> subscribedResourceNames,
+      boolean isWildcard,
+      Consumer<DeltaResponse> responseConsumer) {
+    ensureComposed(groups.hash(request.getNode()));
+
+    return cache.createDeltaWatch(request, resourceVersions, subscribedResourceNames, isWildcard, responseConsumer);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public DeltaWatch createDeltaWatch(
+      DeltaDiscoveryRequest request,
+      T group,
+      Map<String, String> resourceVersions,
+      Set<String> subscribedResourceNames,
+      boolean isWildcard,
+      Consumer<DeltaResponse> responseConsumer) {
+    T groupOfNode = group == null ? groups.hash(request.getNode()) : (T) group;
+    ensureComposed(groupOfNode);
+
+    return cache.createDeltaWatch(
+        request,
+        groupOfNode,
+        resourceVersions,
+        subscribedResourceNames,
+        isWildcard,
+        responseConsumer);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Collection<T> groups() {
+    return cache.groups();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public StatusInfo statusInfo(T group) {
+    return cache.statusInfo(group);
+  }
+
+  private void ensureComposed(T group) {
+    // Groups that were not known when the base was set get the base snapshot once they show up. Whether a group was
+    // composed is tracked here rather than read from the cache, which may not have applied the snapshot yet.
+    if (base == null || composed.containsKey(group)) {
+      return;
+    }
+
+    Lock readLock = layersLock.readLock();
+    readLock.lock();
+    Lock groupLock = groupLocks.get(group);
+    groupLock.lock();
+    try {
+      if (!composed.containsKey(group)) {
+        Snapshot overlay = overlays.get(group);
+        Snapshot groupSnapshot = overlay == null ? base : compose(base, overlay);
+
+        composed.put(group, groupSnapshot);
+        cache.setSnapshot(group, groupSnapshot);
+      }
+    } finally {
+      groupLock.unlock();
+      readLock.unlock();
+    }
+  }
+
+  private void setComposedSnapshot(T group, Snapshot snapshot) {
+    Lock groupLock = groupLocks.get(group);
+    groupLock.lock();
+    try {
+      // A newer snapshot may have been composed for the group in the meantime, which is then set by its own update.
+      if (composed.get(group) == snapshot) {
+        cache.setSnapshot(group, snapshot);
+      }
+    } finally {
+      groupLock.unlock();
+    }
+  }
+
+  private static Snapshot compose(Snapshot base, Snapshot overlay) {
+    return new AutoValue_Snapshot(
+        compose(base.clusters(), overlay.clusters()),
+        compose(base.endpoints(), overlay.endpoints()),
+        compose(base.listeners(), overlay.listeners()),
+        compose(base.routes(), overlay.routes()),
+        compose(base.secrets(), overlay.secrets()));
+  }
+
+  private static <T extends Message> SnapshotResources<T> compose(
+      SnapshotResources<T> base,
+      SnapshotResources<T> overlay) {
+
+    if (overlay.resources().isEmpty()) {
+      return base;
+    }
+
+    return SnapshotResources.createFromMap(
+        PatchedResourceMap.patch(base.resources(), overlay.resources(), ImmutableSet.of()),
+        new LayeredVersionResolver(base, overlay));
+  }
+
+  /**
+   * Combines the versions of the base and overlay resources. The content versions of individual resources are taken
+   * from the layer the resource is in, so they are only computed once for the base rather than once per group.
+   */
+  private static final class LayeredVersionResolver implements ResourceVersionResolver, ResourceContentVersions {
+
+    private final SnapshotResources<?> base;
+    private final SnapshotResources<?> overlay;
+
+    LayeredVersionResolver(SnapshotResources<?> base, SnapshotResources<?> overlay) {
+      this.base = base;
+      this.overlay = overlay;
+    }
+
+    @Override
+    public String version(List<String> resourceNames) {
+      return base.version(resourceNames) + "+" + overlay.version(resourceNames);
+    }
+
+    @Override
+    public String resourceVersion(String resourceName) {
+      VersionedResource<?> resource = overlay.versionedResources().get(resourceName);
+
+      if (resource == null) {
+        resource = base.versionedResources().get(resourceName);
+      }
+
+      return resource == null ? null : resource.version();
+    }
+  }
+}
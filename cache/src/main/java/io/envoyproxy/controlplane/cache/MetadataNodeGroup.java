@@ -0,0 +1,175 @@
+package io.envoyproxy.controlplane.cache;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.MapMaker;
+import com.google.protobuf.Struct;
+import com.google.protobuf.TextFormat;
+import com.google.protobuf.Value;
+import io.envoyproxy.envoy.api.v2.core.Node;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * {@code MetadataNodeGroup} groups {@link Node}s by a key made of some of their fields, such as their cluster or the
+ * values of their metadata. The key is described by a list of fields, each of which is one of:
+ *
+ * <ul>
+ *   <li>{@code id}, the id of the node</li>
+ *   <li>{@code cluster}, the cluster of the node</li>
+ *   <li>{@code locality.region}, {@code locality.zone} or {@code locality.sub_zone}, part of the locality of the
+ *   node</li>
+ *   <li>{@code metadata.<path>}, the value at the given dot separated path of the metadata of the node, e.g.
+ *   {@code metadata.istio.version}</li>
+ * </ul>
+ *
+ * <p>The group of a node is the value of each field, in the order they were listed, joined by the separator. Fields
+ * that are not set, including metadata paths that are missing, have an empty value. String, number and boolean
+ * metadata values are used as is, with integral numbers formatted without a fraction, while lists and structs use
+ * their text format.
+ *
+ * <p>The fields are parsed once, when the group is created. The groups are interned, so that nodes of the same group
+ * share the same key, and they are cached by node instance, so that hashing the same node again does not allocate.
+ */
+@ThreadSafe
+public final class MetadataNodeGroup implements NodeGroup<String> {
+
+  private static final String DEFAULT_SEPARATOR = "/";
+  private static final String METADATA_PREFIX = "metadata.";
+
+  private final List<Function<Node, String>> fields;
+  private final String separator;
+  private final Interner<String> groups = Interners.newWeakInterner();
+  private final ConcurrentMap<Node, String> groupsByNode = new MapMaker().weakKeys().makeMap();
+
+  /**
+   * Creates a node group whose keys are made of the given fields, joined by {@code /}.
+   *
+   * @param fields the fields that make up the key of each group
+   */
+  public MetadataNodeGroup(List<String> fields) {
+    this(fields, DEFAULT_SEPARATOR);
+  }
+
+  /**
+   * Creates a node group whose keys are made of the given fields, joined by the given separator.
+   *
+   * @param fields    the fields that make up the key of each group
+   * @param separator the separator between the values of the fields
+   * @throws IllegalArgumentException if there are no fields, or one of them is not supported
+   */
+  public MetadataNodeGroup(List<String> fields, String separator) {
+    checkArgument(!fields.isEmpty(), "at least one field is required");
+
+    ImmutableList.Builder<Function<Node, String>> compiledFields = ImmutableList.builder();
+    fields.forEach(field -> compiledFields.add(compile(field)));
+
+    this.fields = compiledFields.build();
+    this.separator = separator;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String hash(Node node) {
+    String group = groupsByNode.get(node);
+
+    if (group == null) {
+      group = groups.intern(key(node));
+      groupsByNode.put(node, group);
+    }
+
+    return group;
+  }
+
+  private String key(Node node) {
+    if (fields.size() == 1) {
+      return fields.get(0).apply(node);
+    }
+
+    StringBuilder key = new StringBuilder();
+
+    for (int i = 0; i < fields.size(); i++) {
+      if (i > 0) {
+        key.append(separator);
+      }
+
+      key.append(fields.get(i).apply(node));
+    }
+
+    return key.toString();
+  }
+
+  private static Function<Node, String> compile(String field) {
+    switch (field) {
+      case "id":
+        return Node::getId;
+      case "cluster":
+        return Node::getCluster;
+      case "locality.region":
+        return node -> node.getLocality().getRegion();
+      case "locality.zone":
+        return node -> node.getLocality().getZone();
+      case "locality.sub_zone":
+        return node -> node.getLocality().getSubZone();
+      default:
+        break;
+    }
+
+    checkArgument(
+        field.startsWith(METADATA_PREFIX) && field.length() > METADATA_PREFIX.length(),
+        "unsupported node field %s",
+        field);
+
+    String[] path = field.substring(METADATA_PREFIX.length()).split("\\.", -1);
+
+    for (String name : path) {
+      checkArgument(!name.isEmpty(), "empty name in metadata path of field %s", field);
+    }
+
+    return node -> metadataValue(node.getMetadata(), path);
+  }
+
+  private static String metadataValue(Struct metadata, String[] path) {
+    Struct struct = metadata;
+    Value value = null;
+
+    for (String name : path) {
+      if (struct == null) {
+        return "";
+      }
+
+      value = struct.getFieldsOrDefault(name, null);
+
+      if (value == null) {
+        return "";
+      }
+
+      struct = value.hasStructValue() ? value.getStructValue() : null;
+    }
+
+    switch (value.getKindCase()) {
+      case STRING_VALUE:
+        return value.getStringValue();
+      case NUMBER_VALUE:
+        double number = value.getNumberValue();
+
+        return number == Math.rint(number) && !Double.isInfinite(number)
+            ? Long.toString((long) number)
+            : Double.toString(number);
+      case BOOL_VALUE:
+        return Boolean.toString(value.getBoolValue());
+      case NULL_VALUE:
+      case KIND_NOT_SET:
+        return "";
+      default:
+        return TextFormat.shortDebugString(value);
+    }
+  }
+}
@@ -0,0 +1,142 @@
+package io.envoyproxy.controlplane.cache;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Maps;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@code PatchedResourceMap} is an immutable map of resources by name that shares the resources of a base map, and only
+ * holds the resources that were added, modified or removed since. Successive patches accumulate in the same overlay on
+ * top of the base map until the overlay grows too large relative to the base map, at which point the map is flattened
+ * again. Creating a patched map is therefore proportional to the size of the accumulated changes, rather than to the
+ * size of the map.
+ *
+ * <p>Resources of the base map keep their iteration order, followed by the added resources.
+ */
+final class PatchedResourceMap<T> extends AbstractMap<String, T> {
+
+  private static final int MIN_FLATTEN_THRESHOLD = 16;
+
+  private final ImmutableMap<String, T> base;
+  private final ImmutableMap<String, T> upserts;
+  private final ImmutableSet<String> removals;
+  private final int size;
+
+  private PatchedResourceMap(
+      ImmutableMap<String, T> base,
+      ImmutableMap<String, T> upserts,
+      ImmutableSet<String> removals,
+      int size) {
+    this.base = base;
+    this.upserts = upserts;
+    this.removals = removals;
+    this.size = size;
+  }
+
+  /**
+   * Returns a map with the given resources added or replaced, and the given names removed. Names that are both
+   * upserted and removed are upserted.
+   *
+   * @param resources the map to patch, which is not modified
+   * @param upserts   the resources to add or replace, by name
+   * @param removals  the names of the resources to remove
+   * @param <T>       the type of the resources
+   */
+  static <T> Map<String, T> patch(Map<String, T> resources, Map<String, T> upserts, Set<String> removals) {
+    ImmutableMap<String, T> base;
+    Map<String, T> allUpserts = new LinkedHashMap<>();
+    Set<String> allRemovals = new HashSet<>();
+
+    if (resources instanceof PatchedResourceMap) {
+      PatchedResourceMap<T> patched = (PatchedResourceMap<T>) resources;
+
+      base = patched.base;
+      allUpserts.putAll(patched.upserts);
+      allRemovals.addAll(patched.removals);
+    } else {
+      base = ImmutableMap.copyOf(resources);
+    }
+
+    for (String name : removals) {
+      allUpserts.remove(name);
+
+      if (base.containsKey(name)) {
+        allRemovals.add(name);
+      }
+    }
+
+    allUpserts.putAll(upserts);
+    allRemovals.removeAll(upserts.keySet());
+
+    int added = 0;
+    for (String name : allUpserts.keySet()) {
+      if (!base.containsKey(name)) {
+        added++;
+      }
+    }
+
+    PatchedResourceMap<T> patched = new PatchedResourceMap<>(
+        base,
+        ImmutableMap.copyOf(allUpserts),
+        ImmutableSet.copyOf(allRemovals),
+        base.size() - allRemovals.size() + added);
+
+    if (allUpserts.size() + allRemovals.size() > Math.max(MIN_FLATTEN_THRESHOLD, base.size() / 4)) {
+      return ImmutableMap.copyOf(patched);
+    }
+
+    return patched;
+  }
+
+  @Override
+  public T get(Object key) {
+    T upserted = upserts.get(key);
+
+    if (upserted != null) {
+      return upserted;
+    }
+
+    return removals.contains(key) ? null : base.get(key);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return upserts.containsKey(key) || (!removals.contains(key) && base.containsKey(key));
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Set<Entry<String, T>> entrySet() {
+    return new AbstractSet<Entry<String, T>>() {
+      @Override
+      public Iterator<Entry<String, T>> iterator() {
+        Iterator<Entry<String, T>> baseEntries = Iterators.transform(
+            Iterators.filter(base.entrySet().iterator(), e -> !removals.contains(e.getKey())),
+            e -> upserts.containsKey(e.getKey()) ? Maps.immutableEntry(e.getKey(), upserts.get(e.getKey())) : e);
+
+        Iterator<Entry<String, T>> addedEntries = Iterators.filter(
+            upserts.entrySet().iterator(),
+            e -> !base.containsKey(e.getKey()));
+
+        return Iterators.unmodifiableIterator(Iterators.concat(baseEntries, addedEntries));
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+}
@@ -0,0 +1,16 @@
+package io.envoyproxy.controlplane.cache;
+
+/**
+ * {@code ResourceContentVersions} is implemented by version resolvers that already know the content version of each of
+ * their resources, see {@link Resources#getResourceVersion(com.google.protobuf.Message)}, so that
+ * {@link SnapshotResources#versionedResources()} does not compute them again.
+ */
+interface ResourceContentVersions {
+
+  /**
+   * Returns the content version of a single resource, or null if there is no resource with the given name.
+   *
+   * @param resourceName the name of the resource
+   */
+  String resourceVersion(String resourceName);
+}
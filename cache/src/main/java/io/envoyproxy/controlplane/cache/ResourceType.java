@@ -0,0 +1,97 @@
+package io.envoyproxy.controlplane.cache;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.protobuf.Message;
+import io.envoyproxy.envoy.api.v2.Cluster;
+import io.envoyproxy.envoy.api.v2.ClusterLoadAssignment;
+import io.envoyproxy.envoy.api.v2.Listener;
+import io.envoyproxy.envoy.api.v2.RouteConfiguration;
+import io.envoyproxy.envoy.api.v2.auth.Secret;
+
+/**
+ * {@code ResourceType} enumerates the xDS resource types known to the cache, in the order in which responses should be
+ * sent, see {@link Resources#TYPE_URLS}. The dense ordinals of the types allow per-type state to be kept in small
+ * arrays rather than in maps keyed by type URL.
+ */
+public enum ResourceType {
+  CLUSTER(Resources.CLUSTER_TYPE_URL, Cluster.class),
+  ENDPOINT(Resources.ENDPOINT_TYPE_URL, ClusterLoadAssignment.class),
+  LISTENER(Resources.LISTENER_TYPE_URL, Listener.class),
+  ROUTE(Resources.ROUTE_TYPE_URL, RouteConfiguration.class),
+  SECRET(Resources.SECRET_TYPE_URL, Secret.class);
+
+  private static final ResourceType[] VALUES = values();
+  private static final ImmutableMap<String, ResourceType> BY_TYPE_URL;
+
+  static {
+    ImmutableMap.Builder<String, ResourceType> byTypeUrl = ImmutableMap.builder();
+
+    for (ResourceType type : VALUES) {
+      byTypeUrl.put(type.typeUrl, type);
+    }
+
+    BY_TYPE_URL = byTypeUrl.build();
+  }
+
+  private final String typeUrl;
+  private final Class<? extends Message> resourceClass;
+
+  ResourceType(String typeUrl, Class<? extends Message> resourceClass) {
+    this.typeUrl = typeUrl;
+    this.resourceClass = resourceClass;
+  }
+
+  /**
+   * Returns the type with the given URL, or null if the type is not known to the cache.
+   *
+   * @param typeUrl the URL of the resource type
+   */
+  public static ResourceType fromTypeUrl(String typeUrl) {
+    return typeUrl == null ? null : BY_TYPE_URL.get(typeUrl);
+  }
+
+  /**
+   * Returns the type of the given resource, or null if the type is not known to the cache.
+   *
+   * @param resource the resource message
+   */
+  public static ResourceType of(Message resource) {
+    for (ResourceType type : VALUES) {
+      if (type.resourceClass.isInstance(resource)) {
+        return type;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns the number of known resource types, which bounds their ordinals.
+   */
+  public static int count() {
+    return VALUES.length;
+  }
+
+  /**
+   * Returns the type with the given ordinal.
+   *
+   * @param ordinal the ordinal of the type
+   */
+  static ResourceType fromOrdinal(int ordinal) {
+    return VALUES[ordinal];
+  }
+
+  /**
+   * Returns the URL of this type.
+   */
+  public String typeUrl() {
+    return typeUrl;
+  }
+
+  /**
+   * Returns the message class of the resources of this type.
+   */
+  public Class<? extends Message> resourceClass() {
+    return resourceClass;
+  }
+}
@@ -0,0 +1,104 @@
+package io.envoyproxy.controlplane.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * {@code ResourceTypeMap} holds a value per resource type. Values of the types known to the cache are held in an array
+ * indexed by the ordinal of their {@link ResourceType}, so that looking them up does not hash the type URL. Values of
+ * other type URLs, which ADS streams may request, are held in a map that is only created once such a type shows up.
+ *
+ * <p>Reads do not lock the map, while the values of the known types are created under its lock, so that the supplier
+ * given to {@link #computeIfAbsent} is invoked at most once per type.
+ */
+@ThreadSafe
+final class ResourceTypeMap<V> {
+
+  private final AtomicReferenceArray<V> values = new AtomicReferenceArray<>(ResourceType.count());
+  private volatile ConcurrentMap<String, V> otherTypes;
+
+  /**
+   * Returns the value of the given type, or null if there is none.
+   *
+   * @param type the resource type
+   */
+  V get(ResourceType type) {
+    return values.get(type.ordinal());
+  }
+
+  /**
+   * Returns the value of the given type, creating it with the given supplier if there is none.
+   *
+   * @param type          the resource type, or null if the type URL is not known to the cache
+   * @param typeUrl       the URL of the resource type
+   * @param valueSupplier creates the value of the type
+   */
+  V computeIfAbsent(ResourceType type, String typeUrl, Supplier<? extends V> valueSupplier) {
+    if (type == null) {
+      return otherTypes().computeIfAbsent(typeUrl, t -> valueSupplier.get());
+    }
+
+    V current = values.get(type.ordinal());
+
+    if (current != null) {
+      return current;
+    }
+
+    synchronized (this) {
+      current = values.get(type.ordinal());
+
+      if (current == null) {
+        current = valueSupplier.get();
+        values.set(type.ordinal(), current);
+      }
+
+      return current;
+    }
+  }
+
+  /**
+   * Returns the values of all types, those of the known types first in the order of {@link ResourceType}.
+   */
+  Collection<V> values() {
+    List<V> result = new ArrayList<>(values.length());
+
+    for (int i = 0; i < values.length(); i++) {
+      V value = values.get(i);
+
+      if (value != null) {
+        result.add(value);
+      }
+    }
+
+    ConcurrentMap<String, V> others = otherTypes;
+
+    if (others != null) {
+      result.addAll(others.values());
+    }
+
+    return result;
+  }
+
+  private ConcurrentMap<String, V> otherTypes() {
+    ConcurrentMap<String, V> others = otherTypes;
+
+    if (others == null) {
+      synchronized (this) {
+        others = otherTypes;
+
+        if (others == null) {
+          others = new ConcurrentHashMap<>();
+          otherTypes = others;
+        }
+      }
+    }
+
+    return others;
+  }
+}
@@ -7,11 +7,13 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
 import com.google.protobuf.Any;
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Message;
 import com.google.protobuf.Struct;
-import com.google.protobuf.util.JsonFormat;
+import com.google.protobuf.Value;
 import io.envoyproxy.envoy.api.v2.Cluster;
 import io.envoyproxy.envoy.api.v2.Cluster.DiscoveryType;
 import io.envoyproxy.envoy.api.v2.ClusterLoadAssignment;
@@ -21,6 +23,7 @@ import io.envoyproxy.envoy.api.v2.auth.Secret;
 import io.envoyproxy.envoy.api.v2.listener.Filter;
 import io.envoyproxy.envoy.api.v2.listener.FilterChain;
 import io.envoyproxy.envoy.config.filter.network.http_connection_manager.v2.HttpConnectionManager;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -104,6 +107,28 @@ public class Resources {
     }
   }
 
+  /**
+   * Returns a version of the given resource message that is derived from its content. The version is a digest of the
+   * deterministically serialized message, so equal resources always have the same version, even across processes.
+   *
+   * @param resource the resource message
+   */
+  public static String getResourceVersion(Message resource) {
+    byte[] serialized = new byte[resource.getSerializedSize()];
+    CodedOutputStream output = CodedOutputStream.newInstance(serialized);
+    output.useDeterministicSerialization();
+
+    try {
+      resource.writeTo(output);
+      output.checkNoSpaceLeft();
+    } catch (IOException e) {
+      // Writing to a byte array only fails if the message size changed while serializing it.
+      throw new IllegalStateException(e);
+    }
+
+    return Hashing.murmur3_128().hashBytes(serialized).toString();
+  }
+
   /**
    * Returns all resource names that are referenced by the given collection of resources.
    *
@@ -134,31 +159,29 @@ public class Resources {
           }
         }
       } else if (r instanceof Listener) {
-        Listener l = (Listener) r;
-
-        // Extract the route configuration names from the HTTP connection manager.
-        for (FilterChain chain : l.getFilterChainsList()) {
-          for (Filter filter : chain.getFiltersList()) {
-            if (!filter.getName().equals(FILTER_HTTP_CONNECTION_MANAGER)) {
-              continue;
-            }
-
-            try {
-              HttpConnectionManager.Builder config = HttpConnectionManager.newBuilder();
-
-              // TODO: Filter#getConfig() is deprecated, migrate to use Filter#getTypedConfig().
-              structAsMessage(filter.getConfig(), config);
-
-              if (config.getRouteSpecifierCase() == RDS && !isNullOrEmpty(config.getRds().getRouteConfigName())) {
-                refs.add(config.getRds().getRouteConfigName());
-              }
-            } catch (InvalidProtocolBufferException e) {
-              LOGGER.error(
-                  "Failed to convert HTTP connection manager config struct into protobuf message for listener {}",
-                  getResourceName(l),
-                  e);
-            }
-          }
+        refs.addAll(getRouteReferences((Listener) r));
+      }
+    }
+
+    return refs.build();
+  }
+
+  private static Set<String> getRouteReferences(Listener listener) {
+    ImmutableSet.Builder<String> refs = ImmutableSet.builder();
+
+    // Extract the route configuration names from the HTTP connection managers.
+    for (FilterChain chain : listener.getFilterChainsList()) {
+      for (Filter filter : chain.getFiltersList()) {
+        if (!filter.getName().equals(FILTER_HTTP_CONNECTION_MANAGER)) {
+          continue;
+        }
+
+        String routeConfigName = filter.hasTypedConfig()
+            ? getRouteConfigName(listener, filter.getTypedConfig())
+            : getRouteConfigName(filter.getConfig());
+
+        if (!isNullOrEmpty(routeConfigName)) {
+          refs.add(routeConfigName);
         }
       }
     }
@@ -166,14 +189,42 @@ public class Resources {
     return refs.build();
   }
 
-  private static void structAsMessage(Struct struct, Message.Builder messageBuilder)
-      throws InvalidProtocolBufferException {
+  private static String getRouteConfigName(Listener listener, Any typedConfig) {
+    if (!typedConfig.is(HttpConnectionManager.class)) {
+      return null;
+    }
+
+    try {
+      HttpConnectionManager config = typedConfig.unpack(HttpConnectionManager.class);
+
+      return config.getRouteSpecifierCase() == RDS ? config.getRds().getRouteConfigName() : null;
+    } catch (InvalidProtocolBufferException e) {
+      LOGGER.error(
+          "Failed to unpack HTTP connection manager typed config for listener {}",
+          getResourceName(listener),
+          e);
 
-    String json = JsonFormat.printer()
-        .preservingProtoFieldNames()
-        .print(struct);
+      return null;
+    }
+  }
+
+  private static String getRouteConfigName(Struct config) {
+    // The struct is the JSON representation of the HTTP connection manager, so the route configuration name is read
+    // directly from the rds field instead of converting the whole struct into the message.
+    Value rds = config.getFieldsOrDefault("rds", null);
+
+    if (rds == null || rds.getKindCase() != Value.KindCase.STRUCT_VALUE) {
+      return null;
+    }
+
+    Map<String, Value> rdsFields = rds.getStructValue().getFieldsMap();
+    Value routeConfigName = rdsFields.getOrDefault("route_config_name", rdsFields.get("routeConfigName"));
+
+    if (routeConfigName == null || routeConfigName.getKindCase() != Value.KindCase.STRING_VALUE) {
+      return null;
+    }
 
-    JsonFormat.parser().merge(json, messageBuilder);
+    return routeConfigName.getStringValue();
   }
 
   private Resources() { }
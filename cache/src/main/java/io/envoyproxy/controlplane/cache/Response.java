@@ -1,9 +1,12 @@
 package io.envoyproxy.controlplane.cache;
 
 import com.google.auto.value.AutoValue;
+import com.google.common.collect.Collections2;
+import com.google.common.collect.ImmutableSet;
 import com.google.protobuf.Message;
 import io.envoyproxy.envoy.api.v2.DiscoveryRequest;
 import java.util.Collection;
+import java.util.Set;
 
 /**
  * {@code Response} is a data class that contains the response for an assumed configuration type.
@@ -11,8 +14,36 @@ import java.util.Collection;
 @AutoValue
 public abstract class Response {
 
+  /**
+   * Returns a response with the given resources, whose names are collected from the resources.
+   *
+   * @param request   the request the response is for
+   * @param resources the resources to include in the response
+   * @param version   the version of the resources
+   */
   public static Response create(DiscoveryRequest request, Collection<? extends Message> resources, String version) {
-    return new AutoValue_Response(request, resources, version);
+    return create(
+        request,
+        resources,
+        ImmutableSet.copyOf(Collections2.transform(resources, Resources::getResourceName)),
+        version);
+  }
+
+  /**
+   * Returns a response with the given resource names, which should be the names of the given resources. Caches should
+   * share the same instance of the names across responses, since servers hold onto them for each stream.
+   *
+   * @param request       the request the response is for
+   * @param resources     the resources to include in the response
+   * @param resourceNames the names of the resources
+   * @param version       the version of the resources
+   */
+  public static Response create(
+      DiscoveryRequest request,
+      Collection<? extends Message> resources,
+      Set<String> resourceNames,
+      String version) {
+    return new AutoValue_Response(request, resources, resourceNames, version);
   }
 
   /**
@@ -25,6 +56,11 @@ public abstract class Response {
    */
   public abstract Collection<? extends Message> resources();
 
+  /**
+   * Returns the names of the resources to include in the response.
+   */
+  public abstract Set<String> resourceNames();
+
   /**
    * Returns the version of the resources as tracked by the cache for the given type. Envoy responds with this version
    * as an acknowledgement.
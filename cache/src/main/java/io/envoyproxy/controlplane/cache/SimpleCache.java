@@ -1,21 +1,38 @@
 package io.envoyproxy.controlplane.cache;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.MapMaker;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Striped;
 import com.google.protobuf.Message;
+import io.envoyproxy.envoy.api.v2.DeltaDiscoveryRequest;
 import io.envoyproxy.envoy.api.v2.DiscoveryRequest;
+import io.envoyproxy.envoy.api.v2.core.Node;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import javax.annotation.concurrent.GuardedBy;
@@ -30,30 +47,95 @@ import org.slf4j.LoggerFactory;
  * the request for all EDS clusters or RDS routes eventually.
  *
  * <p>The snapshot can be partial, e.g. only include RDS or EDS resources.
+ *
+ * <p>Locking is striped by node group. Snapshot updates and watch creation for groups that map to different stripes
+ * proceed in parallel, while updates to the same group are always applied in the order they were set. By default a
+ * single stripe is used, which serializes all snapshot updates across groups, including the responses to the watches
+ * of the groups of a batch update.
+ *
+ * <p>Watches can optionally be indexed by the names of the resources they request. A snapshot update then only
+ * evaluates the watches that request all resources of a type, or that request a resource that was added, removed or
+ * modified compared to the previous snapshot, instead of every open watch of the group.
+ *
+ * <p>Snapshot updates can optionally be applied on a notification executor instead of the caller's thread, in which
+ * case {@link #setSnapshot(Object, Snapshot)} returns before the snapshot is set and its watches are responded to.
+ * Updates of the same group are still applied in the order they were set.
+ *
+ * <p>Unchanged resources can optionally keep their version across snapshots. A snapshot update then compares the
+ * content of each resource type with the previous snapshot of the group, and keeps the previous resources and versions
+ * of the types that did not change, so that watches are not responded to with resources they already have.
+ *
+ * <p>The same snapshot instance can be set for many groups at once with {@link #setSharedSnapshot(Collection,
+ * Snapshot)}. The groups then share the snapshot, along with everything derived from it, and the work of the update
+ * that only depends on the snapshots involved is done once per unique snapshot rather than once per group.
  */
-public class SimpleCache<T> implements SnapshotCache<T> {
+public class SimpleCache<T> implements SnapshotCache<T>, DeltaConfigWatcher<T> {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(SimpleCache.class);
 
+  // Resources of the types that are not known to the cache, which are always empty.
+  private static final SnapshotResources<Message> NO_RESOURCES = SnapshotResources.create(ImmutableList.of(), "");
+
   private final NodeGroup<T> groups;
+  private final boolean indexWatchesByResourceName;
+  private final boolean keepVersionsOfUnchangedResources;
 
-  private final ReadWriteLock lock = new ReentrantReadWriteLock();
-  private final Lock readLock = lock.readLock();
-  private final Lock writeLock = lock.writeLock();
+  // Guards snapshots and statuses of the groups in each stripe. Watch creation takes the read lock, while operations
+  // that swap the snapshot or remove the group take the write lock.
+  private final Striped<ReadWriteLock> locks;
+  // Serializes snapshot updates (including the resulting watch responses) of the groups in each stripe.
+  private final Striped<Lock> updateLocks;
+  // Applies snapshot updates in the order they were set, by partition of node groups. Null if updates are applied on
+  // the caller's thread.
+  private final Executor[] notificationExecutors;
 
-  @GuardedBy("lock")
-  private final Map<T, Snapshot> snapshots = new HashMap<>();
-  private final ConcurrentMap<T, ConcurrentMap<String, CacheStatusInfo<T>>> statuses = new ConcurrentHashMap<>();
+  @GuardedBy("locks")
+  private final ConcurrentMap<T, Snapshot> snapshots = new ConcurrentHashMap<>();
+  private final ConcurrentMap<T, ResourceTypeMap<CacheStatusInfo<T>>> statuses = new ConcurrentHashMap<>();
+  // The groups of each snapshot instance that is currently set, to track which groups share a snapshot. Groups are
+  // tracked by the snapshot that was set for them, which is not the snapshot they hold if unchanged resources keep
+  // their versions.
+  @GuardedBy("snapshotGroups")
+  private final Map<Snapshot, Set<T>> snapshotGroups = new IdentityHashMap<>();
+  @GuardedBy("snapshotGroups")
+  private final Map<T, Snapshot> setSnapshots = new HashMap<>();
+  // The snapshots that were set for each group by setSnapshots without their watches having been responded to yet,
+  // preceded by the snapshot that the watches were last responded to with. Only updated under the update lock of the
+  // group, or when the group is cleared.
+  private final ConcurrentMap<T, List<Snapshot>> unrespondedSnapshots = new ConcurrentHashMap<>();
 
   private AtomicLong watchCount = new AtomicLong();
 
   /**
-   * Constructs a simple cache.
+   * Constructs a simple cache that uses a single lock stripe for all node groups, see {@link #builder(NodeGroup)} for
+   * the other options.
    *
    * @param groups maps an envoy host to a node group
    */
   public SimpleCache(NodeGroup<T> groups) {
-    this.groups = groups;
+    this(builder(groups));
+  }
+
+  /**
+   * Constructs a simple cache with the options of the given builder.
+   *
+   * @param builder the options of the cache
+   */
+  protected SimpleCache(Builder<T> builder) {
+    this.groups = builder.groups;
+    this.indexWatchesByResourceName = builder.indexWatchesByResourceName;
+    this.keepVersionsOfUnchangedResources = builder.keepVersionsOfUnchangedResources;
+    this.locks = Striped.readWriteLock(builder.lockStripes);
+    this.updateLocks = Striped.lock(builder.lockStripes);
+
+    if (builder.notificationExecutor == null) {
+      this.notificationExecutors = null;
+    } else {
+      this.notificationExecutors = new Executor[locks.size()];
+      for (int i = 0; i < notificationExecutors.length; i++) {
+        notificationExecutors[i] = MoreExecutors.newSequentialExecutor(builder.notificationExecutor);
+      }
+    }
   }
 
   /**
@@ -62,24 +144,68 @@ public class SimpleCache<T> implements SnapshotCache<T> {
   @Override
   public boolean clearSnapshot(T group) {
     // we take a writeLock to prevent watches from being created
+    Lock writeLock = locks.get(group).writeLock();
     writeLock.lock();
     try {
-      Map<String, CacheStatusInfo<T>> status = statuses.get(group);
+      return clearSnapshotLocked(group);
+    } finally {
+      writeLock.unlock();
+    }
+  }
 
-      // If we don't know about this group, do nothing.
-      if (status != null && status.values().stream().mapToLong(CacheStatusInfo::numWatches).sum() > 0) {
-        LOGGER.warn("tried to clear snapshot for group with existing watches, group={}", group);
+  /**
+   * Clears the snapshots of the given groups while holding the locks of all of them at once, rather than locking each
+   * group in turn, see {@link #clearSnapshot(Object)}.
+   *
+   * @param groups group identifiers
+   * @return the groups whose snapshot was cleared
+   */
+  @Override
+  public Set<T> clearSnapshots(Collection<T> groups) {
+    Set<T> cleared = new LinkedHashSet<>();
 
-        return false;
+    // Locks are taken in stripe order, so that concurrent batches cannot deadlock.
+    List<Lock> writeLocks = new ArrayList<>();
+    locks.bulkGet(groups).forEach(lock -> writeLocks.add(lock.writeLock()));
+
+    writeLocks.forEach(Lock::lock);
+    try {
+      for (T group : groups) {
+        if (clearSnapshotLocked(group)) {
+          cleared.add(group);
+        }
       }
+    } finally {
+      writeLocks.forEach(Lock::unlock);
+    }
 
-      statuses.remove(group);
-      snapshots.remove(group);
+    return cleared;
+  }
 
-      return true;
-    } finally {
-      writeLock.unlock();
+  private boolean clearSnapshotLocked(T group) {
+    ResourceTypeMap<CacheStatusInfo<T>> status = statuses.get(group);
+
+    // If we don't know about this group, do nothing.
+    if (status != null && status.values().stream().mapToLong(CacheStatusInfo::numWatches).sum() > 0) {
+      LOGGER.warn("tried to clear snapshot for group with existing watches, group={}", group);
+
+      return false;
     }
+
+    statuses.remove(group);
+    unrespondedSnapshots.remove(group);
+    snapshots.remove(group);
+    untrackSnapshot(group);
+
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public T group(Node node) {
+    return groups.hash(node);
   }
 
   public Watch createWatch(
@@ -100,18 +226,36 @@ public class SimpleCache<T> implements SnapshotCache<T> {
       Set<String> knownResourceNames,
       Consumer<Response> responseConsumer,
       boolean hasClusterChanged) {
+    return createWatch(ads, request, null, null, knownResourceNames, responseConsumer, hasClusterChanged);
+  }
 
-    T group = groups.hash(request.getNode());
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Watch createWatch(
+      boolean ads,
+      DiscoveryRequest request,
+      ResourceType requestType,
+      T groupOfNode,
+      Set<String> knownResourceNames,
+      Consumer<Response> responseConsumer,
+      boolean hasClusterChanged) {
+
+    T group = groupOf(request.getNode(), groupOfNode);
+    ResourceType type = requestType == null ? ResourceType.fromTypeUrl(request.getTypeUrl()) : requestType;
     // even though we're modifying, we take a readLock to allow multiple watches to be created in parallel since it
     // doesn't conflict
+    Lock readLock = locks.get(group).readLock();
     readLock.lock();
     try {
-      CacheStatusInfo<T> status = statuses.computeIfAbsent(group, g -> new ConcurrentHashMap<>())
-          .computeIfAbsent(request.getTypeUrl(), s -> new CacheStatusInfo<>(group));
+      CacheStatusInfo<T> status = statuses.computeIfAbsent(group, g -> new ResourceTypeMap<>())
+          .computeIfAbsent(type, request.getTypeUrl(), () -> new CacheStatusInfo<>(group, indexWatchesByResourceName));
       status.setLastWatchRequestTime(System.currentTimeMillis());
 
       Snapshot snapshot = snapshots.get(group);
-      String version = snapshot == null ? "" : snapshot.version(request.getTypeUrl(), request.getResourceNamesList());
+      SnapshotResources<?> snapshotResources = snapshot == null ? null : resourcesOf(snapshot, type);
+      String version = snapshot == null ? "" : snapshotResources.version(request.getResourceNamesList());
 
       Watch watch = new Watch(ads, request, responseConsumer);
 
@@ -124,16 +268,16 @@ public class SimpleCache<T> implements SnapshotCache<T> {
 
           // If any of the newly requested resources are in the snapshot respond immediately. If not we'll fall back to
           // version comparisons.
-          if (snapshot.resources(request.getTypeUrl())
+          if (snapshotResources.resources()
               .keySet()
               .stream()
               .anyMatch(newResourceHints::contains)) {
-            respond(watch, snapshot, group);
+            respond(watch, snapshotResources, group);
 
             return watch;
           }
-        } else if (hasClusterChanged && request.getTypeUrl().equals(Resources.ENDPOINT_TYPE_URL)) {
-          respond(watch, snapshot, group);
+        } else if (hasClusterChanged && type == ResourceType.ENDPOINT) {
+          respond(watch, snapshotResources, group);
 
           return watch;
         }
@@ -160,7 +304,7 @@ public class SimpleCache<T> implements SnapshotCache<T> {
       }
 
       // Otherwise, the watch may be responded immediately
-      boolean responded = respond(watch, snapshot, group);
+      boolean responded = respond(watch, snapshotResources, group);
 
       if (!responded) {
         long watchId = watchCount.incrementAndGet();
@@ -185,11 +329,82 @@ public class SimpleCache<T> implements SnapshotCache<T> {
     }
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public DeltaWatch createDeltaWatch(
+      DeltaDiscoveryRequest request,
+      Map<String, String> resourceVersions,
+      Set<String> subscribedResourceNames,
+      boolean isWildcard,
+      Consumer<DeltaResponse> responseConsumer) {
+    return createDeltaWatch(request, null, resourceVersions, subscribedResourceNames, isWildcard, responseConsumer);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public DeltaWatch createDeltaWatch(
+      DeltaDiscoveryRequest request,
+      T groupOfNode,
+      Map<String, String> resourceVersions,
+      Set<String> subscribedResourceNames,
+      boolean isWildcard,
+      Consumer<DeltaResponse> responseConsumer) {
+
+    T group = groupOf(request.getNode(), groupOfNode);
+    ResourceType type = ResourceType.fromTypeUrl(request.getTypeUrl());
+    // even though we're modifying, we take a readLock to allow multiple watches to be created in parallel since it
+    // doesn't conflict
+    Lock readLock = locks.get(group).readLock();
+    readLock.lock();
+    try {
+      CacheStatusInfo<T> status = statuses.computeIfAbsent(group, g -> new ResourceTypeMap<>())
+          .computeIfAbsent(type, request.getTypeUrl(), () -> new CacheStatusInfo<>(group, indexWatchesByResourceName));
+      status.setLastWatchRequestTime(System.currentTimeMillis());
+
+      Snapshot snapshot = snapshots.get(group);
+
+      DeltaWatch watch = new DeltaWatch(
+          request,
+          resourceVersions,
+          subscribedResourceNames,
+          isWildcard,
+          responseConsumer);
+
+      // Respond immediately if the requester is missing any changes, otherwise leave an open watch.
+      if (snapshot != null && respondDelta(watch, snapshot, group)) {
+        return watch;
+      }
+
+      long watchId = watchCount.incrementAndGet();
+
+      if (LOGGER.isDebugEnabled()) {
+        LOGGER.debug("open delta watch {} for {}[{}] from node {}",
+            watchId,
+            request.getTypeUrl(),
+            isWildcard ? "*" : String.join(", ", subscribedResourceNames),
+            group);
+      }
+
+      status.setDeltaWatch(watchId, watch);
+
+      watch.setStop(() -> status.removeDeltaWatch(watchId));
+
+      return watch;
+    } finally {
+      readLock.unlock();
+    }
+  }
+
   /**
    * {@inheritDoc}
    */
   @Override
   public Snapshot getSnapshot(T group) {
+    Lock readLock = locks.get(group).readLock();
     readLock.lock();
 
     try {
@@ -211,24 +426,308 @@ public class SimpleCache<T> implements SnapshotCache<T> {
    * {@inheritDoc}
    */
   @Override
-  public synchronized void setSnapshot(T group, Snapshot snapshot) {
-    // we take a writeLock to prevent watches from being created while we update the snapshot
-    ConcurrentMap<String, CacheStatusInfo<T>> status;
-    writeLock.lock();
+  public void setSnapshot(T group, Snapshot snapshot) {
+    if (notificationExecutors == null) {
+      updateSnapshot(group, snapshot, null);
+      return;
+    }
+
+    setSnapshotAsync(group, snapshot).whenComplete((result, error) -> {
+      if (error != null) {
+        LOGGER.error("failed to set snapshot for group {}", group, error);
+      }
+    });
+  }
+
+  /**
+   * Sets the {@link Snapshot} for the given node group like {@link #setSnapshot(Object, Snapshot)}, and returns a
+   * future that completes once the snapshot was set and the open watches of the group were responded to. If the cache
+   * has no notification executor, the update is applied before this method returns.
+   *
+   * @param group group identifier
+   * @param snapshot a versioned collection of node config data
+   * @return future that completes when the update was applied, or completes exceptionally if it failed
+   */
+  public CompletableFuture<Void> setSnapshotAsync(T group, Snapshot snapshot) {
+    if (notificationExecutors == null) {
+      CompletableFuture<Void> future = new CompletableFuture<>();
+
+      try {
+        updateSnapshot(group, snapshot, null);
+        future.complete(null);
+      } catch (RuntimeException e) {
+        future.completeExceptionally(e);
+      }
+
+      return future;
+    }
+
+    // The snapshot is swapped on the executor as well, rather than before returning, so that watches created in the
+    // meantime are never responded to with a snapshot older than the one they were created with.
+    return CompletableFuture.runAsync(() -> updateSnapshot(group, snapshot, null), notificationExecutor(group));
+  }
+
+  /**
+   * Sets the same {@link Snapshot} instance for all of the given node groups, like calling
+   * {@link #setSnapshot(Object, Snapshot)} for each of them. Work that only depends on the snapshots involved, e.g.
+   * comparing the snapshot with the previous snapshot of the groups, is done once per unique previous snapshot, and the
+   * groups keep sharing the snapshot afterwards, see {@link #groupsWithSnapshot(Snapshot)}.
+   *
+   * @param groups the group identifiers
+   * @param snapshot a versioned collection of node config data
+   */
+  public void setSharedSnapshot(Collection<T> groups, Snapshot snapshot) {
+    SharedUpdate sharedUpdate = new SharedUpdate();
+
+    for (T group : groups) {
+      if (notificationExecutors == null) {
+        updateSnapshot(group, snapshot, sharedUpdate);
+        continue;
+      }
+
+      CompletableFuture.runAsync(() -> updateSnapshot(group, snapshot, sharedUpdate), notificationExecutor(group))
+          .whenComplete((result, error) -> {
+            if (error != null) {
+              LOGGER.error("failed to set snapshot for group {}", group, error);
+            }
+          });
+    }
+  }
+
+  /**
+   * Sets the snapshots of many node groups at once, and responds to their watches in parallel on the common
+   * {@link ForkJoinPool}, see {@link #setSnapshots(Map, Executor)}.
+   *
+   * @param snapshots the snapshots to set, by group identifier
+   * @return future that completes with the errors of the groups whose watches could not be responded to, by group
+   */
+  public CompletableFuture<Map<T, Throwable>> setSnapshots(Map<T, Snapshot> snapshots) {
+    return setSnapshots(snapshots, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Sets the snapshots of many node groups at once, and responds to their watches in parallel on the given executor.
+   *
+   * <p>All snapshots are set before this method returns, at once for all groups rather than one group after the other:
+   * no watch is created and no other snapshot update of the groups is applied while they are set. The watches of the
+   * groups are then responded to in parallel. If a newer snapshot is set for a group before its watches are responded
+   * to, the newer update responds to them instead, for the resources changed by either update.
+   *
+   * <p>The watches of each group are responded to under the update lock of its stripe, so that they are never
+   * responded to concurrently by another update of the group. The watches of groups in the same stripe are therefore
+   * responded to one group after the other, and with a single lock stripe all of them are: the executor only runs the
+   * responses in parallel if the cache has more than one stripe.
+   *
+   * <p>If the cache has a notification executor, the update of each group is instead applied on it after the updates
+   * of the group that were set before, like {@link #setSnapshotAsync(Object, Snapshot)}, and the given executor is not
+   * used.
+   *
+   * <p>Groups that are given the same snapshot instance share the work of the update, as with
+   * {@link #setSharedSnapshot(Collection, Snapshot)}.
+   *
+   * @param snapshots the snapshots to set, by group identifier
+   * @param executor  executor to respond to the watches of the groups on
+   * @return future that completes once the watches of all groups were responded to, with the errors of the groups
+   *     whose watches could not be responded to, by group
+   */
+  public CompletableFuture<Map<T, Throwable>> setSnapshots(Map<T, Snapshot> snapshots, Executor executor) {
+    Map<Snapshot, SharedUpdate> sharedUpdates = new IdentityHashMap<>();
+    snapshots.values().forEach(snapshot -> sharedUpdates.computeIfAbsent(snapshot, s -> new SharedUpdate()));
+
+    ConcurrentMap<T, Throwable> errors = new ConcurrentHashMap<>();
+    List<CompletableFuture<Void>> responses = new ArrayList<>();
+
+    if (notificationExecutors != null) {
+      // Updates that are already queued for a group must be applied first, so the batch is queued after them.
+      snapshots.forEach((group, snapshot) -> responses.add(recordError(
+          group,
+          CompletableFuture.runAsync(
+              () -> updateSnapshot(group, snapshot, sharedUpdates.get(snapshot)),
+              notificationExecutor(group)),
+          errors)));
+
+      return CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0]))
+          .handle((result, error) -> ImmutableMap.copyOf(errors));
+    }
+
+    Map<T, Snapshot> snapshotsToSet = new HashMap<>();
+    Map<T, Snapshot> previousSnapshots = new HashMap<>();
+    Set<T> groupsWithWatches = new HashSet<>();
+
+    // Locks are taken in stripe order, so that concurrent batches cannot deadlock.
+    Iterable<Lock> groupUpdateLocks = updateLocks.bulkGet(snapshots.keySet());
+    groupUpdateLocks.forEach(Lock::lock);
     try {
-      // Update the existing snapshot entry.
-      snapshots.put(group, snapshot);
-      status = statuses.get(group);
+      snapshots.forEach((group, snapshot) -> snapshotsToSet.put(
+          group,
+          snapshotToSet(group, snapshot, sharedUpdates.get(snapshot))));
+
+      List<Lock> writeLocks = new ArrayList<>();
+      locks.bulkGet(snapshots.keySet()).forEach(lock -> writeLocks.add(lock.writeLock()));
+
+      writeLocks.forEach(Lock::lock);
+      try {
+        snapshotsToSet.forEach((group, snapshot) -> {
+          previousSnapshots.put(group, this.snapshots.put(group, snapshot));
+
+          if (statuses.containsKey(group)) {
+            groupsWithWatches.add(group);
+          }
+        });
+      } finally {
+        writeLocks.forEach(Lock::unlock);
+      }
+
+      snapshotsToSet.forEach((group, snapshot) -> {
+        trackSnapshot(group, snapshots.get(group));
+
+        // Watches created from now on are compared with the new snapshot when they are created, so only groups that
+        // already had watches are left to respond to.
+        if (groupsWithWatches.contains(group)) {
+          unrespondedSnapshots.computeIfAbsent(group, g -> newUnrespondedSnapshots(previousSnapshots.get(g)))
+              .add(snapshot);
+        }
+      });
     } finally {
-      writeLock.unlock();
+      groupUpdateLocks.forEach(Lock::unlock);
     }
 
-    if (status == null) {
-      return;
+    groupsWithWatches.forEach(group -> responses.add(recordError(
+        group,
+        CompletableFuture.runAsync(
+            () -> respondToBatchUpdate(group, snapshotsToSet.get(group), sharedUpdates.get(snapshots.get(group))),
+            executor),
+        errors)));
+
+    return CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0]))
+        .handle((result, error) -> ImmutableMap.copyOf(errors));
+  }
+
+  /**
+   * Returns the node groups whose current snapshot is the given snapshot instance. Snapshots that are equal but
+   * different instances are not shared.
+   *
+   * <p>Groups are found by the snapshot that was set for them. If unchanged resources keep their versions,
+   * {@link #getSnapshot(Object)} returns a snapshot derived from it instead, which does not find the groups.
+   *
+   * @param snapshot the snapshot instance
+   */
+  public Set<T> groupsWithSnapshot(Snapshot snapshot) {
+    synchronized (snapshotGroups) {
+      Set<T> groups = snapshotGroups.get(snapshot);
+
+      return groups == null ? ImmutableSet.of() : ImmutableSet.copyOf(groups);
+    }
+  }
+
+  private CompletableFuture<Void> recordError(T group, CompletableFuture<Void> update, Map<T, Throwable> errors) {
+    return update.whenComplete((result, error) -> {
+      if (error != null) {
+        LOGGER.error("failed to respond to watches of group {}", group, error);
+        errors.put(group, error instanceof CompletionException ? error.getCause() : error);
+      }
+    });
+  }
+
+  private static List<Snapshot> newUnrespondedSnapshots(Snapshot respondedSnapshot) {
+    List<Snapshot> snapshots = new ArrayList<>();
+    snapshots.add(respondedSnapshot);
+
+    return snapshots;
+  }
+
+  private Executor notificationExecutor(T group) {
+    return notificationExecutors[(group.hashCode() & Integer.MAX_VALUE) % notificationExecutors.length];
+  }
+
+  private void updateSnapshot(T group, Snapshot newSnapshot, SharedUpdate sharedUpdate) {
+    // we take the update lock so that concurrent updates to the same group are responded to in the order they were set
+    Lock updateLock = updateLocks.get(group);
+    updateLock.lock();
+    try {
+      // The content is compared before taking the write lock, so that watch creation is not blocked by it. The current
+      // snapshot cannot be replaced by another update in the meantime since we hold the update lock.
+      Snapshot snapshot = snapshotToSet(group, newSnapshot, sharedUpdate);
+
+      // we take a writeLock to prevent watches from being created while we update the snapshot
+      ResourceTypeMap<CacheStatusInfo<T>> status;
+      Snapshot previousSnapshot;
+      Lock writeLock = locks.get(group).writeLock();
+      writeLock.lock();
+      try {
+        // Update the existing snapshot entry.
+        previousSnapshot = snapshots.put(group, snapshot);
+        status = statuses.get(group);
+      } finally {
+        writeLock.unlock();
+      }
+
+      trackSnapshot(group, newSnapshot);
+
+      // The watches may not have been responded to with the snapshots set by a batch yet, in which case the changes of
+      // those snapshots are responded to as well.
+      List<Snapshot> snapshotsToRespondTo = unrespondedSnapshots.remove(group);
+      if (snapshotsToRespondTo == null) {
+        snapshotsToRespondTo = newUnrespondedSnapshots(previousSnapshot);
+      }
+      snapshotsToRespondTo.add(snapshot);
+
+      if (status != null) {
+        respondToUpdate(group, snapshotsToRespondTo, status, sharedUpdate);
+      }
+    } finally {
+      updateLock.unlock();
     }
+  }
+
+  private void respondToBatchUpdate(T group, Snapshot snapshot, SharedUpdate sharedUpdate) {
+    Lock updateLock = updateLocks.get(group);
+    updateLock.lock();
+    try {
+      List<Snapshot> snapshotsToRespondTo = unrespondedSnapshots.get(group);
+
+      // A newer update of the group responds to its watches instead, for the changes of this batch as well.
+      if (snapshotsToRespondTo == null || snapshotsToRespondTo.get(snapshotsToRespondTo.size() - 1) != snapshot) {
+        return;
+      }
+
+      unrespondedSnapshots.remove(group);
 
-    // Responses should be in specific order and TYPE_URLS has a list of resources in the right order.
-    respondWithSpecificOrder(group, snapshot, status);
+      ResourceTypeMap<CacheStatusInfo<T>> status = statuses.get(group);
+      if (status != null) {
+        respondToUpdate(group, snapshotsToRespondTo, status, sharedUpdate);
+      }
+    } finally {
+      updateLock.unlock();
+    }
+  }
+
+  private Snapshot snapshotToSet(T group, Snapshot newSnapshot, SharedUpdate sharedUpdate) {
+    Snapshot currentSnapshot = keepVersionsOfUnchangedResources ? snapshots.get(group) : null;
+
+    if (currentSnapshot == null) {
+      return newSnapshot;
+    }
+
+    if (sharedUpdate == null) {
+      return newSnapshot.withUnchangedResourcesOf(currentSnapshot);
+    }
+
+    // Groups with the same current snapshot keep sharing the snapshot that is derived from it.
+    return sharedUpdate.keptSnapshots.computeIfAbsent(currentSnapshot, newSnapshot::withUnchangedResourcesOf);
+  }
+
+  // The snapshots start with the one the watches were last responded to with, and end with the current snapshot.
+  private void respondToUpdate(T group, List<Snapshot> snapshots,
+                               ResourceTypeMap<CacheStatusInfo<T>> status, SharedUpdate sharedUpdate) {
+    Snapshot snapshot = snapshots.get(snapshots.size() - 1);
+
+    // Responses should be in specific order and ResourceType lists the types in the right order.
+    if (indexWatchesByResourceName && snapshots.get(0) != null) {
+      respondToChangedResources(group, snapshots, status, sharedUpdate);
+    } else {
+      respondWithSpecificOrder(group, snapshot);
+    }
   }
 
   /**
@@ -236,72 +735,200 @@ public class SimpleCache<T> implements SnapshotCache<T> {
    */
   @Override
   public StatusInfo statusInfo(T group) {
+    Lock readLock = locks.get(group).readLock();
     readLock.lock();
 
     try {
-      ConcurrentMap<String, CacheStatusInfo<T>> statusMap = statuses.get(group);
-      if (statusMap == null || statusMap.isEmpty()) {
+      ResourceTypeMap<CacheStatusInfo<T>> statusMap = statuses.get(group);
+      Collection<CacheStatusInfo<T>> statusInfos = statusMap == null ? null : statusMap.values();
+
+      if (statusInfos == null || statusInfos.isEmpty()) {
         return null;
       }
 
-      return new GroupCacheStatusInfo<>(statusMap.values());
+      return new GroupCacheStatusInfo<>(statusInfos);
     } finally {
       readLock.unlock();
     }
   }
 
   @VisibleForTesting
-  protected void respondWithSpecificOrder(T group, Snapshot snapshot,
-                                          ConcurrentMap<String, CacheStatusInfo<T>> statusMap) {
-    for (String typeUrl : Resources.TYPE_URLS) {
-      CacheStatusInfo<T> status = statusMap.get(typeUrl);
+  protected void respondWithSpecificOrder(T group, Snapshot snapshot) {
+    ResourceTypeMap<CacheStatusInfo<T>> statusMap = statuses.get(group);
+
+    if (statusMap == null) {
+      return;
+    }
+
+    for (ResourceType type : ResourceType.values()) {
+      CacheStatusInfo<T> status = statusMap.get(type);
       if (status == null) {
         continue;
       }
 
-      status.watchesRemoveIf((id, watch) -> {
-        if (!watch.request().getTypeUrl().equals(typeUrl)) {
-          return false;
-        }
-        String version = snapshot.version(watch.request().getTypeUrl(), watch.request().getResourceNamesList());
-
-        if (!watch.request().getVersionInfo().equals(version)) {
-          if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("responding to open watch {}[{}] with new version {}",
-                id,
-                String.join(", ", watch.request().getResourceNamesList()),
-                version);
-          }
+      status.removeWatchesIf((id, watch) -> respondIfVersionChanged(id, watch, type, snapshot, group));
+
+      // Delta watches are discarded once responded to, a new one is created when envoy ACKs the response.
+      status.removeDeltaWatchesIf((id, watch) -> respondDelta(watch, snapshot, group));
+    }
+  }
 
-          respond(watch, snapshot, group);
+  private void respondToChangedResources(T group, List<Snapshot> snapshots,
+                                         ResourceTypeMap<CacheStatusInfo<T>> statusMap,
+                                         SharedUpdate sharedUpdate) {
+    Snapshot snapshot = snapshots.get(snapshots.size() - 1);
 
-          // Discard the watch. A new watch will be created for future snapshots once envoy ACKs the response.
-          return true;
-        }
+    for (ResourceType type : ResourceType.values()) {
+      CacheStatusInfo<T> status = statusMap.get(type);
+      if (status == null) {
+        continue;
+      }
 
-        // Do not discard the watch. The request version is the same as the snapshot version, so we wait to respond.
-        return false;
-      });
+      Set<String> changedResourceNames = changedResourceNames(snapshots, type, sharedUpdate);
+
+      status.removeWatchesIf(
+          changedResourceNames,
+          (id, watch) -> respondIfVersionChanged(id, watch, type, snapshot, group));
+
+      // Delta watches are discarded once responded to, a new one is created when envoy ACKs the response.
+      status.removeDeltaWatchesIf((id, watch) -> respondDelta(watch, snapshot, group));
     }
   }
 
-  private Response createResponse(DiscoveryRequest request, Map<String, ? extends Message> resources, String version) {
-    Collection<? extends Message> filtered = request.getResourceNamesList().isEmpty()
-        ? resources.values()
-        : request.getResourceNamesList().stream()
-        .map(resources::get)
-        .filter(Objects::nonNull)
-        .collect(Collectors.toList());
+  private T groupOf(Node node, T group) {
+    return group == null ? groups.hash(node) : group;
+  }
+
+  private void trackSnapshot(T group, Snapshot snapshot) {
+    synchronized (snapshotGroups) {
+      if (setSnapshots.get(group) == snapshot) {
+        return;
+      }
+
+      untrackSnapshot(group);
+      setSnapshots.put(group, snapshot);
+      snapshotGroups.computeIfAbsent(snapshot, s -> new HashSet<>()).add(group);
+    }
+  }
+
+  private void untrackSnapshot(T group) {
+    synchronized (snapshotGroups) {
+      Snapshot snapshot = setSnapshots.remove(group);
+
+      if (snapshot == null) {
+        return;
+      }
+
+      Set<T> groups = snapshotGroups.get(snapshot);
+
+      if (groups != null && groups.remove(group) && groups.isEmpty()) {
+        snapshotGroups.remove(snapshot);
+      }
+    }
+  }
+
+  private static Set<String> changedResourceNames(
+      List<Snapshot> snapshots,
+      ResourceType type,
+      SharedUpdate sharedUpdate) {
+    if (snapshots.size() == 2) {
+      Snapshot previousSnapshot = snapshots.get(0);
+      Snapshot snapshot = snapshots.get(1);
+
+      return sharedUpdate == null
+          ? changedResourceNames(previousSnapshot.resourcesOf(type), snapshot.resourcesOf(type))
+          : sharedUpdate.changedResourceNames(previousSnapshot, snapshot, type);
+    }
+
+    // Resources that changed in any of the updates, even if they changed back since, may have been sent to watches.
+    Set<String> changed = new HashSet<>();
+
+    for (int i = 1; i < snapshots.size(); i++) {
+      changed.addAll(changedResourceNames(
+          snapshots.get(i - 1).resourcesOf(type),
+          snapshots.get(i).resourcesOf(type)));
+    }
+
+    return changed;
+  }
+
+  // Resources are compared by their content versions, which each collection computes once, rather than by comparing
+  // the resources themselves.
+  private static Set<String> changedResourceNames(
+      SnapshotResources<?> previousResources,
+      SnapshotResources<?> resources) {
+
+    if (previousResources == resources) {
+      return Collections.emptySet();
+    }
+
+    Map<String, ? extends VersionedResource<?>> previousVersions = previousResources.versionedResources();
+    Map<String, ? extends VersionedResource<?>> versions = resources.versionedResources();
+    Set<String> changed = new HashSet<>();
+
+    versions.forEach((name, resource) -> {
+      VersionedResource<?> previous = previousVersions.get(name);
+
+      if (previous == null || !resource.version().equals(previous.version())) {
+        changed.add(name);
+      }
+    });
+
+    for (String name : previousVersions.keySet()) {
+      if (!versions.containsKey(name)) {
+        changed.add(name);
+      }
+    }
 
-    return Response.create(request, filtered, version);
+    return changed;
   }
 
-  private boolean respond(Watch watch, Snapshot snapshot, T group) {
-    Map<String, ? extends Message> snapshotResources = snapshot.resources(watch.request().getTypeUrl());
+  private boolean respondIfVersionChanged(long id, Watch watch, ResourceType type, Snapshot snapshot, T group) {
+    SnapshotResources<?> snapshotResources = snapshot.resourcesOf(type);
+    String version = snapshotResources.version(watch.request().getResourceNamesList());
 
+    if (!watch.request().getVersionInfo().equals(version)) {
+      if (LOGGER.isDebugEnabled()) {
+        LOGGER.debug("responding to open watch {}[{}] with new version {}",
+            id,
+            String.join(", ", watch.request().getResourceNamesList()),
+            version);
+      }
+
+      respond(watch, snapshotResources, group);
+
+      // Discard the watch. A new watch will be created for future snapshots once envoy ACKs the response.
+      return true;
+    }
+
+    // Do not discard the watch. The request version is the same as the snapshot version, so we wait to respond.
+    return false;
+  }
+
+  private static SnapshotResources<?> resourcesOf(Snapshot snapshot, ResourceType type) {
+    return type == null ? NO_RESOURCES : snapshot.resourcesOf(type);
+  }
+
+  private Response createResponse(DiscoveryRequest request, SnapshotResources<?> resources) {
+    if (request.getResourceNamesList().isEmpty()) {
+      // The names are those of the snapshot, which all responses of the snapshot share.
+      return Response.create(
+          request,
+          resources.resources().values(),
+          resources.resources().keySet(),
+          resources.version(request.getResourceNamesList()));
+    }
+
+    // Requests for the same resources share the filtered resources of the snapshot.
+    SnapshotResources.Filtered<?> filtered = resources.filtered(request.getResourceNamesList());
+
+    return Response.create(request, filtered.resources(), filtered.resourceNames(), filtered.version());
+  }
+
+  private boolean respond(Watch watch, SnapshotResources<?> snapshotResources, T group) {
     if (!watch.request().getResourceNamesList().isEmpty() && watch.ads()) {
       Collection<String> missingNames = watch.request().getResourceNamesList().stream()
-          .filter(name -> !snapshotResources.containsKey(name))
+          .filter(name -> !snapshotResources.resources().containsKey(name))
           .collect(Collectors.toList());
 
       if (!missingNames.isEmpty()) {
@@ -309,7 +936,7 @@ public class SimpleCache<T> implements SnapshotCache<T> {
             "not responding in ADS mode for {} from node {} at version {} for request [{}] since [{}] not in snapshot",
             watch.request().getTypeUrl(),
             group,
-            snapshot.version(watch.request().getTypeUrl(), watch.request().getResourceNamesList()),
+            snapshotResources.version(watch.request().getResourceNamesList()),
             String.join(", ", watch.request().getResourceNamesList()),
             String.join(", ", missingNames));
 
@@ -317,7 +944,8 @@ public class SimpleCache<T> implements SnapshotCache<T> {
       }
     }
 
-    String version = snapshot.version(watch.request().getTypeUrl(), watch.request().getResourceNamesList());
+    Response response = createResponse(watch.request(), snapshotResources);
+    String version = response.version();
 
     LOGGER.debug("responding for {} from node {} at version {} with version {}",
         watch.request().getTypeUrl(),
@@ -325,11 +953,6 @@ public class SimpleCache<T> implements SnapshotCache<T> {
         watch.request().getVersionInfo(),
         version);
 
-    Response response = createResponse(
-        watch.request(),
-        snapshotResources,
-        version);
-
     try {
       watch.respond(response);
       return true;
@@ -344,4 +967,177 @@ public class SimpleCache<T> implements SnapshotCache<T> {
 
     return false;
   }
+
+  private boolean respondDelta(DeltaWatch watch, Snapshot snapshot, T group) {
+    String typeUrl = watch.request().getTypeUrl();
+    Map<String, ? extends VersionedResource<?>> snapshotResources = snapshot.versionedResources(typeUrl);
+    Map<String, String> knownVersions = watch.resourceVersions();
+
+    Map<String, VersionedResource<?>> changed = new LinkedHashMap<>();
+    Collection<String> names = watch.isWildcard() ? snapshotResources.keySet() : watch.subscribedResourceNames();
+
+    for (String name : names) {
+      VersionedResource<?> resource = snapshotResources.get(name);
+
+      if (resource != null && !resource.version().equals(knownVersions.get(name))) {
+        changed.put(name, resource);
+      }
+    }
+
+    List<String> removed = new ArrayList<>();
+
+    for (String name : knownVersions.keySet()) {
+      if (!snapshotResources.containsKey(name)
+          && (watch.isWildcard() || watch.subscribedResourceNames().contains(name))) {
+        removed.add(name);
+      }
+    }
+
+    String version = snapshot.version(typeUrl);
+
+    // A wildcard request that is not an ACK (e.g. the first one on a stream) is always responded to, even when nothing
+    // changed, so that the requester does not wait for its initial fetch to time out.
+    boolean isInitialWildcard = watch.isWildcard() && watch.request().getResponseNonce().isEmpty();
+
+    if (changed.isEmpty() && removed.isEmpty() && !isInitialWildcard) {
+      return false;
+    }
+
+    LOGGER.debug("responding delta for {} from node {} with version {}, {} changed and {} removed",
+        typeUrl,
+        group,
+        version,
+        changed.size(),
+        removed.size());
+
+    try {
+      watch.respond(DeltaResponse.create(watch.request(), changed, removed, version));
+      return true;
+    } catch (WatchCancelledException e) {
+      LOGGER.error(
+          "failed to respond delta for {} from node {} with version {} because watch was already cancelled",
+          typeUrl,
+          group,
+          version);
+    }
+
+    return false;
+  }
+
+  /**
+   * Memoizes the parts of a snapshot update that only depend on the snapshots involved, while the same snapshot is set
+   * for many groups. Snapshots are compared by identity.
+   */
+  private static final class SharedUpdate {
+
+    private final ConcurrentMap<Snapshot, Snapshot> keptSnapshots = new MapMaker().weakKeys().makeMap();
+    private final ConcurrentMap<Snapshot, ResourceTypeMap<Set<String>>> changedResourceNamesByPrevious =
+        new MapMaker().weakKeys().makeMap();
+
+    Set<String> changedResourceNames(Snapshot previousSnapshot, Snapshot snapshot, ResourceType type) {
+      return changedResourceNamesByPrevious.computeIfAbsent(previousSnapshot, s -> new ResourceTypeMap<>())
+          .computeIfAbsent(type, type.typeUrl(), () -> SimpleCache.changedResourceNames(
+              previousSnapshot.resourcesOf(type),
+              snapshot.resourcesOf(type)));
+    }
+  }
+
+  /**
+   * Returns a builder of a simple cache that maps envoy hosts to node groups with the given function. By default the
+   * cache uses a single lock stripe, does not index watches, applies snapshot updates on the caller's thread and does
+   * not keep the versions of unchanged resources.
+   *
+   * @param groups maps an envoy host to a node group
+   * @param <T>    the type of the node groups
+   */
+  public static <T> Builder<T> builder(NodeGroup<T> groups) {
+    return new Builder<>(groups);
+  }
+
+  /**
+   * {@code Builder} collects the options of a {@link SimpleCache}.
+   */
+  public static final class Builder<T> {
+
+    private final NodeGroup<T> groups;
+    private int lockStripes = 1;
+    private boolean indexWatchesByResourceName;
+    private Executor notificationExecutor;
+    private boolean keepVersionsOfUnchangedResources;
+
+    private Builder(NodeGroup<T> groups) {
+      this.groups = Preconditions.checkNotNull(groups, "groups");
+    }
+
+    /**
+     * Stripes the locks of the cache across node groups. Updates to groups that map to different stripes do not block
+     * each other, so a higher number of stripes allows more updates to run in parallel.
+     *
+     * @param lockStripes the minimum number of lock stripes to use, must be positive
+     */
+    public Builder<T> lockStripes(int lockStripes) {
+      Preconditions.checkArgument(lockStripes > 0, "lockStripes must be positive");
+
+      this.lockStripes = lockStripes;
+
+      return this;
+    }
+
+    /**
+     * Indexes watches by the names of the resources they request.
+     *
+     * <p>With the index, a watch that requests specific resources is only responded to on a snapshot update if one of
+     * those resources was added, removed or modified. This is only equivalent to evaluating every watch if the
+     * versions of the requested resources change only when the resources themselves do, e.g. when the snapshot uses a
+     * per resource {@link ResourceVersionResolver}: a snapshot that bumps the version of unchanged resources does not
+     * trigger a response for them.
+     *
+     * @param indexWatchesByResourceName whether watches should be indexed by the names of their requested resources
+     */
+    public Builder<T> indexWatchesByResourceName(boolean indexWatchesByResourceName) {
+      this.indexWatchesByResourceName = indexWatchesByResourceName;
+
+      return this;
+    }
+
+    /**
+     * Applies snapshot updates, including responding to the open watches of the group, on the given executor.
+     * {@link SimpleCache#setSnapshot(Object, Snapshot)} then returns immediately, and
+     * {@link SimpleCache#setSnapshotAsync(Object, Snapshot)} can be used to find out when the update was applied.
+     *
+     * <p>Node groups are partitioned by the number of lock stripes, and the updates of each partition are applied one
+     * at a time in the order they were set. Updates of groups in different partitions may run in parallel if the
+     * executor has multiple threads.
+     *
+     * @param notificationExecutor executor to apply snapshot updates on, or null to apply them on the caller's thread
+     */
+    public Builder<T> notificationExecutor(Executor notificationExecutor) {
+      this.notificationExecutor = notificationExecutor;
+
+      return this;
+    }
+
+    /**
+     * Keeps the versions of resource types that did not change between snapshots of a group.
+     *
+     * <p>When keeping versions, the resources of each type in a new snapshot are compared with those in the previous
+     * snapshot of the group. Types whose resources are unchanged keep the resources and versions of the previous
+     * snapshot, so a new snapshot version alone does not cause a response. {@link SimpleCache#getSnapshot(Object)}
+     * returns the snapshot with the kept resources rather than the snapshot that was set.
+     *
+     * @param keepVersionsOfUnchangedResources whether resource types that did not change keep their previous version
+     */
+    public Builder<T> keepVersionsOfUnchangedResources(boolean keepVersionsOfUnchangedResources) {
+      this.keepVersionsOfUnchangedResources = keepVersionsOfUnchangedResources;
+
+      return this;
+    }
+
+    /**
+     * Returns a new cache with the options of this builder.
+     */
+    public SimpleCache<T> build() {
+      return new SimpleCache<>(this);
+    }
+  }
 }
@@ -4,10 +4,8 @@ import static io.envoyproxy.controlplane.cache.Resources.CLUSTER_TYPE_URL;
 import static io.envoyproxy.controlplane.cache.Resources.ENDPOINT_TYPE_URL;
 import static io.envoyproxy.controlplane.cache.Resources.LISTENER_TYPE_URL;
 import static io.envoyproxy.controlplane.cache.Resources.ROUTE_TYPE_URL;
-import static io.envoyproxy.controlplane.cache.Resources.SECRET_TYPE_URL;
 
 import com.google.auto.value.AutoValue;
-import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.google.protobuf.Message;
 import io.envoyproxy.envoy.api.v2.Cluster;
@@ -119,6 +117,32 @@ public abstract class Snapshot {
         SnapshotResources.create(secrets, secretVersionResolver));
   }
 
+  /**
+   * Returns a new {@link Snapshot} instance whose versions are derived from the content of its resources, see
+   * {@link ContentHashVersionResolver}. Resources, and sets of requested resources, keep their version across snapshots
+   * as long as they do not change, so that envoys are not sent resources they already have.
+   *
+   * @param clusters the cluster resources in this snapshot
+   * @param endpoints the endpoint resources in this snapshot
+   * @param listeners the listener resources in this snapshot
+   * @param routes the route resources in this snapshot
+   * @param secrets the secret resources in this snapshot
+   */
+  public static Snapshot createWithContentVersions(
+      Iterable<Cluster> clusters,
+      Iterable<ClusterLoadAssignment> endpoints,
+      Iterable<Listener> listeners,
+      Iterable<RouteConfiguration> routes,
+      Iterable<Secret> secrets) {
+
+    return new AutoValue_Snapshot(
+        SnapshotResources.createWithContentVersions(clusters),
+        SnapshotResources.createWithContentVersions(endpoints),
+        SnapshotResources.createWithContentVersions(listeners),
+        SnapshotResources.createWithContentVersions(routes),
+        SnapshotResources.createWithContentVersions(secrets));
+  }
+
   /**
    * Creates an empty snapshot with the given version.
    *
@@ -129,6 +153,14 @@ public abstract class Snapshot {
         Collections.emptySet(), Collections.emptySet(), Collections.emptySet(), version);
   }
 
+  /**
+   * Returns a new {@link SnapshotPatch} that derives a snapshot from this snapshot by adding, replacing and removing
+   * individual resources.
+   */
+  public SnapshotPatch patch() {
+    return new SnapshotPatch(this);
+  }
+
   /**
    * Returns all cluster items in the CDS payload.
    */
@@ -164,11 +196,11 @@ public abstract class Snapshot {
    * @throws SnapshotConsistencyException if the snapshot is not consistent
    */
   public void ensureConsistent() throws SnapshotConsistencyException {
-    Set<String> clusterEndpointRefs = Resources.getResourceReferences(clusters().resources().values());
+    Set<String> clusterEndpointRefs = clusters().resourceReferences();
 
     ensureAllResourceNamesExist(CLUSTER_TYPE_URL, ENDPOINT_TYPE_URL, clusterEndpointRefs, endpoints().resources());
 
-    Set<String> listenerRouteRefs = Resources.getResourceReferences(listeners().resources().values());
+    Set<String> listenerRouteRefs = listeners().resourceReferences();
 
     ensureAllResourceNamesExist(LISTENER_TYPE_URL, ROUTE_TYPE_URL, listenerRouteRefs, routes().resources());
   }
@@ -179,26 +211,44 @@ public abstract class Snapshot {
    * @param typeUrl the URL for the requested resource type
    */
   public Map<String, ? extends Message> resources(String typeUrl) {
-    if (Strings.isNullOrEmpty(typeUrl)) {
-      return ImmutableMap.of();
-    }
+    ResourceType type = ResourceType.fromTypeUrl(typeUrl);
+
+    return type == null ? ImmutableMap.of() : resourcesOf(type).resources();
+  }
 
-    switch (typeUrl) {
-      case CLUSTER_TYPE_URL:
-        return clusters().resources();
-      case ENDPOINT_TYPE_URL:
-        return endpoints().resources();
-      case LISTENER_TYPE_URL:
-        return listeners().resources();
-      case ROUTE_TYPE_URL:
-        return routes().resources();
-      case SECRET_TYPE_URL:
-        return secrets().resources();
+  /**
+   * Returns the resources with the given type.
+   *
+   * @param type the requested resource type
+   */
+  public SnapshotResources<? extends Message> resourcesOf(ResourceType type) {
+    switch (type) {
+      case CLUSTER:
+        return clusters();
+      case ENDPOINT:
+        return endpoints();
+      case LISTENER:
+        return listeners();
+      case ROUTE:
+        return routes();
+      case SECRET:
+        return secrets();
       default:
-        return ImmutableMap.of();
+        throw new IllegalArgumentException("unknown resource type " + type);
     }
   }
 
+  /**
+   * Returns the resources with the given type along with their individual versions.
+   *
+   * @param typeUrl the URL for the requested resource type
+   */
+  public Map<String, ? extends VersionedResource<?>> versionedResources(String typeUrl) {
+    ResourceType type = ResourceType.fromTypeUrl(typeUrl);
+
+    return type == null ? ImmutableMap.of() : resourcesOf(type).versionedResources();
+  }
+
   /**
    * Returns the version in this snapshot for the given resource type.
    *
@@ -216,24 +266,32 @@ public abstract class Snapshot {
    *                      used to calculate a version for the given resources
    */
   public String version(String typeUrl, List<String> resourceNames) {
-    if (Strings.isNullOrEmpty(typeUrl)) {
-      return "";
-    }
+    ResourceType type = ResourceType.fromTypeUrl(typeUrl);
 
-    switch (typeUrl) {
-      case CLUSTER_TYPE_URL:
-        return clusters().version(resourceNames);
-      case ENDPOINT_TYPE_URL:
-        return endpoints().version(resourceNames);
-      case LISTENER_TYPE_URL:
-        return listeners().version(resourceNames);
-      case ROUTE_TYPE_URL:
-        return routes().version(resourceNames);
-      case SECRET_TYPE_URL:
-        return secrets().version(resourceNames);
-      default:
-        return "";
-    }
+    return type == null ? "" : resourcesOf(type).version(resourceNames);
+  }
+
+  /**
+   * Returns a snapshot with the resources of this snapshot, except that the resources of each type whose content is the
+   * same as in the given previous snapshot are taken from the previous snapshot, along with their versions.
+   *
+   * @param previous the snapshot that this snapshot replaces
+   */
+  Snapshot withUnchangedResourcesOf(Snapshot previous) {
+    return new AutoValue_Snapshot(
+        unchangedOrCurrent(previous.clusters(), clusters()),
+        unchangedOrCurrent(previous.endpoints(), endpoints()),
+        unchangedOrCurrent(previous.listeners(), listeners()),
+        unchangedOrCurrent(previous.routes(), routes()),
+        unchangedOrCurrent(previous.secrets(), secrets()));
+  }
+
+  private static <T extends Message> SnapshotResources<T> unchangedOrCurrent(
+      SnapshotResources<T> previous,
+      SnapshotResources<T> current) {
+    return previous == current || previous.contentFingerprint().equals(current.contentFingerprint())
+        ? previous
+        : current;
   }
 
   /**
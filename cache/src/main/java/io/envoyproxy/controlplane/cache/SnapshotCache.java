@@ -1,5 +1,9 @@
 package io.envoyproxy.controlplane.cache;
 
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 public interface SnapshotCache<T> extends Cache<T> {
 
   /**
@@ -16,6 +20,25 @@ public interface SnapshotCache<T> extends Cache<T> {
    */
   boolean clearSnapshot(T group);
 
+  /**
+   * Clears the most recently set {@link Snapshot} and associated metadata for each of the given node groups, see
+   * {@link #clearSnapshot(Object)}. Implementations may clear the groups at once rather than one by one.
+   *
+   * @param groups group identifiers
+   * @return the groups whose snapshot was cleared
+   */
+  default Set<T> clearSnapshots(Collection<T> groups) {
+    Set<T> cleared = new LinkedHashSet<>();
+
+    for (T group : groups) {
+      if (clearSnapshot(group)) {
+        cleared.add(group);
+      }
+    }
+
+    return cleared;
+  }
+
   /**
    * Returns the most recently set {@link Snapshot} for the given node group.
    *
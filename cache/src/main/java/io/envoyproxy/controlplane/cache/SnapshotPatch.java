@@ -0,0 +1,156 @@
+package io.envoyproxy.controlplane.cache;
+
+import static io.envoyproxy.controlplane.cache.Resources.CLUSTER_TYPE_URL;
+import static io.envoyproxy.controlplane.cache.Resources.ENDPOINT_TYPE_URL;
+import static io.envoyproxy.controlplane.cache.Resources.LISTENER_TYPE_URL;
+import static io.envoyproxy.controlplane.cache.Resources.ROUTE_TYPE_URL;
+import static io.envoyproxy.controlplane.cache.Resources.SECRET_TYPE_URL;
+
+import com.google.common.base.Preconditions;
+import com.google.protobuf.Message;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@code SnapshotPatch} derives a new {@link Snapshot} from a previous one by adding, replacing and removing individual
+ * resources, see {@link Snapshot#patch()}. The resources of the previous snapshot are shared with the new snapshot
+ * rather than copied, so applying a patch costs time proportional to the number of changed resources rather than to the
+ * size of the snapshot. Resource types without changes keep the resources and versions of the previous snapshot.
+ *
+ * <p>Patches are not thread-safe, and the previous snapshot is not modified by applying them.
+ */
+public class SnapshotPatch {
+
+  private final Snapshot snapshot;
+  private final Map<String, Map<String, Message>> upserts = new HashMap<>();
+  private final Map<String, Set<String>> removals = new HashMap<>();
+
+  SnapshotPatch(Snapshot snapshot) {
+    this.snapshot = snapshot;
+  }
+
+  /**
+   * Adds the given resource to the snapshot, replacing any resource of the same type and name.
+   *
+   * @param resource the cluster, endpoint, listener, route or secret to add
+   * @return this patch
+   */
+  public SnapshotPatch put(Message resource) {
+    String typeUrl = typeUrl(resource);
+    String name = Resources.getResourceName(resource);
+
+    removals.computeIfAbsent(typeUrl, t -> new HashSet<>()).remove(name);
+    upserts.computeIfAbsent(typeUrl, t -> new LinkedHashMap<>()).put(name, resource);
+
+    return this;
+  }
+
+  /**
+   * Removes the resource with the given type and name from the snapshot, if it exists.
+   *
+   * @param typeUrl      the type of the resource
+   * @param resourceName the name of the resource
+   * @return this patch
+   */
+  public SnapshotPatch remove(String typeUrl, String resourceName) {
+    Preconditions.checkArgument(Resources.TYPE_URLS.contains(typeUrl), "unknown resource type %s", typeUrl);
+
+    upserts.computeIfAbsent(typeUrl, t -> new LinkedHashMap<>()).remove(resourceName);
+    removals.computeIfAbsent(typeUrl, t -> new HashSet<>()).add(resourceName);
+
+    return this;
+  }
+
+  /**
+   * Returns a new snapshot with the changes of this patch applied. The resource types with changes are versioned
+   * uniformly with the given version.
+   *
+   * @param version the version of the changed resource types
+   */
+  public Snapshot apply(String version) {
+    return applyPatch(new VersionFactory() {
+      @Override
+      public <T extends Message> ResourceVersionResolver resolver(
+          SnapshotResources<T> previous,
+          Map<String, T> resources,
+          Map<String, T> typeUpserts,
+          Set<String> typeRemovals) {
+        return resourceNames -> version;
+      }
+    });
+  }
+
+  /**
+   * Returns a new snapshot with the changes of this patch applied. The resource types with changes are versioned by
+   * their content, see {@link Snapshot#createWithContentVersions(Iterable, Iterable, Iterable, Iterable, Iterable)}.
+   * If the previous snapshot was versioned by content as well, only the versions of the changed resources are computed.
+   */
+  public Snapshot applyWithContentVersions() {
+    return applyPatch(new VersionFactory() {
+      @Override
+      public <T extends Message> ResourceVersionResolver resolver(
+          SnapshotResources<T> previous,
+          Map<String, T> resources,
+          Map<String, T> typeUpserts,
+          Set<String> typeRemovals) {
+        if (previous.resourceVersionResolver() instanceof ContentHashVersionResolver) {
+          return ((ContentHashVersionResolver) previous.resourceVersionResolver()).patch(typeUpserts, typeRemovals);
+        }
+
+        return new ContentHashVersionResolver(resources);
+      }
+    });
+  }
+
+  private Snapshot applyPatch(VersionFactory versions) {
+    return new AutoValue_Snapshot(
+        applyPatch(CLUSTER_TYPE_URL, snapshot.clusters(), versions),
+        applyPatch(ENDPOINT_TYPE_URL, snapshot.endpoints(), versions),
+        applyPatch(LISTENER_TYPE_URL, snapshot.listeners(), versions),
+        applyPatch(ROUTE_TYPE_URL, snapshot.routes(), versions),
+        applyPatch(SECRET_TYPE_URL, snapshot.secrets(), versions));
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T extends Message> SnapshotResources<T> applyPatch(
+      String typeUrl,
+      SnapshotResources<T> previous,
+      VersionFactory versions) {
+
+    Map<String, T> typeUpserts = (Map<String, T>) upserts.getOrDefault(typeUrl, Collections.emptyMap());
+    Set<String> typeRemovals = removals.getOrDefault(typeUrl, Collections.emptySet());
+
+    if (typeUpserts.isEmpty() && typeRemovals.isEmpty()) {
+      return previous;
+    }
+
+    Map<String, T> resources = PatchedResourceMap.patch(previous.resources(), typeUpserts, typeRemovals);
+
+    return SnapshotResources.createFromMap(
+        resources,
+        versions.resolver(previous, resources, typeUpserts, typeRemovals));
+  }
+
+  private static String typeUrl(Message resource) {
+    ResourceType type = ResourceType.of(resource);
+
+    if (type == null) {
+      throw new IllegalArgumentException("unknown resource type " + resource.getClass().getName());
+    }
+
+    return type.typeUrl();
+  }
+
+  private interface VersionFactory {
+
+    <T extends Message> ResourceVersionResolver resolver(
+        SnapshotResources<T> previous,
+        Map<String, T> resources,
+        Map<String, T> typeUpserts,
+        Set<String> typeRemovals);
+  }
+}
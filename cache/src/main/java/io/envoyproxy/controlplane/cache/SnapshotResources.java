@@ -1,17 +1,38 @@
 package io.envoyproxy.controlplane.cache;
 
 import com.google.auto.value.AutoValue;
+import com.google.auto.value.extension.memoized.Memoized;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.protobuf.Message;
-
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collector;
 import java.util.stream.StreamSupport;
 
 @AutoValue
 public abstract class SnapshotResources<T extends Message> {
 
+  // Bounds the number of distinct lists of requested names whose filtered resources are memoized per collection. The
+  // least recently used lists are evicted past the bound.
+  private static final int MAX_MEMOIZED_FILTERS = 1024;
+
+  // Names of the filtered resources, shared across collections so that streams hold onto as few sets as possible.
+  private static final Interner<Set<String>> RESOURCE_NAMES = Interners.newWeakInterner();
+
   /**
    * Returns a new {@link SnapshotResources} instance.
    *
@@ -41,6 +62,35 @@ public abstract class SnapshotResources<T extends Message> {
         versionResolver);
   }
 
+  /**
+   * Returns a new {@link SnapshotResources} instance with versions derived from the content of the resources, see
+   * {@link ContentHashVersionResolver}. The version of each resource is only computed once, and is also used by
+   * {@link #versionedResources()}.
+   *
+   * @param resources the resources in this collection
+   * @param <T> the type of resources in this collection
+   */
+  public static <T extends Message> SnapshotResources<T> createWithContentVersions(Iterable<T> resources) {
+    ImmutableMap<String, T> resourcesMap = resourcesMap(resources);
+
+    return new AutoValue_SnapshotResources<>(
+        resourcesMap,
+        new ContentHashVersionResolver(resourcesMap));
+  }
+
+  /**
+   * Returns a new {@link SnapshotResources} instance for resources that are already mapped by name.
+   *
+   * @param resources the resources in this collection, by name
+   * @param versionResolver version resolver for the resources in this collection
+   * @param <T> the type of resources in this collection
+   */
+  static <T extends Message> SnapshotResources<T> createFromMap(
+      Map<String, T> resources,
+      ResourceVersionResolver versionResolver) {
+    return new AutoValue_SnapshotResources<>(resources, versionResolver);
+  }
+
   private static <T extends Message> ImmutableMap<String, T> resourcesMap(Iterable<T> resources) {
     return StreamSupport.stream(resources.spliterator(), false)
         .collect(
@@ -77,4 +127,118 @@ public abstract class SnapshotResources<T extends Message> {
    */
   public abstract ResourceVersionResolver resourceVersionResolver();
 
+  /**
+   * Returns a map of the resources in this collection along with their individual versions, where the key is the name
+   * of the resource. The versions are derived from the content of each resource, see
+   * {@link Resources#getResourceVersion(Message)}, and are only computed once per collection.
+   */
+  @Memoized
+  public Map<String, VersionedResource<T>> versionedResources() {
+    if (resourceVersionResolver() instanceof ResourceContentVersions) {
+      ResourceContentVersions resolver = (ResourceContentVersions) resourceVersionResolver();
+
+      return ImmutableMap.copyOf(Maps.transformEntries(
+          resources(),
+          (name, r) -> VersionedResource.create(r, resolver.resourceVersion(name))));
+    }
+
+    return ImmutableMap.copyOf(
+        Maps.transformValues(resources(), r -> VersionedResource.create(r, Resources.getResourceVersion(r))));
+  }
+
+  /**
+   * Returns the resources in this collection with the given names, along with their names and version. The result is
+   * memoized for each distinct list of names, since the proxies of a group tend to request the same resources, so
+   * that their responses share the same filtered resources rather than each filtering the collection again.
+   *
+   * @param resourceNames the names of the requested resources, which must not be empty
+   */
+  Filtered<T> filtered(List<String> resourceNames) {
+    ConcurrentMap<List<String>, Filtered<T>> memoized = memoizedFilters().asMap();
+    Filtered<T> filtered = memoized.get(resourceNames);
+
+    if (filtered != null) {
+      return filtered;
+    }
+
+    filtered = filter(resourceNames);
+
+    Filtered<T> existing = memoized.putIfAbsent(ImmutableList.copyOf(resourceNames), filtered);
+
+    return existing == null ? filtered : existing;
+  }
+
+  @Memoized
+  Cache<List<String>, Filtered<T>> memoizedFilters() {
+    return CacheBuilder.newBuilder()
+        .maximumSize(MAX_MEMOIZED_FILTERS)
+        .build();
+  }
+
+  private Filtered<T> filter(List<String> resourceNames) {
+    ImmutableList.Builder<T> resources = ImmutableList.builder();
+    ImmutableSet.Builder<String> names = ImmutableSet.builder();
+
+    for (String name : resourceNames) {
+      T resource = resources().get(name);
+
+      if (resource != null) {
+        resources.add(resource);
+        names.add(name);
+      }
+    }
+
+    return new AutoValue_SnapshotResources_Filtered<>(
+        resources.build(),
+        RESOURCE_NAMES.intern(names.build()),
+        version(resourceNames));
+  }
+
+  /**
+   * Returns the names of the resources that are referenced by the resources in this collection, see
+   * {@link Resources#getResourceReferences(Collection)}. Collections are usually shared by the snapshots in which their
+   * resource type did not change, so the references are only extracted once per collection.
+   */
+  @Memoized
+  Set<String> resourceReferences() {
+    return Resources.getResourceReferences(resources().values());
+  }
+
+  /**
+   * Returns a fingerprint of the names and content of the resources in this collection, which unlike the version does
+   * not depend on the version resolver. Collections with equal resources have the same fingerprint.
+   */
+  @Memoized
+  String contentFingerprint() {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+
+    new TreeMap<>(versionedResources()).forEach((name, resource) -> hasher
+        .putInt(name.length())
+        .putString(name, StandardCharsets.UTF_8)
+        .putString(resource.version(), StandardCharsets.UTF_8));
+
+    return hasher.hash().toString();
+  }
+
+  /**
+   * {@code Filtered} holds the resources of a collection with the requested names, along with their version.
+   */
+  @AutoValue
+  abstract static class Filtered<T extends Message> {
+
+    /**
+     * Returns the requested resources that are in the collection, in the order in which they were requested.
+     */
+    abstract List<T> resources();
+
+    /**
+     * Returns the names of the requested resources that are in the collection.
+     */
+    abstract Set<String> resourceNames();
+
+    /**
+     * Returns the version of the requested resources.
+     */
+    abstract String version();
+  }
 }
@@ -0,0 +1,32 @@
+package io.envoyproxy.controlplane.cache;
+
+import com.google.auto.value.AutoValue;
+import com.google.protobuf.Message;
+
+/**
+ * {@code VersionedResource} is a data class that holds a resource along with its individual version.
+ */
+@AutoValue
+public abstract class VersionedResource<T extends Message> {
+
+  /**
+   * Returns a new {@link VersionedResource} instance.
+   *
+   * @param resource the resource
+   * @param version the version of the resource
+   * @param <T> the type of the resource
+   */
+  public static <T extends Message> VersionedResource<T> create(T resource, String version) {
+    return new AutoValue_VersionedResource<>(resource, version);
+  }
+
+  /**
+   * Returns the resource.
+   */
+  public abstract T resource();
+
+  /**
+   * Returns the version of the resource.
+   */
+  public abstract String version();
+}
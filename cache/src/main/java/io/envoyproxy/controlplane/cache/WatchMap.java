@@ -0,0 +1,256 @@
+package io.envoyproxy.controlplane.cache;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * {@code WatchMap} is a map of watches by their primitive {@code long} ID. Watches are stored in an open addressing
+ * table of primitive keys, so that adding, removing and visiting watches does not box their IDs or allocate an entry
+ * per watch, unlike a {@link java.util.concurrent.ConcurrentHashMap}.
+ *
+ * <p>All operations are synchronized on the map, including the visit of {@link #removeIf(Filter)}, which walks the
+ * table in place and so blocks other threads from using the map until it is done. The filter itself may remove or add
+ * watches of the same map, as happens when a watch is stopped while it is responded to. Watches added while visiting
+ * may or may not be visited, and watches removed while visiting are not visited anymore.
+ */
+@ThreadSafe
+final class WatchMap<W> {
+
+  private static final int MIN_CAPACITY = 8;
+  private static final Object REMOVED = new Object();
+
+  private long[] ids = new long[MIN_CAPACITY];
+  private Object[] watches = new Object[MIN_CAPACITY];
+  // Number of slots that hold a watch, and number of slots that hold either a watch or a removed marker.
+  private volatile int size;
+  private int used;
+  private boolean closed;
+
+  /**
+   * Returns the number of watches in the map, without locking it.
+   */
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  synchronized W get(long id) {
+    int slot = slot(ids, watches, id);
+
+    return slot < 0 ? null : (W) watches[slot];
+  }
+
+  /**
+   * Adds the given watch, replacing any watch with the same ID.
+   *
+   * @param id    the ID of the watch
+   * @param watch the watch
+   */
+  synchronized void put(long id, W watch) {
+    int slot = slot(ids, watches, id);
+
+    if (slot >= 0) {
+      watches[slot] = watch;
+      return;
+    }
+
+    if ((used + 1) * 4 > watches.length * 3) {
+      resize();
+    }
+
+    slot = insertionSlot(ids, watches, id);
+
+    if (watches[slot] == null) {
+      used++;
+    }
+
+    ids[slot] = id;
+    watches[slot] = watch;
+    size++;
+  }
+
+  /**
+   * Adds the given watch like {@link #put(long, Object)}, unless the map was closed.
+   *
+   * @param id    the ID of the watch
+   * @param watch the watch
+   * @return true if the watch was added
+   */
+  synchronized boolean putIfOpen(long id, W watch) {
+    if (closed) {
+      return false;
+    }
+
+    put(id, watch);
+
+    return true;
+  }
+
+  /**
+   * Closes the map if it is empty, so that no watch can be added to it with {@link #putIfOpen(long, Object)} anymore.
+   *
+   * @return true if the map is closed
+   */
+  synchronized boolean closeIfEmpty() {
+    if (size == 0) {
+      closed = true;
+    }
+
+    return closed;
+  }
+
+  /**
+   * Removes the watch with the given ID, and returns it if there was one.
+   *
+   * @param id the ID of the watch
+   */
+  @SuppressWarnings("unchecked")
+  synchronized W remove(long id) {
+    int slot = slot(ids, watches, id);
+
+    if (slot < 0) {
+      return null;
+    }
+
+    W watch = (W) watches[slot];
+    watches[slot] = REMOVED;
+    size--;
+
+    return watch;
+  }
+
+  /**
+   * Removes the watch with the given ID if it is the given watch.
+   *
+   * @param id    the ID of the watch
+   * @param watch the expected watch
+   * @return true if the watch was removed
+   */
+  synchronized boolean remove(long id, W watch) {
+    int slot = slot(ids, watches, id);
+
+    if (slot < 0 || watches[slot] != watch) {
+      return false;
+    }
+
+    watches[slot] = REMOVED;
+    size--;
+
+    return true;
+  }
+
+  /**
+   * Returns the IDs of the watches in the map, in no particular order.
+   */
+  synchronized long[] ids() {
+    long[] result = new long[size];
+    int count = 0;
+
+    for (int i = 0; i < watches.length; i++) {
+      if (isWatch(watches[i])) {
+        result[count++] = ids[i];
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Visits the watches in the map and removes those for which the filter returns {@code true}.
+   *
+   * @param filter the function to execute on each watch
+   */
+  @SuppressWarnings("unchecked")
+  synchronized void removeIf(Filter<? super W> filter) {
+    long[] visitedIds = ids;
+    Object[] visitedWatches = watches;
+
+    for (int i = 0; i < visitedWatches.length; i++) {
+      if (!isWatch(visitedWatches[i])) {
+        continue;
+      }
+
+      long id = visitedIds[i];
+      W watch = (W) visitedWatches[i];
+
+      // Watches the filter removes are marked in place, unless it also grew the table, in which case the slots that
+      // are left to visit are checked against the new table.
+      if (visitedWatches != watches && get(id) != watch) {
+        continue;
+      }
+
+      if (filter.test(id, watch)) {
+        remove(id, watch);
+      }
+    }
+  }
+
+  private void resize() {
+    int capacity = MIN_CAPACITY;
+
+    while ((size + 1) * 2 > capacity) {
+      capacity <<= 1;
+    }
+
+    long[] resizedIds = new long[capacity];
+    Object[] resizedWatches = new Object[capacity];
+
+    for (int i = 0; i < watches.length; i++) {
+      if (isWatch(watches[i])) {
+        int slot = insertionSlot(resizedIds, resizedWatches, ids[i]);
+        resizedIds[slot] = ids[i];
+        resizedWatches[slot] = watches[i];
+      }
+    }
+
+    ids = resizedIds;
+    watches = resizedWatches;
+    used = size;
+  }
+
+  private static int slot(long[] ids, Object[] watches, long id) {
+    int mask = watches.length - 1;
+
+    for (int slot = hash(id) & mask; watches[slot] != null; slot = (slot + 1) & mask) {
+      if (ids[slot] == id && watches[slot] != REMOVED) {
+        return slot;
+      }
+    }
+
+    return -1;
+  }
+
+  private static int insertionSlot(long[] ids, Object[] watches, long id) {
+    int mask = watches.length - 1;
+    int slot = hash(id) & mask;
+
+    while (isWatch(watches[slot])) {
+      slot = (slot + 1) & mask;
+    }
+
+    return slot;
+  }
+
+  private static boolean isWatch(Object watch) {
+    return watch != null && watch != REMOVED;
+  }
+
+  private static int hash(long id) {
+    // Watch IDs are sequential, so they are spread over the table by a multiplicative hash.
+    long hash = id * 0x9E3779B97F4A7C15L;
+
+    return (int) (hash ^ (hash >>> 32));
+  }
+
+  /**
+   * Decides whether a visited watch should be removed, given its primitive ID.
+   */
+  @FunctionalInterface
+  interface Filter<W> {
+
+    boolean test(long id, W watch);
+  }
+}
@@ -2,8 +2,10 @@ package io.envoyproxy.controlplane.cache;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import com.google.common.collect.ImmutableList;
 import io.envoyproxy.envoy.api.v2.DiscoveryRequest;
 import io.envoyproxy.envoy.api.v2.core.Node;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.UUID;
 import java.util.concurrent.ThreadLocalRandom;
@@ -86,6 +88,35 @@ public class CacheStatusInfoTest {
     assertThat(info.watchIds()).containsExactlyInAnyOrder(watchId2);
   }
 
+  @Test
+  public void indexedWatchesRemoveIfVisitsOnlyWildcardAndMatchingWatches() {
+    final boolean ads = ThreadLocalRandom.current().nextBoolean();
+
+    CacheStatusInfo<Node> info = new CacheStatusInfo<>(Node.getDefaultInstance(), true);
+
+    info.setWatch(1, new Watch(ads, DiscoveryRequest.getDefaultInstance(), r -> { }));
+    info.setWatch(2, new Watch(ads, DiscoveryRequest.newBuilder().addResourceNames("a").build(), r -> { }));
+    info.setWatch(3, new Watch(ads, DiscoveryRequest.newBuilder().addResourceNames("b").build(), r -> { }));
+
+    Collection<Long> visited = new ArrayList<>();
+
+    info.watchesRemoveIf(ImmutableList.of("a", "c"), (watchId, watch) -> visited.add(watchId));
+
+    assertThat(visited).containsExactlyInAnyOrder(1L, 2L);
+    assertThat(info.watchIds()).containsExactlyInAnyOrder(3L);
+
+    visited.clear();
+    info.watchesRemoveIf(ImmutableList.of("a"), (watchId, watch) -> visited.add(watchId));
+
+    assertThat(visited).isEmpty();
+
+    info.removeWatch(3);
+    info.watchesRemoveIf(ImmutableList.of("b"), (watchId, watch) -> visited.add(watchId));
+
+    assertThat(visited).isEmpty();
+    assertThat(info.numWatches()).isZero();
+  }
+
   @Test
   public void testConcurrentSetWatchAndRemove() {
     final boolean ads = ThreadLocalRandom.current().nextBoolean();
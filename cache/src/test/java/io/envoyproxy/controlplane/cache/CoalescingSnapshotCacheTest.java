@@ -0,0 +1,186 @@
+package io.envoyproxy.controlplane.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Uninterruptibles;
+import io.envoyproxy.envoy.api.v2.Cluster;
+import io.envoyproxy.envoy.api.v2.DiscoveryRequest;
+import io.envoyproxy.envoy.api.v2.core.Node;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class CoalescingSnapshotCacheTest {
+
+  private static final String GROUP = "node";
+
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+  private final RecordingCache delegate = new RecordingCache();
+
+  @After
+  public void shutdown() {
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  public void burstOfUpdatesIsPassedOnAsLatestSnapshot() throws InterruptedException {
+    CoalescingSnapshotCache<String> cache = new CoalescingSnapshotCache<>(
+        delegate, scheduler, 100, 10_000, TimeUnit.MILLISECONDS);
+
+    BlockingQueue<Response> responses = new LinkedBlockingQueue<>();
+
+    cache.createWatch(
+        false,
+        DiscoveryRequest.newBuilder()
+            .setNode(Node.getDefaultInstance())
+            .setTypeUrl(Resources.CLUSTER_TYPE_URL)
+            .build(),
+        Collections.emptySet(),
+        responses::add,
+        false);
+
+    for (int i = 0; i < 10; i++) {
+      cache.setSnapshot(GROUP, snapshot(Integer.toString(i)));
+    }
+
+    assertThat(cache.getSnapshot(GROUP).version(Resources.CLUSTER_TYPE_URL)).isEqualTo("9");
+
+    Response response = responses.poll(1, TimeUnit.SECONDS);
+
+    assertThat(response).isNotNull();
+    assertThat(response.version()).isEqualTo("9");
+    assertThat(delegate.updates).extracting(s -> s.version(Resources.CLUSTER_TYPE_URL)).containsExactly("9");
+  }
+
+  @Test
+  public void continuousUpdatesArePassedOnAfterMaxDelay() throws InterruptedException {
+    CoalescingSnapshotCache<String> cache = new CoalescingSnapshotCache<>(
+        delegate, scheduler, 200, 200, TimeUnit.MILLISECONDS);
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+    int version = 0;
+
+    // Each update arrives within the window of the previous one, so only the maximum delay lets updates through.
+    while (System.nanoTime() < deadline) {
+      cache.setSnapshot(GROUP, snapshot(Integer.toString(version++)));
+      Thread.sleep(10);
+    }
+
+    assertThat(delegate.updates.size()).isBetween(2, version - 1);
+  }
+
+  @Test
+  public void clearSnapshotDiscardsPendingUpdate() throws InterruptedException {
+    CoalescingSnapshotCache<String> cache = new CoalescingSnapshotCache<>(
+        delegate, scheduler, 50, 50, TimeUnit.MILLISECONDS);
+
+    cache.setSnapshot(GROUP, snapshot("1"));
+
+    assertThat(cache.clearSnapshot(GROUP)).isTrue();
+
+    Thread.sleep(200);
+
+    assertThat(cache.getSnapshot(GROUP)).isNull();
+    assertThat(delegate.updates).isEmpty();
+  }
+
+  @Test
+  public void clearSnapshotKeepsPendingUpdateOfGroupWithWatches() throws InterruptedException {
+    CoalescingSnapshotCache<String> cache = new CoalescingSnapshotCache<>(
+        delegate, scheduler, 200, 200, TimeUnit.MILLISECONDS);
+
+    BlockingQueue<Response> responses = new LinkedBlockingQueue<>();
+
+    cache.createWatch(
+        false,
+        DiscoveryRequest.newBuilder()
+            .setNode(Node.getDefaultInstance())
+            .setTypeUrl(Resources.CLUSTER_TYPE_URL)
+            .build(),
+        Collections.emptySet(),
+        responses::add,
+        false);
+
+    cache.setSnapshot(GROUP, snapshot("1"));
+
+    // The delegate refuses to clear a group with open watches, so the update is still passed on.
+    assertThat(cache.clearSnapshot(GROUP)).isFalse();
+    assertThat(cache.clearSnapshots(ImmutableList.of(GROUP))).isEmpty();
+    assertThat(cache.getSnapshot(GROUP).version(Resources.CLUSTER_TYPE_URL)).isEqualTo("1");
+
+    Response response = responses.poll(1, TimeUnit.SECONDS);
+
+    assertThat(response).isNotNull();
+    assertThat(response.version()).isEqualTo("1");
+    assertThat(delegate.updates).extracting(s -> s.version(Resources.CLUSTER_TYPE_URL)).containsExactly("1");
+  }
+
+  @Test
+  public void clearSnapshotWaitsForUpdateBeingPassedOn() throws Exception {
+    CountDownLatch setStarted = new CountDownLatch(1);
+    CountDownLatch setReleased = new CountDownLatch(1);
+
+    RecordingCache blockingDelegate = new RecordingCache() {
+      @Override
+      public void setSnapshot(String group, Snapshot snapshot) {
+        setStarted.countDown();
+        Uninterruptibles.awaitUninterruptibly(setReleased);
+        super.setSnapshot(group, snapshot);
+      }
+    };
+
+    CoalescingSnapshotCache<String> cache = new CoalescingSnapshotCache<>(
+        blockingDelegate, scheduler, 0, 0, TimeUnit.MILLISECONDS);
+
+    cache.setSnapshot(GROUP, snapshot("1"));
+
+    assertThat(setStarted.await(1, TimeUnit.SECONDS)).isTrue();
+
+    CompletableFuture<Boolean> cleared = CompletableFuture.supplyAsync(() -> cache.clearSnapshot(GROUP));
+
+    Thread.sleep(100);
+
+    assertThat(cleared).isNotDone();
+
+    setReleased.countDown();
+
+    assertThat(cleared.get(1, TimeUnit.SECONDS)).isTrue();
+    assertThat(cache.getSnapshot(GROUP)).isNull();
+    assertThat(blockingDelegate.getSnapshot(GROUP)).isNull();
+  }
+
+  private static Snapshot snapshot(String version) {
+    return Snapshot.create(
+        ImmutableList.of(Cluster.newBuilder().setName("cluster0").build()),
+        ImmutableList.of(),
+        ImmutableList.of(),
+        ImmutableList.of(),
+        ImmutableList.of(),
+        version);
+  }
+
+  private static class RecordingCache extends SimpleCache<String> {
+
+    private final List<Snapshot> updates = new CopyOnWriteArrayList<>();
+
+    RecordingCache() {
+      super(node -> GROUP);
+    }
+
+    @Override
+    public void setSnapshot(String group, Snapshot snapshot) {
+      updates.add(snapshot);
+      super.setSnapshot(group, snapshot);
+    }
+  }
+}
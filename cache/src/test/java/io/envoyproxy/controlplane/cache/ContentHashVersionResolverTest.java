@@ -0,0 +1,85 @@
+package io.envoyproxy.controlplane.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.envoyproxy.envoy.api.v2.Cluster;
+import java.util.Collections;
+import org.junit.Test;
+
+public class ContentHashVersionResolverTest {
+
+  private static final String CLUSTER0_NAME = "cluster0";
+  private static final String CLUSTER1_NAME = "cluster1";
+
+  private static final Cluster CLUSTER0 = TestResources.createCluster(CLUSTER0_NAME);
+  private static final Cluster CLUSTER1 = TestResources.createCluster(CLUSTER1_NAME);
+
+  @Test
+  public void versionsOnlyChangeWithContentOfRequestedResources() {
+    ContentHashVersionResolver resolver = new ContentHashVersionResolver(ImmutableMap.of(
+        CLUSTER0_NAME, CLUSTER0,
+        CLUSTER1_NAME, CLUSTER1));
+
+    ContentHashVersionResolver sameResolver = new ContentHashVersionResolver(ImmutableMap.of(
+        CLUSTER1_NAME, CLUSTER1.toBuilder().build(),
+        CLUSTER0_NAME, CLUSTER0.toBuilder().build()));
+
+    ContentHashVersionResolver changedResolver = new ContentHashVersionResolver(ImmutableMap.of(
+        CLUSTER0_NAME, CLUSTER0,
+        CLUSTER1_NAME, CLUSTER1.toBuilder().setType(Cluster.DiscoveryType.STATIC).build()));
+
+    assertThat(sameResolver.version()).isEqualTo(resolver.version());
+    assertThat(changedResolver.version()).isNotEqualTo(resolver.version());
+
+    assertThat(changedResolver.version(ImmutableList.of(CLUSTER0_NAME)))
+        .isEqualTo(resolver.version(ImmutableList.of(CLUSTER0_NAME)));
+    assertThat(changedResolver.version(ImmutableList.of(CLUSTER1_NAME)))
+        .isNotEqualTo(resolver.version(ImmutableList.of(CLUSTER1_NAME)));
+
+    assertThat(resolver.resourceVersion(CLUSTER0_NAME)).isEqualTo(Resources.getResourceVersion(CLUSTER0));
+    assertThat(resolver.resourceVersion("unknown")).isNull();
+  }
+
+  @Test
+  public void versionOfResourceSetDoesNotDependOnRequestOrder() {
+    ContentHashVersionResolver resolver = new ContentHashVersionResolver(ImmutableMap.of(
+        CLUSTER0_NAME, CLUSTER0,
+        CLUSTER1_NAME, CLUSTER1));
+
+    String version = resolver.version(ImmutableList.of(CLUSTER0_NAME, CLUSTER1_NAME));
+
+    assertThat(resolver.version(ImmutableList.of(CLUSTER1_NAME, CLUSTER0_NAME))).isEqualTo(version);
+    assertThat(resolver.version(ImmutableList.of(CLUSTER1_NAME, CLUSTER0_NAME, CLUSTER1_NAME))).isEqualTo(version);
+    assertThat(resolver.version()).isEqualTo(version);
+  }
+
+  @Test
+  public void versionChangesWhenRequestedResourceIsAdded() {
+    ContentHashVersionResolver resolver = new ContentHashVersionResolver(ImmutableMap.of(CLUSTER0_NAME, CLUSTER0));
+    ContentHashVersionResolver emptyResolver = new ContentHashVersionResolver(Collections.emptyMap());
+
+    assertThat(resolver.version(ImmutableList.of(CLUSTER0_NAME)))
+        .isNotEqualTo(emptyResolver.version(ImmutableList.of(CLUSTER0_NAME)));
+    assertThat(resolver.version()).isNotEqualTo(emptyResolver.version());
+  }
+
+  @Test
+  public void patchedVersionsMatchRecomputedVersions() {
+    Cluster modified = CLUSTER1.toBuilder().setType(Cluster.DiscoveryType.STATIC).build();
+
+    ContentHashVersionResolver patched = new ContentHashVersionResolver(ImmutableMap.of(CLUSTER0_NAME, CLUSTER0))
+        .patch(ImmutableMap.of(CLUSTER1_NAME, CLUSTER1), Collections.emptySet())
+        .patch(ImmutableMap.of(CLUSTER1_NAME, modified), ImmutableSet.of(CLUSTER0_NAME));
+
+    ContentHashVersionResolver recomputed = new ContentHashVersionResolver(ImmutableMap.of(CLUSTER1_NAME, modified));
+
+    assertThat(patched.version()).isEqualTo(recomputed.version());
+    assertThat(patched.version(ImmutableList.of(CLUSTER0_NAME, CLUSTER1_NAME)))
+        .isEqualTo(recomputed.version(ImmutableList.of(CLUSTER0_NAME, CLUSTER1_NAME)));
+    assertThat(patched.resourceVersion(CLUSTER0_NAME)).isNull();
+    assertThat(patched.resourceVersion(CLUSTER1_NAME)).isEqualTo(Resources.getResourceVersion(modified));
+  }
+}
@@ -0,0 +1,149 @@
+package io.envoyproxy.controlplane.cache;
+
+import static io.envoyproxy.controlplane.cache.Resources.CLUSTER_TYPE_URL;
+import static io.envoyproxy.controlplane.cache.Resources.LISTENER_TYPE_URL;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+import com.google.common.collect.ImmutableList;
+import io.envoyproxy.envoy.api.v2.Cluster;
+import io.envoyproxy.envoy.api.v2.DiscoveryRequest;
+import io.envoyproxy.envoy.api.v2.Listener;
+import io.envoyproxy.envoy.api.v2.core.Node;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import org.junit.Test;
+
+public class LayeredSnapshotCacheTest {
+
+  private static final Cluster CLUSTER0 = TestResources.createCluster("cluster0");
+  private static final Cluster CLUSTER1 = TestResources.createCluster("cluster1");
+  private static final Listener BASE_LISTENER = TestResources.createListener(true, "listener0", 10000, "route0");
+  private static final Listener OVERLAY_LISTENER = TestResources.createListener(true, "listener0", 10001, "route0");
+
+  private static final Snapshot BASE1 = Snapshot.create(
+      ImmutableList.of(CLUSTER0),
+      ImmutableList.of(),
+      ImmutableList.of(BASE_LISTENER),
+      ImmutableList.of(),
+      ImmutableList.of(),
+      "base1");
+
+  private static final Snapshot BASE2 = Snapshot.create(
+      ImmutableList.of(CLUSTER0, CLUSTER1),
+      ImmutableList.of(),
+      ImmutableList.of(BASE_LISTENER),
+      ImmutableList.of(),
+      ImmutableList.of(),
+      "base2");
+
+  private static final Snapshot OVERLAY = Snapshot.create(
+      ImmutableList.of(),
+      ImmutableList.of(),
+      ImmutableList.of(OVERLAY_LISTENER),
+      ImmutableList.of(),
+      ImmutableList.of(),
+      "overlay1");
+
+  @Test
+  public void groupsAreComposedFromBaseAndOverlay() {
+    LayeredSnapshotCache<String> cache = new LayeredSnapshotCache<>(Node::getId);
+
+    cache.setBaseSnapshot(BASE1);
+    cache.setSnapshot("a", OVERLAY);
+
+    List<Response> responses = new LinkedList<>();
+    createWatch(cache, "b", LISTENER_TYPE_URL, "", responses);
+
+    // Groups without an overlay share the base snapshot.
+    assertThat(cache.getSnapshot("b")).isSameAs(BASE1);
+    assertThat(responses).hasSize(1);
+
+    Snapshot composed = cache.getSnapshot("a");
+
+    assertThat(composed.clusters()).isSameAs(BASE1.clusters());
+    assertThat(composed.listeners().resources()).containsExactly(entry("listener0", OVERLAY_LISTENER));
+    assertThat(composed.version(LISTENER_TYPE_URL)).isEqualTo("base1+overlay1");
+    assertThat(composed.listeners().versionedResources().get("listener0").version())
+        .isEqualTo(Resources.getResourceVersion(OVERLAY_LISTENER));
+  }
+
+  @Test
+  public void settingBaseUpdatesAllGroups() {
+    LayeredSnapshotCache<String> cache = new LayeredSnapshotCache<>(Node::getId);
+
+    cache.setBaseSnapshot(BASE1);
+    cache.setSnapshot("a", OVERLAY);
+
+    List<Response> responsesA = new LinkedList<>();
+    List<Response> responsesB = new LinkedList<>();
+
+    createWatch(cache, "a", CLUSTER_TYPE_URL, "base1", responsesA);
+    createWatch(cache, "b", CLUSTER_TYPE_URL, "base1", responsesB);
+
+    assertThat(responsesA).isEmpty();
+    assertThat(responsesB).isEmpty();
+
+    cache.setBaseSnapshot(BASE2);
+
+    assertThat(responsesA).extracting(Response::version).containsExactly("base2");
+    assertThat(responsesB).extracting(Response::version).containsExactly("base2");
+    assertThat(cache.getSnapshot("a").listeners().resources().get("listener0")).isEqualTo(OVERLAY_LISTENER);
+    assertThat(cache.getSnapshot("b")).isSameAs(BASE2);
+  }
+
+  @Test
+  public void groupsAreComposedOnceWhenCacheAppliesUpdatesAsynchronously() {
+    Queue<Runnable> tasks = new ArrayDeque<>();
+    List<String> updatedGroups = new ArrayList<>();
+
+    SimpleCache.Builder<String> builder = SimpleCache.builder(Node::getId).notificationExecutor(tasks::add);
+    SimpleCache<String> simpleCache = new SimpleCache<String>(builder) {
+      @Override
+      public void setSnapshot(String group, Snapshot snapshot) {
+        updatedGroups.add(group);
+        super.setSnapshot(group, snapshot);
+      }
+    };
+
+    LayeredSnapshotCache<String> cache = new LayeredSnapshotCache<>(Node::getId, simpleCache);
+
+    cache.setBaseSnapshot(BASE1);
+
+    List<Response> responses = new LinkedList<>();
+
+    // The snapshot set for the first watch is not applied yet when the second watch is created.
+    createWatch(cache, "b", CLUSTER_TYPE_URL, "", responses);
+    createWatch(cache, "b", LISTENER_TYPE_URL, "", responses);
+
+    while (!tasks.isEmpty()) {
+      tasks.poll().run();
+    }
+
+    assertThat(updatedGroups).containsExactly("b");
+    assertThat(cache.getSnapshot("b")).isSameAs(BASE1);
+    assertThat(responses).extracting(Response::version).containsExactly("base1", "base1");
+  }
+
+  private static void createWatch(
+      LayeredSnapshotCache<String> cache,
+      String group,
+      String typeUrl,
+      String version,
+      List<Response> responses) {
+    cache.createWatch(
+        false,
+        DiscoveryRequest.newBuilder()
+            .setNode(Node.newBuilder().setId(group))
+            .setTypeUrl(typeUrl)
+            .setVersionInfo(version)
+            .build(),
+        Collections.emptySet(),
+        responses::add,
+        false);
+  }
+}
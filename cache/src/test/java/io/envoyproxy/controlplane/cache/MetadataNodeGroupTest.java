@@ -0,0 +1,61 @@
+package io.envoyproxy.controlplane.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
+import io.envoyproxy.envoy.api.v2.core.Locality;
+import io.envoyproxy.envoy.api.v2.core.Node;
+import org.junit.Test;
+
+public class MetadataNodeGroupTest {
+
+  private static final Node NODE = Node.newBuilder()
+      .setId("id")
+      .setCluster("cluster")
+      .setLocality(Locality.newBuilder().setZone("zone"))
+      .setMetadata(Struct.newBuilder()
+          .putFields("app", Value.newBuilder()
+              .setStructValue(Struct.newBuilder()
+                  .putFields("name", Value.newBuilder().setStringValue("name").build())
+                  .putFields("shard", Value.newBuilder().setNumberValue(3).build()))
+              .build()))
+      .build();
+
+  @Test
+  public void hashJoinsFieldValues() {
+    MetadataNodeGroup group = new MetadataNodeGroup(ImmutableList.of(
+        "cluster",
+        "locality.zone",
+        "locality.region",
+        "metadata.app.name",
+        "metadata.app.shard",
+        "metadata.app.missing",
+        "metadata.app.name.nested"));
+
+    assertThat(group.hash(NODE)).isEqualTo("cluster/zone//name/3//");
+  }
+
+  @Test
+  public void hashInternsGroups() {
+    MetadataNodeGroup group = new MetadataNodeGroup(ImmutableList.of("cluster", "metadata.app.name"), ":");
+
+    String hash = group.hash(NODE);
+
+    assertThat(hash).isEqualTo("cluster:name");
+    assertThat(group.hash(NODE)).isSameAs(hash);
+    assertThat(group.hash(NODE.toBuilder().setId("other").build())).isSameAs(hash);
+  }
+
+  @Test
+  public void unsupportedFieldsAreRejected() {
+    assertThatThrownBy(() -> new MetadataNodeGroup(ImmutableList.of("user_agent_name")))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> new MetadataNodeGroup(ImmutableList.of("metadata.app..name")))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> new MetadataNodeGroup(ImmutableList.of()))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
@@ -0,0 +1,63 @@
+package io.envoyproxy.controlplane.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class ResourceTypeMapTest {
+
+  private static final String OTHER_TYPE_URL = "type.googleapis.com/envoy.api.v2.Other";
+
+  @Test
+  public void knownAndOtherTypesAreMapped() {
+    ResourceTypeMap<String> map = new ResourceTypeMap<>();
+
+    assertThat(map.get(ResourceType.ROUTE)).isNull();
+    assertThat(map.values()).isEmpty();
+
+    assertThat(map.computeIfAbsent(null, OTHER_TYPE_URL, () -> "other")).isEqualTo("other");
+    assertThat(map.computeIfAbsent(ResourceType.ROUTE, Resources.ROUTE_TYPE_URL, () -> "route")).isEqualTo("route");
+    assertThat(map.computeIfAbsent(ResourceType.CLUSTER, Resources.CLUSTER_TYPE_URL, () -> "cluster"))
+        .isEqualTo("cluster");
+    assertThat(map.computeIfAbsent(ResourceType.CLUSTER, Resources.CLUSTER_TYPE_URL, () -> "ignored"))
+        .isEqualTo("cluster");
+
+    // Type URLs that are not known to the cache are matched by value, not by identity.
+    assertThat(map.computeIfAbsent(null, new String(OTHER_TYPE_URL), () -> "ignored")).isEqualTo("other");
+
+    assertThat(map.get(ResourceType.CLUSTER)).isEqualTo("cluster");
+    assertThat(map.values()).containsExactly("cluster", "route", "other");
+  }
+
+  @Test
+  public void computeIfAbsentInvokesTheSupplierOnce() throws Exception {
+    ResourceTypeMap<Integer> map = new ResourceTypeMap<>();
+    AtomicInteger invocations = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+
+      for (int i = 0; i < 1000; i++) {
+        futures.add(executor.submit(() -> map.computeIfAbsent(ResourceType.CLUSTER, Resources.CLUSTER_TYPE_URL,
+            invocations::incrementAndGet)));
+      }
+
+      for (Future<?> future : futures) {
+        future.get(1, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(invocations).hasValue(1);
+    assertThat(map.get(ResourceType.CLUSTER)).isEqualTo(1);
+  }
+}
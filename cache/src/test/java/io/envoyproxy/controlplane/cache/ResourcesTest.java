@@ -15,6 +15,9 @@ import io.envoyproxy.envoy.api.v2.Cluster.EdsClusterConfig;
 import io.envoyproxy.envoy.api.v2.ClusterLoadAssignment;
 import io.envoyproxy.envoy.api.v2.Listener;
 import io.envoyproxy.envoy.api.v2.RouteConfiguration;
+import io.envoyproxy.envoy.api.v2.listener.Filter;
+import io.envoyproxy.envoy.config.filter.network.http_connection_manager.v2.HttpConnectionManager;
+import io.envoyproxy.envoy.config.filter.network.http_connection_manager.v2.Rds;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
@@ -85,4 +88,22 @@ public class ResourcesTest {
     cases.forEach((resources, refs) ->
         assertThat(Resources.getResourceReferences(resources)).containsExactlyElementsOf(refs));
   }
+
+  @Test
+  public void getResourceReferencesReadsRouteConfigNameFromTypedConfig() {
+    HttpConnectionManager manager = HttpConnectionManager.newBuilder()
+        .setStatPrefix("http")
+        .setRds(Rds.newBuilder().setRouteConfigName(ROUTE_NAME))
+        .build();
+
+    Listener listener = LISTENER.toBuilder()
+        .setFilterChains(0, LISTENER.getFilterChains(0).toBuilder()
+            .setFilters(0, Filter.newBuilder()
+                .setName(Resources.FILTER_HTTP_CONNECTION_MANAGER)
+                .setTypedConfig(Any.pack(manager))))
+        .build();
+
+    assertThat(listener.getFilterChains(0).getFilters(0).hasConfig()).isFalse();
+    assertThat(Resources.getResourceReferences(ImmutableList.of(listener))).containsExactly(ROUTE_NAME);
+  }
 }
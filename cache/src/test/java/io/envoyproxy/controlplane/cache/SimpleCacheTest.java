@@ -4,21 +4,35 @@ import static io.envoyproxy.controlplane.cache.Resources.ROUTE_TYPE_URL;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.protobuf.Message;
+import com.google.protobuf.UInt32Value;
 import io.envoyproxy.envoy.api.v2.Cluster;
 import io.envoyproxy.envoy.api.v2.ClusterLoadAssignment;
+import io.envoyproxy.envoy.api.v2.DeltaDiscoveryRequest;
 import io.envoyproxy.envoy.api.v2.DiscoveryRequest;
 import io.envoyproxy.envoy.api.v2.Listener;
 import io.envoyproxy.envoy.api.v2.RouteConfiguration;
 import io.envoyproxy.envoy.api.v2.auth.Secret;
 import io.envoyproxy.envoy.api.v2.core.Node;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
+import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import org.junit.Test;
@@ -416,6 +430,517 @@ public class SimpleCacheTest {
     assertThatWatchIsOpenWithNoResponses(new WatchAndTracker(watch, responseTracker));
   }
 
+  @Test
+  public void setSnapshotIsNotBlockedByResponsesToGroupInOtherStripe() throws Exception {
+    SimpleCache<String> cache = SimpleCache.builder(Node::getId).lockStripes(1024).build();
+
+    CountDownLatch responding = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    cache.createWatch(
+        ADS,
+        DiscoveryRequest.newBuilder()
+            .setNode(Node.newBuilder().setId("a"))
+            .setTypeUrl(Resources.CLUSTER_TYPE_URL)
+            .build(),
+        Collections.emptySet(),
+        r -> {
+          responding.countDown();
+          Uninterruptibles.awaitUninterruptibly(release);
+        });
+
+    final CompletableFuture<Void> slowUpdate = CompletableFuture.runAsync(() -> cache.setSnapshot("a", SNAPSHOT1));
+
+    assertThat(responding.await(1, TimeUnit.SECONDS)).isTrue();
+
+    // Group "b" maps to a different stripe, so neither its update nor its watches wait for group "a" to finish.
+    ResponseTracker responseTracker = new ResponseTracker();
+
+    Watch watch = cache.createWatch(
+        ADS,
+        DiscoveryRequest.newBuilder()
+            .setNode(Node.newBuilder().setId("b"))
+            .setTypeUrl(Resources.CLUSTER_TYPE_URL)
+            .build(),
+        Collections.emptySet(),
+        responseTracker);
+
+    CompletableFuture.runAsync(() -> cache.setSnapshot("b", SNAPSHOT1)).get(1, TimeUnit.SECONDS);
+
+    assertThatWatchReceivesSnapshot(new WatchAndTracker(watch, responseTracker), SNAPSHOT1);
+    assertThat(slowUpdate).isNotDone();
+
+    release.countDown();
+    slowUpdate.get(1, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void setSnapshotWithNotificationExecutorReturnsBeforeWatchesAreRespondedTo() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    SimpleCache<String> cache = SimpleCache.builder(new SingleNodeGroup()).notificationExecutor(executor).build();
+
+    try {
+      CountDownLatch responding = new CountDownLatch(1);
+      CountDownLatch release = new CountDownLatch(1);
+
+      cache.createWatch(
+          ADS,
+          DiscoveryRequest.newBuilder()
+              .setNode(Node.getDefaultInstance())
+              .setTypeUrl(Resources.CLUSTER_TYPE_URL)
+              .build(),
+          Collections.emptySet(),
+          r -> {
+            responding.countDown();
+            Uninterruptibles.awaitUninterruptibly(release);
+          });
+
+      // The caller is not blocked by the watch, which is responded to on the executor.
+      cache.setSnapshot(SingleNodeGroup.GROUP, SNAPSHOT1);
+
+      assertThat(responding.await(1, TimeUnit.SECONDS)).isTrue();
+
+      // Later updates of the same group wait for the previous ones to be applied.
+      CompletableFuture<Void> update = cache.setSnapshotAsync(SingleNodeGroup.GROUP, SNAPSHOT2);
+
+      assertThat(update).isNotDone();
+      assertThat(cache.getSnapshot(SingleNodeGroup.GROUP)).isEqualTo(SNAPSHOT1);
+
+      release.countDown();
+      update.get(1, TimeUnit.SECONDS);
+
+      assertThat(cache.getSnapshot(SingleNodeGroup.GROUP)).isEqualTo(SNAPSHOT2);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void deltaWatchRespondsWithAllResourcesOnInitialWildcardRequest() {
+    SimpleCache<String> cache = new SimpleCache<>(new SingleNodeGroup());
+
+    cache.setSnapshot(SingleNodeGroup.GROUP, MULTIPLE_RESOURCES_SNAPSHOT2);
+
+    DeltaResponseTracker responseTracker = new DeltaResponseTracker();
+
+    DeltaWatch watch = cache.createDeltaWatch(
+        DeltaDiscoveryRequest.newBuilder()
+            .setNode(Node.getDefaultInstance())
+            .setTypeUrl(Resources.CLUSTER_TYPE_URL)
+            .build(),
+        Collections.emptyMap(),
+        Collections.emptySet(),
+        true,
+        responseTracker);
+
+    assertThat(watch.isCancelled()).isFalse();
+    assertThat(responseTracker.responses).hasSize(1);
+    assertThat(responseTracker.responses.getFirst().resources())
+        .containsOnlyKeys(CLUSTER_NAME, SECONDARY_CLUSTER_NAME);
+    assertThat(responseTracker.responses.getFirst().removedResources()).isEmpty();
+    assertThat(responseTracker.responses.getFirst().version()).isEqualTo(VERSION2);
+  }
+
+  @Test
+  public void deltaWatchRespondsWithChangedAndRemovedResourcesOnly() {
+    SimpleCache<String> cache = new SimpleCache<>(new SingleNodeGroup());
+
+    cache.setSnapshot(SingleNodeGroup.GROUP, MULTIPLE_RESOURCES_SNAPSHOT2);
+
+    Map<String, String> resourceVersions = new HashMap<>();
+    MULTIPLE_RESOURCES_SNAPSHOT2.versionedResources(Resources.CLUSTER_TYPE_URL)
+        .forEach((name, resource) -> resourceVersions.put(name, resource.version()));
+    resourceVersions.put(SECONDARY_CLUSTER_NAME, "stale");
+    resourceVersions.put("removed", "version");
+
+    DeltaResponseTracker responseTracker = new DeltaResponseTracker();
+
+    DeltaWatch watch = cache.createDeltaWatch(
+        DeltaDiscoveryRequest.newBuilder()
+            .setNode(Node.getDefaultInstance())
+            .setTypeUrl(Resources.CLUSTER_TYPE_URL)
+            .setResponseNonce("0")
+            .build(),
+        resourceVersions,
+        Collections.emptySet(),
+        true,
+        responseTracker);
+
+    assertThat(watch.isCancelled()).isFalse();
+    assertThat(responseTracker.responses).hasSize(1);
+    assertThat(responseTracker.responses.getFirst().resources()).containsOnlyKeys(SECONDARY_CLUSTER_NAME);
+    assertThat(responseTracker.responses.getFirst().removedResources()).containsExactly("removed");
+  }
+
+  @Test
+  public void deltaWatchIsLeftOpenUntilSubscribedResourcesChange() {
+    SimpleCache<String> cache = new SimpleCache<>(new SingleNodeGroup());
+
+    cache.setSnapshot(SingleNodeGroup.GROUP, SNAPSHOT1);
+
+    Map<String, String> resourceVersions = new HashMap<>();
+    SNAPSHOT1.versionedResources(Resources.CLUSTER_TYPE_URL)
+        .forEach((name, resource) -> resourceVersions.put(name, resource.version()));
+
+    DeltaResponseTracker responseTracker = new DeltaResponseTracker();
+
+    final DeltaWatch watch = cache.createDeltaWatch(
+        DeltaDiscoveryRequest.newBuilder()
+            .setNode(Node.getDefaultInstance())
+            .setTypeUrl(Resources.CLUSTER_TYPE_URL)
+            .setResponseNonce("0")
+            .build(),
+        resourceVersions,
+        Collections.singleton(SECONDARY_CLUSTER_NAME),
+        false,
+        responseTracker);
+
+    assertThat(responseTracker.responses).isEmpty();
+
+    // Only the version of the snapshot changes, the subscribed resources don't.
+    cache.setSnapshot(SingleNodeGroup.GROUP, SNAPSHOT2);
+
+    assertThat(responseTracker.responses).isEmpty();
+
+    cache.setSnapshot(SingleNodeGroup.GROUP, MULTIPLE_RESOURCES_SNAPSHOT2);
+
+    assertThat(watch.isCancelled()).isFalse();
+    assertThat(responseTracker.responses).hasSize(1);
+    assertThat(responseTracker.responses.getFirst().resources()).containsOnlyKeys(SECONDARY_CLUSTER_NAME);
+    assertThat(cache.statusInfo(SingleNodeGroup.GROUP).numWatches()).isZero();
+  }
+
+  @Test
+  public void indexedWatchesAreOnlyRespondedToWhenRequestedResourcesChange() {
+    SimpleCache<String> cache = SimpleCache.builder(new SingleNodeGroup()).indexWatchesByResourceName(true).build();
+
+    ClusterLoadAssignment endpoint = ClusterLoadAssignment.newBuilder().setClusterName(CLUSTER_NAME).build();
+
+    cache.setSnapshot(SingleNodeGroup.GROUP, snapshotWithEndpoints(
+        endpoint,
+        ClusterLoadAssignment.newBuilder().setClusterName(SECONDARY_CLUSTER_NAME).build()));
+
+    ResponseTracker responseTracker = new ResponseTracker();
+    ResponseTracker secondaryResponseTracker = new ResponseTracker();
+
+    Snapshot snapshot = cache.getSnapshot(SingleNodeGroup.GROUP);
+
+    final Watch watch = cache.createWatch(
+        ADS,
+        DiscoveryRequest.newBuilder()
+            .setNode(Node.getDefaultInstance())
+            .setTypeUrl(Resources.ENDPOINT_TYPE_URL)
+            .setVersionInfo(snapshot.version(Resources.ENDPOINT_TYPE_URL, ImmutableList.of(CLUSTER_NAME)))
+            .addResourceNames(CLUSTER_NAME)
+            .build(),
+        Collections.singleton(CLUSTER_NAME),
+        responseTracker);
+
+    final Watch secondaryWatch = cache.createWatch(
+        ADS,
+        DiscoveryRequest.newBuilder()
+            .setNode(Node.getDefaultInstance())
+            .setTypeUrl(Resources.ENDPOINT_TYPE_URL)
+            .setVersionInfo(snapshot.version(Resources.ENDPOINT_TYPE_URL, ImmutableList.of(SECONDARY_CLUSTER_NAME)))
+            .addResourceNames(SECONDARY_CLUSTER_NAME)
+            .build(),
+        Collections.singleton(SECONDARY_CLUSTER_NAME),
+        secondaryResponseTracker);
+
+    assertThat(cache.statusInfo(SingleNodeGroup.GROUP).numWatches()).isEqualTo(2);
+
+    cache.setSnapshot(SingleNodeGroup.GROUP, snapshotWithEndpoints(
+        endpoint,
+        ClusterLoadAssignment.newBuilder().setClusterName(SECONDARY_CLUSTER_NAME)
+            .setPolicy(ClusterLoadAssignment.Policy.newBuilder().setOverprovisioningFactor(UInt32Value.of(200)))
+            .build()));
+
+    assertThatWatchIsOpenWithNoResponses(new WatchAndTracker(watch, responseTracker));
+    assertThat(secondaryResponseTracker.responses).hasSize(1);
+    assertThat(secondaryWatch.isCancelled()).isFalse();
+    assertThat(cache.statusInfo(SingleNodeGroup.GROUP).numWatches()).isEqualTo(1);
+  }
+
+  @Test
+  public void unchangedResourcesKeepTheirVersionWhenEnabled() {
+    SimpleCache<String> cache = SimpleCache.builder(new SingleNodeGroup())
+        .keepVersionsOfUnchangedResources(true)
+        .build();
+
+    cache.setSnapshot(SingleNodeGroup.GROUP, SNAPSHOT1);
+
+    ResponseTracker responseTracker = new ResponseTracker();
+
+    Watch watch = cache.createWatch(
+        ADS,
+        DiscoveryRequest.newBuilder()
+            .setNode(Node.getDefaultInstance())
+            .setTypeUrl(Resources.CLUSTER_TYPE_URL)
+            .setVersionInfo(VERSION1)
+            .build(),
+        Collections.emptySet(),
+        responseTracker);
+
+    // SNAPSHOT2 only differs from SNAPSHOT1 by its version.
+    cache.setSnapshot(SingleNodeGroup.GROUP, SNAPSHOT2);
+
+    assertThatWatchIsOpenWithNoResponses(new WatchAndTracker(watch, responseTracker));
+    assertThat(cache.getSnapshot(SingleNodeGroup.GROUP).version(Resources.CLUSTER_TYPE_URL)).isEqualTo(VERSION1);
+
+    cache.setSnapshot(SingleNodeGroup.GROUP, MULTIPLE_RESOURCES_SNAPSHOT2);
+
+    assertThatWatchReceivesSnapshot(new WatchAndTracker(watch, responseTracker), MULTIPLE_RESOURCES_SNAPSHOT2);
+    assertThat(cache.getSnapshot(SingleNodeGroup.GROUP).version(Resources.LISTENER_TYPE_URL)).isEqualTo(VERSION1);
+  }
+
+  @Test
+  public void sharedSnapshotIsSetForAllGroupsAndTracked() {
+    SimpleCache<String> cache = SimpleCache.builder(Node::getId)
+        .lockStripes(16)
+        .indexWatchesByResourceName(true)
+        .keepVersionsOfUnchangedResources(true)
+        .build();
+
+    cache.setSharedSnapshot(ImmutableList.of("a", "b"), SNAPSHOT1);
+
+    Map<String, WatchAndTracker> watches = new HashMap<>();
+
+    for (String group : ImmutableList.of("a", "b")) {
+      ResponseTracker responseTracker = new ResponseTracker();
+
+      Watch watch = cache.createWatch(
+          ADS,
+          DiscoveryRequest.newBuilder()
+              .setNode(Node.newBuilder().setId(group))
+              .setTypeUrl(Resources.CLUSTER_TYPE_URL)
+              .setVersionInfo(VERSION1)
+              .build(),
+          Collections.emptySet(),
+          responseTracker);
+
+      watches.put(group, new WatchAndTracker(watch, responseTracker));
+    }
+
+    assertThat(cache.groupsWithSnapshot(SNAPSHOT1)).containsExactlyInAnyOrder("a", "b");
+
+    cache.setSharedSnapshot(ImmutableList.of("a", "b"), MULTIPLE_RESOURCES_SNAPSHOT2);
+
+    watches.values().forEach(w -> assertThatWatchReceivesSnapshot(w, MULTIPLE_RESOURCES_SNAPSHOT2));
+
+    // Both groups share the snapshot that keeps the unchanged resource types of their previous snapshot, and are still
+    // found by the snapshot that was set for them.
+    Snapshot shared = cache.getSnapshot("a");
+
+    assertThat(shared).isNotSameAs(MULTIPLE_RESOURCES_SNAPSHOT2);
+    assertThat(cache.getSnapshot("b")).isSameAs(shared);
+    assertThat(cache.groupsWithSnapshot(MULTIPLE_RESOURCES_SNAPSHOT2)).containsExactlyInAnyOrder("a", "b");
+    assertThat(cache.groupsWithSnapshot(shared)).isEmpty();
+    assertThat(cache.groupsWithSnapshot(SNAPSHOT1)).isEmpty();
+
+    cache.setSnapshot("a", SNAPSHOT1);
+
+    assertThat(cache.groupsWithSnapshot(MULTIPLE_RESOURCES_SNAPSHOT2)).containsExactly("b");
+    assertThat(cache.groupsWithSnapshot(SNAPSHOT1)).containsExactly("a");
+    assertThat(cache.clearSnapshot("b")).isTrue();
+    assertThat(cache.groupsWithSnapshot(MULTIPLE_RESOURCES_SNAPSHOT2)).isEmpty();
+  }
+
+  @Test
+  public void setSnapshotsSetsAllGroupsAndRespondsToTheirWatches() throws Exception {
+    SimpleCache<String> cache = new SimpleCache<>(Node::getId);
+
+    cache.setSnapshots(ImmutableMap.of("a", SNAPSHOT1, "b", SNAPSHOT1)).get(1, TimeUnit.SECONDS);
+
+    Map<String, WatchAndTracker> watches = new HashMap<>();
+
+    for (String group : ImmutableList.of("a", "b")) {
+      ResponseTracker responseTracker = new ResponseTracker();
+
+      Watch watch = cache.createWatch(
+          ADS,
+          DiscoveryRequest.newBuilder()
+              .setNode(Node.newBuilder().setId(group))
+              .setTypeUrl(Resources.CLUSTER_TYPE_URL)
+              .setVersionInfo(VERSION1)
+              .build(),
+          Collections.emptySet(),
+          responseTracker);
+
+      watches.put(group, new WatchAndTracker(watch, responseTracker));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Map<String, Throwable> errors = cache
+          .setSnapshots(ImmutableMap.of("a", SNAPSHOT2, "b", MULTIPLE_RESOURCES_SNAPSHOT2), executor)
+          .get(1, TimeUnit.SECONDS);
+
+      assertThat(errors).isEmpty();
+    } finally {
+      executor.shutdown();
+    }
+
+    assertThat(cache.getSnapshot("a")).isEqualTo(SNAPSHOT2);
+    assertThat(cache.getSnapshot("b")).isEqualTo(MULTIPLE_RESOURCES_SNAPSHOT2);
+    assertThatWatchReceivesSnapshot(watches.get("a"), SNAPSHOT2);
+    assertThatWatchReceivesSnapshot(watches.get("b"), MULTIPLE_RESOURCES_SNAPSHOT2);
+  }
+
+  @Test
+  public void setSnapshotsRespondsToGroupsInDifferentStripesConcurrently() throws Exception {
+    SimpleCache<String> cache = SimpleCache.builder(Node::getId).lockStripes(1024).build();
+
+    cache.setSnapshots(ImmutableMap.of("a", SNAPSHOT1, "b", SNAPSHOT1)).get(1, TimeUnit.SECONDS);
+
+    CountDownLatch respondedToB = new CountDownLatch(1);
+    AtomicBoolean respondedToBWhileRespondingToA = new AtomicBoolean();
+
+    // The response to group "a" waits for the response to group "b", which maps to a different stripe.
+    cache.createWatch(
+        ADS,
+        DiscoveryRequest.newBuilder()
+            .setNode(Node.newBuilder().setId("a"))
+            .setTypeUrl(Resources.CLUSTER_TYPE_URL)
+            .setVersionInfo(VERSION1)
+            .build(),
+        Collections.emptySet(),
+        r -> respondedToBWhileRespondingToA.set(
+            Uninterruptibles.awaitUninterruptibly(respondedToB, 1, TimeUnit.SECONDS)));
+
+    cache.createWatch(
+        ADS,
+        DiscoveryRequest.newBuilder()
+            .setNode(Node.newBuilder().setId("b"))
+            .setTypeUrl(Resources.CLUSTER_TYPE_URL)
+            .setVersionInfo(VERSION1)
+            .build(),
+        Collections.emptySet(),
+        r -> respondedToB.countDown());
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Map<String, Throwable> errors = cache
+          .setSnapshots(ImmutableMap.of("a", SNAPSHOT2, "b", SNAPSHOT2), executor)
+          .get(2, TimeUnit.SECONDS);
+
+      assertThat(errors).isEmpty();
+    } finally {
+      executor.shutdown();
+    }
+
+    assertThat(respondedToBWhileRespondingToA).isTrue();
+  }
+
+  @Test
+  public void setSnapshotsIsAppliedAfterUpdatesQueuedBefore() throws Exception {
+    Queue<Runnable> tasks = new ArrayDeque<>();
+    SimpleCache<String> cache = SimpleCache.builder(Node::getId).notificationExecutor(tasks::add).build();
+
+    CompletableFuture<Void> queued = cache.setSnapshotAsync("a", SNAPSHOT1);
+    CompletableFuture<Map<String, Throwable>> batch = cache.setSnapshots(
+        ImmutableMap.of("a", SNAPSHOT2),
+        MoreExecutors.directExecutor());
+
+    while (!tasks.isEmpty()) {
+      tasks.poll().run();
+    }
+
+    assertThat(queued).isDone();
+    assertThat(batch.get(1, TimeUnit.SECONDS)).isEmpty();
+    assertThat(cache.getSnapshot("a")).isEqualTo(SNAPSHOT2);
+  }
+
+  @Test
+  public void setSnapshotAfterBatchRespondsToChangesOfTheBatch() {
+    SimpleCache<String> cache = SimpleCache.builder(new SingleNodeGroup()).indexWatchesByResourceName(true).build();
+
+    ClusterLoadAssignment endpoint = ClusterLoadAssignment.newBuilder().setClusterName(CLUSTER_NAME).build();
+    ClusterLoadAssignment modifiedEndpoint = endpoint.toBuilder()
+        .setPolicy(ClusterLoadAssignment.Policy.newBuilder().setOverprovisioningFactor(UInt32Value.of(200)))
+        .build();
+    ClusterLoadAssignment secondaryEndpoint = ClusterLoadAssignment.newBuilder()
+        .setClusterName(SECONDARY_CLUSTER_NAME)
+        .build();
+
+    cache.setSnapshot(SingleNodeGroup.GROUP, snapshotWithEndpoints(endpoint, secondaryEndpoint));
+
+    ResponseTracker responseTracker = new ResponseTracker();
+
+    cache.createWatch(
+        ADS,
+        DiscoveryRequest.newBuilder()
+            .setNode(Node.getDefaultInstance())
+            .setTypeUrl(Resources.ENDPOINT_TYPE_URL)
+            .setVersionInfo(cache.getSnapshot(SingleNodeGroup.GROUP)
+                .version(Resources.ENDPOINT_TYPE_URL, ImmutableList.of(CLUSTER_NAME)))
+            .addResourceNames(CLUSTER_NAME)
+            .build(),
+        Collections.singleton(CLUSTER_NAME),
+        responseTracker);
+
+    // The batch modifies the watched endpoint, but its response is held back until the next update is set.
+    Queue<Runnable> batchResponses = new ArrayDeque<>();
+    cache.setSnapshots(
+        ImmutableMap.of(SingleNodeGroup.GROUP, snapshotWithEndpoints(modifiedEndpoint, secondaryEndpoint)),
+        batchResponses::add);
+
+    cache.setSnapshot(SingleNodeGroup.GROUP, snapshotWithEndpoints(
+        modifiedEndpoint,
+        secondaryEndpoint.toBuilder()
+            .setPolicy(ClusterLoadAssignment.Policy.newBuilder().setOverprovisioningFactor(UInt32Value.of(200)))
+            .build()));
+
+    assertThat(responseTracker.responses).hasSize(1);
+    assertThat(responseTracker.responses.getFirst().resources().toArray(new Message[0]))
+        .containsExactly(modifiedEndpoint);
+
+    batchResponses.forEach(Runnable::run);
+
+    assertThat(responseTracker.responses).hasSize(1);
+  }
+
+  @Test
+  public void responsesShareResourceNames() {
+    SimpleCache<String> cache = new SimpleCache<>(Node::getId);
+
+    cache.setSnapshot("a", MULTIPLE_RESOURCES_SNAPSHOT2);
+    cache.setSnapshot("b", MULTIPLE_RESOURCES_SNAPSHOT2);
+
+    ResponseTracker responseTracker = new ResponseTracker();
+
+    for (String group : ImmutableList.of("a", "b")) {
+      cache.createWatch(
+          ADS,
+          DiscoveryRequest.newBuilder()
+              .setNode(Node.newBuilder().setId(group))
+              .setTypeUrl(Resources.CLUSTER_TYPE_URL)
+              .build(),
+          Collections.emptySet(),
+          responseTracker);
+
+      cache.createWatch(
+          ADS,
+          DiscoveryRequest.newBuilder()
+              .setNode(Node.newBuilder().setId(group))
+              .setTypeUrl(Resources.ENDPOINT_TYPE_URL)
+              .addResourceNames(SECONDARY_CLUSTER_NAME)
+              .build(),
+          Collections.emptySet(),
+          responseTracker);
+    }
+
+    assertThat(responseTracker.responses).hasSize(4);
+
+    Response clustersA = responseTracker.responses.get(0);
+    Response endpointsA = responseTracker.responses.get(1);
+    Response endpointsB = responseTracker.responses.get(3);
+
+    assertThat(clustersA.resourceNames()).containsExactlyInAnyOrder(CLUSTER_NAME, SECONDARY_CLUSTER_NAME);
+    assertThat(responseTracker.responses.get(2).resourceNames()).isSameAs(clustersA.resourceNames());
+    assertThat(endpointsA.resourceNames()).containsExactly(SECONDARY_CLUSTER_NAME);
+    assertThat(endpointsB.resourceNames()).isSameAs(endpointsA.resourceNames());
+  }
+
   @Test
   public void getSnapshot() {
     SimpleCache<String> cache = new SimpleCache<>(new SingleNodeGroup());
@@ -425,6 +950,31 @@ public class SimpleCacheTest {
     assertThat(cache.getSnapshot(SingleNodeGroup.GROUP)).isEqualTo(SNAPSHOT1);
   }
 
+  @Test
+  public void createWatchUsesPrecomputedGroup() {
+    SimpleCache<String> cache = new SimpleCache<>(Node::getId);
+
+    cache.setSnapshot("a", SNAPSHOT1);
+
+    assertThat(cache.group(Node.newBuilder().setId("a").build())).isEqualTo("a");
+
+    ResponseTracker responseTracker = new ResponseTracker();
+
+    // Proxies may only send their node on the first request of a stream, which the group was computed from.
+    cache.createWatch(
+        ADS,
+        DiscoveryRequest.newBuilder().setTypeUrl(Resources.CLUSTER_TYPE_URL).build(),
+        ResourceType.CLUSTER,
+        "a",
+        Collections.emptySet(),
+        responseTracker,
+        false);
+
+    assertThat(responseTracker.responses).hasSize(1);
+    assertThat(responseTracker.responses.get(0).version()).isEqualTo(VERSION1);
+    assertThat(cache.statusInfo("")).isNull();
+  }
+
   @Test
   public void clearSnapshot() {
     SimpleCache<String> cache = new SimpleCache<>(new SingleNodeGroup());
@@ -462,6 +1012,26 @@ public class SimpleCacheTest {
     assertThat(cache.statusInfo(SingleNodeGroup.GROUP)).isNull();
   }
 
+  @Test
+  public void clearSnapshotsSkipsGroupsWithWatches() {
+    SimpleCache<String> cache = new SimpleCache<>(Node::getId);
+
+    cache.setSnapshot("a", SNAPSHOT1);
+    cache.setSnapshot("b", SNAPSHOT1);
+
+    cache.createWatch(ADS, DiscoveryRequest.newBuilder()
+            .setNode(Node.newBuilder().setId("b"))
+            .setTypeUrl(Resources.CLUSTER_TYPE_URL)
+            .setVersionInfo(VERSION1)
+            .build(),
+        Collections.emptySet(),
+        r -> { });
+
+    assertThat(cache.clearSnapshots(ImmutableList.of("a", "b", "c"))).containsExactly("a", "c");
+    assertThat(cache.getSnapshot("a")).isNull();
+    assertThat(cache.getSnapshot("b")).isEqualTo(SNAPSHOT1);
+  }
+
   @Test
   public void groups() {
     SimpleCache<String> cache = new SimpleCache<>(new SingleNodeGroup());
@@ -478,6 +1048,24 @@ public class SimpleCacheTest {
     assertThat(cache.groups()).containsExactly(SingleNodeGroup.GROUP);
   }
 
+  private static Snapshot snapshotWithEndpoints(ClusterLoadAssignment... endpoints) {
+    // Versions every endpoint by its own content, so that only the watches of modified endpoints see a new version.
+    ResourceVersionResolver endpointVersionResolver = names -> names.stream()
+        .map(name -> Arrays.stream(endpoints)
+            .filter(e -> e.getClusterName().equals(name))
+            .map(Resources::getResourceVersion)
+            .findFirst()
+            .orElse(""))
+        .collect(Collectors.joining(","));
+
+    return Snapshot.create(
+        ImmutableList.of(), names -> VERSION1,
+        ImmutableList.copyOf(endpoints), endpointVersionResolver,
+        ImmutableList.of(), names -> VERSION1,
+        ImmutableList.of(), names -> VERSION1,
+        ImmutableList.of(), names -> VERSION1);
+  }
+
   private static void assertThatWatchIsOpenWithNoResponses(WatchAndTracker watchAndTracker) {
     assertThat(watchAndTracker.watch.isCancelled()).isFalse();
     assertThat(watchAndTracker.tracker.responses).isEmpty();
@@ -505,6 +1093,16 @@ public class SimpleCacheTest {
 
   }
 
+  private static class DeltaResponseTracker implements Consumer<DeltaResponse> {
+
+    private final LinkedList<DeltaResponse> responses = new LinkedList<>();
+
+    @Override
+    public void accept(DeltaResponse response) {
+      responses.add(response);
+    }
+  }
+
   private static class ResponseOrderTracker implements Consumer<Response> {
 
     private final LinkedList<String> responseTypes = new LinkedList<>();
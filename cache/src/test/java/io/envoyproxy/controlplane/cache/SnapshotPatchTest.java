@@ -0,0 +1,92 @@
+package io.envoyproxy.controlplane.cache;
+
+import static io.envoyproxy.controlplane.cache.Resources.CLUSTER_TYPE_URL;
+import static io.envoyproxy.controlplane.cache.Resources.ENDPOINT_TYPE_URL;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+import com.google.common.collect.ImmutableList;
+import io.envoyproxy.envoy.api.v2.Cluster;
+import io.envoyproxy.envoy.api.v2.ClusterLoadAssignment;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class SnapshotPatchTest {
+
+  private static final Cluster CLUSTER0 = TestResources.createCluster("cluster0");
+  private static final Cluster CLUSTER1 = TestResources.createCluster("cluster1");
+  private static final ClusterLoadAssignment ENDPOINT0 = TestResources.createEndpoint("cluster0", 1234);
+  private static final ClusterLoadAssignment ENDPOINT1 = TestResources.createEndpoint("cluster1", 1234);
+
+  private static final Snapshot SNAPSHOT = Snapshot.create(
+      ImmutableList.of(CLUSTER0),
+      ImmutableList.of(ENDPOINT0),
+      ImmutableList.of(),
+      ImmutableList.of(),
+      ImmutableList.of(),
+      "1");
+
+  @Test
+  public void applyAddsAndRemovesResourcesOfChangedTypes() {
+    Snapshot patched = SNAPSHOT.patch()
+        .put(ENDPOINT1)
+        .remove(ENDPOINT_TYPE_URL, "cluster0")
+        .apply("2");
+
+    assertThat(patched.endpoints().resources()).containsOnlyKeys("cluster1");
+    assertThat(patched.version(ENDPOINT_TYPE_URL)).isEqualTo("2");
+
+    // Types without changes are shared with the previous snapshot.
+    assertThat(patched.clusters()).isSameAs(SNAPSHOT.clusters());
+    assertThat(patched.version(CLUSTER_TYPE_URL)).isEqualTo("1");
+
+    assertThat(SNAPSHOT.endpoints().resources()).containsOnlyKeys("cluster0");
+  }
+
+  @Test
+  public void laterChangesToTheSameResourceWin() {
+    Cluster modified = CLUSTER1.toBuilder().setType(Cluster.DiscoveryType.STATIC).build();
+
+    Snapshot patched = SNAPSHOT.patch()
+        .put(CLUSTER1)
+        .remove(CLUSTER_TYPE_URL, "cluster1")
+        .remove(CLUSTER_TYPE_URL, "cluster0")
+        .put(CLUSTER0)
+        .put(modified)
+        .apply("2");
+
+    assertThat(patched.clusters().resources()).containsExactly(
+        entry("cluster0", CLUSTER0),
+        entry("cluster1", modified));
+  }
+
+  @Test
+  public void successivePatchesMatchRebuiltSnapshot() {
+    Map<String, Cluster> expected = new LinkedHashMap<>();
+    Snapshot snapshot = Snapshot.createWithContentVersions(
+        ImmutableList.of(), ImmutableList.of(), ImmutableList.of(), ImmutableList.of(), ImmutableList.of());
+
+    // Enough changes for the accumulated patches to be flattened several times.
+    for (int i = 0; i < 200; i++) {
+      Cluster cluster = TestResources.createCluster("cluster" + (i % 50), "127.0.0.1", 1000 + i);
+      SnapshotPatch patch = snapshot.patch().put(cluster);
+      expected.put(Resources.getResourceName(cluster), cluster);
+
+      if (i % 7 == 0) {
+        patch.remove(CLUSTER_TYPE_URL, "cluster" + (i % 11));
+        expected.remove("cluster" + (i % 11));
+      }
+
+      snapshot = patch.applyWithContentVersions();
+    }
+
+    Snapshot rebuilt = Snapshot.createWithContentVersions(
+        expected.values(), ImmutableList.of(), ImmutableList.of(), ImmutableList.of(), ImmutableList.of());
+
+    assertThat(snapshot.clusters().resources()).isEqualTo(expected).hasSize(expected.size());
+    assertThat(snapshot.version(CLUSTER_TYPE_URL)).isEqualTo(rebuilt.version(CLUSTER_TYPE_URL));
+    assertThat(snapshot.version(CLUSTER_TYPE_URL, ImmutableList.of("cluster3", "cluster4")))
+        .isEqualTo(rebuilt.version(CLUSTER_TYPE_URL, ImmutableList.of("cluster3", "cluster4")));
+  }
+}
@@ -6,6 +6,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 
 import io.envoyproxy.envoy.api.v2.Cluster;
+import java.util.ArrayList;
 import java.util.Map;
 import java.util.UUID;
 import org.junit.Test;
@@ -63,4 +64,57 @@ public class SnapshotResourcesTest {
     // when multiple resource names are provided, the aggregated version should be returned
     assertThat(snapshot.version(ImmutableList.of(CLUSTER1_NAME, CLUSTER1_NAME))).isEqualTo(aggregateVersion);
   }
+
+  @Test
+  public void createWithContentVersionsSharesVersionsWithVersionedResources() {
+    SnapshotResources<Cluster> snapshot = SnapshotResources.createWithContentVersions(
+        ImmutableList.of(CLUSTER0, CLUSTER1));
+
+    assertThat(snapshot.resourceVersionResolver()).isInstanceOf(ContentHashVersionResolver.class);
+    assertThat(snapshot.versionedResources().get(CLUSTER0_NAME).version())
+        .isEqualTo(Resources.getResourceVersion(CLUSTER0));
+    assertThat(snapshot.version())
+        .isEqualTo(SnapshotResources.createWithContentVersions(ImmutableList.of(CLUSTER1, CLUSTER0)).version());
+  }
+
+  @Test
+  public void filteredResourcesAreMemoizedByRequestedNames() {
+    SnapshotResources<Cluster> snapshot = SnapshotResources.create(
+        ImmutableList.of(CLUSTER0, CLUSTER1),
+        resourceNames -> String.join(",", resourceNames));
+
+    SnapshotResources.Filtered<Cluster> filtered = snapshot.filtered(ImmutableList.of(CLUSTER1_NAME, "missing"));
+
+    assertThat(filtered.resources()).containsExactly(CLUSTER1);
+    assertThat(filtered.resourceNames()).containsExactly(CLUSTER1_NAME);
+    assertThat(filtered.version()).isEqualTo(CLUSTER1_NAME + ",missing");
+
+    // Equal lists of names share the filtered resources, while other lists are filtered separately.
+    assertThat(snapshot.filtered(new ArrayList<>(ImmutableList.of(CLUSTER1_NAME, "missing")))).isSameAs(filtered);
+    assertThat(snapshot.filtered(ImmutableList.of(CLUSTER0_NAME)).resources()).containsExactly(CLUSTER0);
+  }
+
+  @Test
+  public void filteredResourcesOfRecentlyRequestedNamesStayMemoized() {
+    SnapshotResources<Cluster> snapshot = SnapshotResources.create(ImmutableList.of(CLUSTER0, CLUSTER1), "1");
+
+    SnapshotResources.Filtered<Cluster> filtered = snapshot.filtered(ImmutableList.of(CLUSTER0_NAME));
+
+    // Lists of names that keep being requested are not evicted by the many others requested in between.
+    for (int i = 0; i < 4096; i++) {
+      snapshot.filtered(ImmutableList.of(CLUSTER1_NAME, Integer.toString(i)));
+
+      assertThat(snapshot.filtered(ImmutableList.of(CLUSTER0_NAME))).isSameAs(filtered);
+    }
+
+    assertThat(snapshot.memoizedFilters().size()).isLessThanOrEqualTo(1024);
+  }
+
+  @Test
+  public void resourceReferencesAreExtractedOncePerCollection() {
+    SnapshotResources<Cluster> clusters = SnapshotResources.create(ImmutableList.of(CLUSTER0, CLUSTER1), "1");
+
+    assertThat(clusters.resourceReferences()).containsExactlyInAnyOrder(CLUSTER0_NAME, CLUSTER1_NAME);
+    assertThat(clusters.resourceReferences()).isSameAs(clusters.resourceReferences());
+  }
 }
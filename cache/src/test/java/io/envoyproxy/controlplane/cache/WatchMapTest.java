@@ -0,0 +1,105 @@
+package io.envoyproxy.controlplane.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.primitives.Longs;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.Test;
+
+public class WatchMapTest {
+
+  @Test
+  public void putGetAndRemoveAcrossResizes() {
+    WatchMap<String> map = new WatchMap<>();
+
+    for (long id = 0; id < 1000; id++) {
+      map.put(id, "watch" + id);
+    }
+
+    for (long id = 0; id < 1000; id += 2) {
+      assertThat(map.remove(id)).isEqualTo("watch" + id);
+    }
+
+    assertThat(map.size()).isEqualTo(500);
+    assertThat(map.get(2)).isNull();
+    String watch3 = map.get(3);
+
+    assertThat(watch3).isEqualTo("watch3");
+    assertThat(map.remove(3, "other")).isFalse();
+    assertThat(map.remove(3, watch3)).isTrue();
+    assertThat(map.ids()).hasSize(499).doesNotContain(3L);
+  }
+
+  @Test
+  public void removeIfToleratesChangesByTheFilter() {
+    WatchMap<String> map = new WatchMap<>();
+
+    for (long id = 0; id < 10; id++) {
+      map.put(id, "watch" + id);
+    }
+
+    List<Long> visited = new ArrayList<>();
+    Set<Long> removedByFilter = new HashSet<>();
+
+    map.removeIf((id, watch) -> {
+      visited.add(id);
+
+      // Removes another watch, and grows the table so that it is replaced while visiting.
+      if (map.remove(9 - id) != null) {
+        removedByFilter.add(9 - id);
+      }
+
+      for (long added = 1000; added < 1100; added++) {
+        map.put(added + id * 1000, "added");
+      }
+
+      return true;
+    });
+
+    assertThat(visited).doesNotHaveDuplicates().doesNotContainAnyElementsOf(removedByFilter);
+    assertThat(Longs.asList(map.ids()))
+        .doesNotContainAnyElementsOf(visited)
+        .doesNotContainAnyElementsOf(removedByFilter);
+    assertThat(visited.size() + removedByFilter.size()).isGreaterThanOrEqualTo(10);
+  }
+
+  @Test
+  public void removeIfBlocksOtherThreadsUntilDone() throws Exception {
+    WatchMap<String> map = new WatchMap<>();
+    map.put(1, "watch1");
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    try {
+      List<Future<?>> puts = new ArrayList<>();
+
+      map.removeIf((id, watch) -> {
+        // Another thread can only use the map once all watches were visited.
+        puts.add(executor.submit(() -> map.put(2, "watch2")));
+
+        try {
+          puts.get(0).get(100, TimeUnit.MILLISECONDS);
+          throw new AssertionError("put while visiting");
+        } catch (TimeoutException e) {
+          return true;
+        } catch (Exception e) {
+          throw new AssertionError(e);
+        }
+      });
+
+      puts.get(0).get(1, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(Longs.asList(map.ids())).containsExactly(2L);
+  }
+}
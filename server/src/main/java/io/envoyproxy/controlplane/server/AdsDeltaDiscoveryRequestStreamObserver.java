@@ -0,0 +1,52 @@
+package io.envoyproxy.controlplane.server;
+
+import static io.envoyproxy.controlplane.server.DiscoveryServer.ANY_TYPE_URL;
+
+import io.envoyproxy.controlplane.cache.Resources;
+import io.envoyproxy.envoy.api.v2.DeltaDiscoveryRequest;
+import io.envoyproxy.envoy.api.v2.DeltaDiscoveryResponse;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+/**
+ * {@code AdsDeltaDiscoveryRequestStreamObserver} is an implementation of {@link DeltaDiscoveryRequestStreamObserver}
+ * tailored for incremental ADS streams, which handle subscriptions for all TYPE_URLS.
+ */
+public class AdsDeltaDiscoveryRequestStreamObserver extends DeltaDiscoveryRequestStreamObserver {
+  private final ConcurrentMap<String, DeltaSubscriptionState> subscriptionStates;
+
+  AdsDeltaDiscoveryRequestStreamObserver(StreamObserver<DeltaDiscoveryResponse> responseObserver,
+                                         long streamId,
+                                         Executor executor,
+                                         DiscoveryServer discoveryServer) {
+    super(ANY_TYPE_URL, responseObserver, streamId, executor, discoveryServer);
+    this.subscriptionStates = new ConcurrentHashMap<>(Resources.TYPE_URLS.size());
+  }
+
+  @Override
+  public void onNext(DeltaDiscoveryRequest request) {
+    if (request.getTypeUrl().isEmpty()) {
+      closeWithError(
+          Status.UNKNOWN
+              .withDescription(String.format("[%d] type URL is required for ADS", streamId))
+              .asRuntimeException());
+
+      return;
+    }
+
+    super.onNext(request);
+  }
+
+  @Override
+  void cancel() {
+    subscriptionStates.values().forEach(DeltaSubscriptionState::cancel);
+  }
+
+  @Override
+  DeltaSubscriptionState subscriptionState(String typeUrl) {
+    return subscriptionStates.computeIfAbsent(typeUrl, s -> new DeltaSubscriptionState());
+  }
+}
@@ -2,7 +2,7 @@ package io.envoyproxy.controlplane.server;
 
 import static io.envoyproxy.controlplane.server.DiscoveryServer.ANY_TYPE_URL;
 
-import io.envoyproxy.controlplane.cache.Resources;
+import io.envoyproxy.controlplane.cache.ResourceType;
 import io.envoyproxy.controlplane.cache.Watch;
 import io.envoyproxy.envoy.api.v2.DiscoveryRequest;
 import io.envoyproxy.envoy.api.v2.DiscoveryResponse;
@@ -13,6 +13,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.Supplier;
 
 /**
@@ -20,18 +21,18 @@ import java.util.function.Supplier;
  * ADS streams, which handle multiple watches for all TYPE_URLS.
  */
 public class AdsDiscoveryRequestStreamObserver extends DiscoveryRequestStreamObserver {
-  private final ConcurrentMap<String, Watch> watches;
-  private final ConcurrentMap<String, LatestDiscoveryResponse> latestResponse;
-  private final ConcurrentMap<String, Set<String>> ackedResources;
+  // Per-type state is kept in an array indexed by resource type, rather than in hash maps keyed by type URL. Types that
+  // are not known to the cache are kept in a map, which does not allocate its table until such a type is requested.
+  private final AtomicReferenceArray<TypeState> knownTypes;
+  private final ConcurrentMap<String, TypeState> otherTypes;
 
   AdsDiscoveryRequestStreamObserver(StreamObserver<DiscoveryResponse> responseObserver,
                                     long streamId,
                                     Executor executor,
                                     DiscoveryServer discoveryServer) {
     super(ANY_TYPE_URL, responseObserver, streamId, executor, discoveryServer);
-    this.watches = new ConcurrentHashMap<>(Resources.TYPE_URLS.size());
-    this.latestResponse = new ConcurrentHashMap<>(Resources.TYPE_URLS.size());
-    this.ackedResources = new ConcurrentHashMap<>(Resources.TYPE_URLS.size());
+    this.knownTypes = new AtomicReferenceArray<>(ResourceType.count());
+    this.otherTypes = new ConcurrentHashMap<>();
   }
 
   @Override
@@ -50,7 +51,15 @@ public class AdsDiscoveryRequestStreamObserver extends DiscoveryRequestStreamObs
 
   @Override
   void cancel() {
-    watches.values().forEach(Watch::cancel);
+    for (int i = 0; i < knownTypes.length(); i++) {
+      TypeState state = knownTypes.get(i);
+
+      if (state != null) {
+        state.cancel();
+      }
+    }
+
+    otherTypes.values().forEach(TypeState::cancel);
   }
 
   @Override
@@ -59,38 +68,70 @@ public class AdsDiscoveryRequestStreamObserver extends DiscoveryRequestStreamObs
   }
 
   @Override
-  LatestDiscoveryResponse latestResponse(String typeUrl) {
-    return latestResponse.get(typeUrl);
+  LatestDiscoveryResponse latestResponse(String typeUrl, ResourceType type) {
+    return state(typeUrl, type).latestResponse;
   }
 
   @Override
-  void setLatestResponse(String typeUrl, LatestDiscoveryResponse response) {
-    latestResponse.put(typeUrl, response);
-    if (typeUrl.equals(Resources.CLUSTER_TYPE_URL)) {
+  void setLatestResponse(String typeUrl, ResourceType type, LatestDiscoveryResponse response) {
+    state(typeUrl, type).latestResponse = response;
+
+    if (type == ResourceType.CLUSTER) {
       hasClusterChanged = true;
-    } else if (typeUrl.equals(Resources.ENDPOINT_TYPE_URL)) {
+    } else if (type == ResourceType.ENDPOINT) {
       hasClusterChanged = false;
     }
   }
 
   @Override
-  Set<String> ackedResources(String typeUrl) {
-    return ackedResources.getOrDefault(typeUrl, Collections.emptySet());
+  Set<String> ackedResources(String typeUrl, ResourceType type) {
+    return state(typeUrl, type).ackedResources;
   }
 
   @Override
-  void setAckedResources(String typeUrl, Set<String> resources) {
-    ackedResources.put(typeUrl, resources);
+  void setAckedResources(String typeUrl, ResourceType type, Set<String> resources) {
+    state(typeUrl, type).ackedResources = resources;
   }
 
   @Override
-  void computeWatch(String typeUrl, Supplier<Watch> watchCreator) {
-    watches.compute(typeUrl, (s, watch) -> {
+  void computeWatch(String typeUrl, ResourceType type, Supplier<Watch> watchCreator) {
+    state(typeUrl, type).computeWatch(watchCreator);
+  }
+
+  private TypeState state(String typeUrl, ResourceType type) {
+    if (type == null) {
+      return otherTypes.computeIfAbsent(typeUrl, t -> new TypeState());
+    }
+
+    TypeState state = knownTypes.get(type.ordinal());
+
+    if (state == null) {
+      knownTypes.compareAndSet(type.ordinal(), null, new TypeState());
+      state = knownTypes.get(type.ordinal());
+    }
+
+    return state;
+  }
+
+  /**
+   * The state of the stream for a single resource type.
+   */
+  private static final class TypeState {
+
+    private volatile LatestDiscoveryResponse latestResponse;
+    private volatile Set<String> ackedResources = Collections.emptySet();
+    private Watch watch;
+
+    // The previous watch is cancelled before its replacement is created.
+    synchronized void computeWatch(Supplier<Watch> watchCreator) {
+      cancel();
+      watch = watchCreator.get();
+    }
+
+    synchronized void cancel() {
       if (watch != null) {
         watch.cancel();
       }
-
-      return watchCreator.get();
-    });
+    }
   }
 }
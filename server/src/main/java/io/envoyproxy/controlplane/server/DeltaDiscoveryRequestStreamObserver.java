@@ -0,0 +1,291 @@
+package io.envoyproxy.controlplane.server;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.envoyproxy.controlplane.cache.DeltaResponse;
+import io.envoyproxy.controlplane.server.exception.RequestException;
+import io.envoyproxy.envoy.api.v2.DeltaDiscoveryRequest;
+import io.envoyproxy.envoy.api.v2.DeltaDiscoveryResponse;
+import io.envoyproxy.envoy.api.v2.Resource;
+import io.envoyproxy.envoy.api.v2.core.Node;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@code DeltaDiscoveryRequestStreamObserver} provides the base implementation for incremental XDS stream handling.
+ * Only resources that were added or changed since they were last sent, and the names of removed resources, are sent to
+ * the envoy.
+ */
+public abstract class DeltaDiscoveryRequestStreamObserver implements StreamObserver<DeltaDiscoveryRequest> {
+  private static final AtomicLongFieldUpdater<DeltaDiscoveryRequestStreamObserver> streamNonceUpdater =
+      AtomicLongFieldUpdater.newUpdater(DeltaDiscoveryRequestStreamObserver.class, "streamNonce");
+  private static final Logger LOGGER = LoggerFactory.getLogger(DiscoveryServer.class);
+
+  final long streamId;
+  private final String defaultTypeUrl;
+  private final StreamObserver<DeltaDiscoveryResponse> responseObserver;
+  private final Executor executor;
+  private final DiscoveryServer discoverySever;
+  private volatile long streamNonce;
+  private volatile boolean isClosing;
+  // The node of the stream, as interned by the server.
+  private Node node;
+  // The group of the node of the stream, which is computed on the first request since the node does not change.
+  private StreamGroup<?> group;
+
+  DeltaDiscoveryRequestStreamObserver(String defaultTypeUrl,
+                                      StreamObserver<DeltaDiscoveryResponse> responseObserver,
+                                      long streamId,
+                                      Executor executor,
+                                      DiscoveryServer discoveryServer) {
+    this.defaultTypeUrl = defaultTypeUrl;
+    this.responseObserver = responseObserver;
+    this.streamId = streamId;
+    this.executor = executor;
+    this.streamNonce = 0;
+    this.discoverySever = discoveryServer;
+  }
+
+  @Override
+  public void onNext(DeltaDiscoveryRequest streamRequest) {
+    DeltaDiscoveryRequest request = withStreamNode(streamRequest);
+    String requestTypeUrl = request.getTypeUrl().isEmpty() ? defaultTypeUrl : request.getTypeUrl();
+    String nonce = request.getResponseNonce();
+
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("[{}] delta request {}[+{}, -{}] with nonce {}",
+          streamId,
+          requestTypeUrl,
+          String.join(", ", request.getResourceNamesSubscribeList()),
+          String.join(", ", request.getResourceNamesUnsubscribeList()),
+          nonce);
+    }
+
+    StreamGroup<?> requestGroup = group(request.getNode());
+
+    try {
+      discoverySever.callbacks.forEach(cb -> cb.onStreamDeltaRequest(streamId, request, requestGroup.group()));
+    } catch (RequestException e) {
+      closeWithError(e);
+      return;
+    }
+
+    DeltaSubscriptionState state = subscriptionState(requestTypeUrl);
+
+    // The first request for a type without any resource names subscribes to all resources of the type.
+    boolean initial = state.initialize(
+        request.getResourceNamesSubscribeCount() == 0,
+        request.getInitialResourceVersionsMap());
+
+    // The versions sent by a response are only recorded once the envoy ACKs it, since it keeps its previous resources
+    // if it rejects the response.
+    DeltaResponse rejected = null;
+
+    if (!nonce.isEmpty()) {
+      if (request.hasErrorDetail()) {
+        rejected = state.nack(nonce);
+      } else {
+        state.ack(nonce);
+      }
+    }
+
+    // Resources that are subscribed to again on later requests must be sent even if the envoy is believed to have the
+    // latest version, since it may have dropped them in the meantime. The resources subscribed to by the first request
+    // are only sent if they differ from the initial versions, which the envoy sends when it reconnects.
+    for (String name : request.getResourceNamesSubscribeList()) {
+      state.subscribedResourceNames().add(name);
+
+      if (!initial) {
+        state.resourceVersions().remove(name);
+      }
+    }
+
+    for (String name : request.getResourceNamesUnsubscribeList()) {
+      state.subscribedResourceNames().remove(name);
+      state.resourceVersions().remove(name);
+    }
+
+    String latestNonce = state.latestNonce();
+
+    // Requests that ACK or NACK a stale response only update the subscriptions, which are taken into account once the
+    // latest response is ACKed.
+    if (!nonce.isEmpty() && latestNonce != null && !latestNonce.equals(nonce)) {
+      return;
+    }
+
+    if (request.hasErrorDetail()) {
+      LOGGER.warn("[{}] delta response {} with nonce {} was rejected: {}",
+          streamId,
+          requestTypeUrl,
+          nonce,
+          request.getErrorDetail().getMessage());
+    }
+
+    DeltaDiscoveryRequest typedRequest = request.getTypeUrl().isEmpty()
+        ? request.toBuilder().setTypeUrl(requestTypeUrl).build()
+        : request;
+
+    Map<String, String> watchVersions = watchVersions(state, rejected);
+
+    state.computeWatch(() -> requestGroup.createDeltaWatch(
+        typedRequest,
+        watchVersions,
+        ImmutableSet.copyOf(state.subscribedResourceNames()),
+        state.isWildcard(),
+        r -> executor.execute(() -> send(r, requestTypeUrl))));
+  }
+
+  @Override
+  public void onError(Throwable t) {
+    if (!Status.fromThrowable(t).getCode().equals(Status.CANCELLED.getCode())) {
+      LOGGER.error("[{}] stream closed with error", streamId, t);
+    }
+
+    try {
+      discoverySever.callbacks.forEach(cb -> cb.onStreamCloseWithError(streamId, defaultTypeUrl, t));
+      closeWithError(Status.fromThrowable(t).asException());
+    } finally {
+      cancel();
+    }
+  }
+
+  @Override
+  public void onCompleted() {
+    LOGGER.debug("[{}] stream closed", streamId);
+
+    try {
+      discoverySever.callbacks.forEach(cb -> cb.onStreamClose(streamId, defaultTypeUrl));
+      synchronized (responseObserver) {
+        if (!isClosing) {
+          isClosing = true;
+          responseObserver.onCompleted();
+        }
+      }
+    } finally {
+      cancel();
+    }
+  }
+
+  // Requests that include the node of the stream share the interned copy, since watches and callbacks hold onto them.
+  // The node of a stream does not change, so it is only interned from the first request that includes it, and later
+  // requests have their copy replaced without comparing it.
+  private DeltaDiscoveryRequest withStreamNode(DeltaDiscoveryRequest request) {
+    if (!request.hasNode()) {
+      return request;
+    }
+
+    if (node == null) {
+      node = discoverySever.nodes.intern(request.getNode());
+    }
+
+    return request.getNode() == node ? request : request.toBuilder().setNode(node).build();
+  }
+
+  // The watch that follows a rejected response is created as if the envoy had accepted it, so that the rejected
+  // resources are not resent right away but only once they change. The versions of the envoy are left as they are.
+  private static Map<String, String> watchVersions(DeltaSubscriptionState state, DeltaResponse rejected) {
+    if (rejected == null) {
+      return ImmutableMap.copyOf(state.resourceVersions());
+    }
+
+    Map<String, String> versions = new HashMap<>(state.resourceVersions());
+
+    rejected.resources().forEach((name, resource) -> {
+      if (state.isWildcard() || state.subscribedResourceNames().contains(name)) {
+        versions.put(name, resource.version());
+      }
+    });
+    rejected.removedResources().forEach(versions::remove);
+
+    return ImmutableMap.copyOf(versions);
+  }
+
+  private StreamGroup<?> group(Node node) {
+    if (group == null) {
+      group = StreamGroup.ofDelta(discoverySever.deltaConfigWatcher, node);
+    }
+
+    return group;
+  }
+
+  void onCancelled() {
+    LOGGER.info("[{}] stream cancelled", streamId);
+    cancel();
+  }
+
+  void closeWithError(Throwable exception) {
+    synchronized (responseObserver) {
+      if (!isClosing) {
+        isClosing = true;
+        responseObserver.onError(exception);
+      }
+    }
+    cancel();
+  }
+
+  private void send(DeltaResponse response, String typeUrl) {
+    String nonce = Long.toString(streamNonceUpdater.getAndIncrement(this));
+
+    List<Resource> resources = response.resources().entrySet().stream()
+        .map(e -> Resource.newBuilder()
+            .setName(e.getKey())
+            .setVersion(e.getValue().version())
+            .setResource(discoverySever.protoResourcesSerializer.serialize(e.getValue().resource()))
+            .build())
+        .collect(Collectors.toList());
+
+    DeltaDiscoveryResponse discoveryResponse = DeltaDiscoveryResponse.newBuilder()
+        .setSystemVersionInfo(response.version())
+        .addAllResources(resources)
+        .addAllRemovedResources(response.removedResources())
+        .setTypeUrl(typeUrl)
+        .setNonce(nonce)
+        .build();
+
+    LOGGER.debug("[{}] delta response {} with nonce {} version {}, {} resources and {} removed",
+        streamId,
+        typeUrl,
+        nonce,
+        response.version(),
+        resources.size(),
+        response.removedResources().size());
+
+    discoverySever.callbacks.forEach(cb -> cb.onStreamDeltaResponse(streamId, response.request(), discoveryResponse));
+
+    // Track the sent response and the latest nonce *before* we send the response, for the same reason as in
+    // DiscoveryRequestStreamObserver#send. The versions of the response are recorded once the envoy ACKs it.
+    DeltaSubscriptionState state = subscriptionState(typeUrl);
+    state.addPendingResponse(nonce, response);
+    state.setLatestNonce(nonce);
+
+    synchronized (responseObserver) {
+      if (!isClosing) {
+        try {
+          responseObserver.onNext(discoveryResponse);
+        } catch (StatusRuntimeException e) {
+          if (!Status.CANCELLED.getCode().equals(e.getStatus().getCode())) {
+            throw e;
+          }
+        }
+      }
+    }
+  }
+
+  abstract void cancel();
+
+  /**
+   * Returns the subscription state of the stream for the given type, creating it if it does not exist yet.
+   *
+   * @param typeUrl the resource type
+   */
+  abstract DeltaSubscriptionState subscriptionState(String typeUrl);
+}
@@ -0,0 +1,124 @@
+package io.envoyproxy.controlplane.server;
+
+import io.envoyproxy.controlplane.cache.DeltaResponse;
+import io.envoyproxy.controlplane.cache.DeltaWatch;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * {@code DeltaSubscriptionState} tracks the state of an incremental xDS stream for a single resource type: the
+ * resources the envoy is subscribed to, the versions of the resources it acknowledged, the responses it did not
+ * acknowledge yet, the nonce of the latest response and the open watch.
+ */
+class DeltaSubscriptionState {
+  private final Map<String, String> resourceVersions = new ConcurrentHashMap<>();
+  // Responses are added by the send thread and removed by the request thread, by nonce.
+  private final Map<String, DeltaResponse> pendingResponses = new ConcurrentHashMap<>();
+  private final Set<String> subscribedResourceNames = ConcurrentHashMap.newKeySet();
+  // isWildcard and isInitialized are only used in the request thread so they need not be volatile
+  private boolean isWildcard;
+  private boolean isInitialized;
+  private volatile String latestNonce;
+  private DeltaWatch watch;
+
+  /**
+   * Returns the versions of the resources the envoy acknowledged, by resource name.
+   */
+  Map<String, String> resourceVersions() {
+    return resourceVersions;
+  }
+
+  /**
+   * Returns the names of the resources the envoy explicitly subscribed to.
+   */
+  Set<String> subscribedResourceNames() {
+    return subscribedResourceNames;
+  }
+
+  /**
+   * Returns boolean indicating whether or not the envoy is subscribed to all resources of the type.
+   */
+  boolean isWildcard() {
+    return isWildcard;
+  }
+
+  /**
+   * Returns the nonce of the latest response sent for the type, or {@code null} if none was sent yet.
+   */
+  String latestNonce() {
+    return latestNonce;
+  }
+
+  void setLatestNonce(String latestNonce) {
+    this.latestNonce = latestNonce;
+  }
+
+  /**
+   * Tracks a response that was sent to the envoy until it is acknowledged or rejected.
+   *
+   * @param nonce    the nonce of the response
+   * @param response the response that was sent
+   */
+  void addPendingResponse(String nonce, DeltaResponse response) {
+    pendingResponses.put(nonce, response);
+  }
+
+  /**
+   * Records the versions of the resources sent by the response with the given nonce, which the envoy acknowledged.
+   *
+   * @param nonce the nonce of the acknowledged response
+   */
+  void ack(String nonce) {
+    DeltaResponse response = pendingResponses.remove(nonce);
+
+    if (response != null) {
+      response.resources().forEach((name, resource) -> resourceVersions.put(name, resource.version()));
+      response.removedResources().forEach(resourceVersions::remove);
+    }
+  }
+
+  /**
+   * Stops tracking the response with the given nonce, which the envoy rejected and so keeps its previous resources.
+   *
+   * @param nonce the nonce of the rejected response
+   * @return the rejected response, or {@code null} if it is not tracked
+   */
+  DeltaResponse nack(String nonce) {
+    return pendingResponses.remove(nonce);
+  }
+
+  /**
+   * Initializes the state from the first request for the type on the stream. Subsequent calls are no-ops.
+   *
+   * @param isWildcard       is the envoy subscribed to all resources of the type?
+   * @param resourceVersions the versions of the resources the envoy already knows about, e.g. after reconnecting
+   * @return true if this was the first request for the type
+   */
+  boolean initialize(boolean isWildcard, Map<String, String> resourceVersions) {
+    if (isInitialized) {
+      return false;
+    }
+
+    isInitialized = true;
+    this.isWildcard = isWildcard;
+    this.resourceVersions.putAll(resourceVersions);
+
+    return true;
+  }
+
+  /**
+   * Cancels the open watch, if any, and replaces it with the one returned by the given supplier.
+   */
+  synchronized void computeWatch(Supplier<DeltaWatch> watchCreator) {
+    cancel();
+    watch = watchCreator.get();
+  }
+
+  synchronized void cancel() {
+    if (watch != null) {
+      watch.cancel();
+    }
+  }
+}
@@ -3,21 +3,26 @@ package io.envoyproxy.controlplane.server;
 import static com.google.common.base.Strings.isNullOrEmpty;
 
 import com.google.protobuf.Any;
-import io.envoyproxy.controlplane.cache.Resources;
+import io.envoyproxy.controlplane.cache.ResourceType;
 import io.envoyproxy.controlplane.cache.Response;
 import io.envoyproxy.controlplane.cache.Watch;
 import io.envoyproxy.controlplane.server.exception.RequestException;
 import io.envoyproxy.envoy.api.v2.DiscoveryRequest;
 import io.envoyproxy.envoy.api.v2.DiscoveryResponse;
+import io.envoyproxy.envoy.api.v2.core.Node;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
+import javax.annotation.concurrent.GuardedBy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,8 +40,19 @@ public abstract class DiscoveryRequestStreamObserver implements StreamObserver<D
   private final StreamObserver<DiscoveryResponse> responseObserver;
   private final Executor executor;
   private final DiscoveryServer discoverySever;
+  // Only set if the server sends responses according to flow control.
+  private final ServerCallStreamObserver<DiscoveryResponse> flowControlledResponseObserver;
+  @GuardedBy("responseObserver")
+  private final Map<String, Response> pendingResponses = new LinkedHashMap<>();
+  // Whether a thread is sending the pending responses.
+  @GuardedBy("responseObserver")
+  private boolean sendingPending;
   private volatile long streamNonce;
   private volatile boolean isClosing;
+  // The node of the stream, as interned by the server.
+  private Node node;
+  // The group of the node of the stream, which is computed on the first request since the node does not change.
+  private StreamGroup<?> group;
 
   DiscoveryRequestStreamObserver(String defaultTypeUrl,
                                  StreamObserver<DiscoveryResponse> responseObserver,
@@ -50,11 +66,18 @@ public abstract class DiscoveryRequestStreamObserver implements StreamObserver<D
     this.streamNonce = 0;
     this.discoverySever = discoveryServer;
     this.hasClusterChanged = false;
+    this.flowControlledResponseObserver = discoveryServer.flowControl
+        && responseObserver instanceof ServerCallStreamObserver
+        ? (ServerCallStreamObserver<DiscoveryResponse>) responseObserver
+        : null;
   }
 
   @Override
-  public void onNext(DiscoveryRequest request) {
+  public void onNext(DiscoveryRequest streamRequest) {
+    DiscoveryRequest request = withStreamNode(streamRequest);
     String requestTypeUrl = request.getTypeUrl().isEmpty() ? defaultTypeUrl : request.getTypeUrl();
+    // The type is resolved once per request, rather than on each access to the per type state of the stream.
+    ResourceType requestType = ResourceType.fromTypeUrl(requestTypeUrl);
     String nonce = request.getResponseNonce();
 
     if (LOGGER.isDebugEnabled()) {
@@ -66,26 +89,29 @@ public abstract class DiscoveryRequestStreamObserver implements StreamObserver<D
           request.getVersionInfo());
     }
 
+    StreamGroup<?> requestGroup = group(request.getNode());
+
     try {
-      discoverySever.callbacks.forEach(cb -> cb.onStreamRequest(streamId, request));
+      discoverySever.callbacks.forEach(cb -> cb.onStreamRequest(streamId, request, requestGroup.group()));
     } catch (RequestException e) {
       closeWithError(e);
       return;
     }
 
-    LatestDiscoveryResponse latestDiscoveryResponse = latestResponse(requestTypeUrl);
+    LatestDiscoveryResponse latestDiscoveryResponse = latestResponse(requestTypeUrl, requestType);
     String resourceNonce = latestDiscoveryResponse == null ? null : latestDiscoveryResponse.nonce();
 
     if (isNullOrEmpty(resourceNonce) || resourceNonce.equals(nonce)) {
       if (!request.hasErrorDetail() && latestDiscoveryResponse != null) {
-        setAckedResources(requestTypeUrl, latestDiscoveryResponse.resourceNames());
+        setAckedResources(requestTypeUrl, requestType, latestDiscoveryResponse.resourceNames());
       }
 
-      computeWatch(requestTypeUrl, () -> discoverySever.configWatcher.createWatch(
+      computeWatch(requestTypeUrl, requestType, () -> requestGroup.createWatch(
           ads(),
           request,
-          ackedResources(requestTypeUrl),
-          r -> executor.execute(() -> send(r, requestTypeUrl)),
+          requestType,
+          ackedResources(requestTypeUrl, requestType),
+          r -> executor.execute(() -> sendOrConflate(r, requestTypeUrl, requestType)),
           hasClusterChanged
       ));
     }
@@ -122,6 +148,29 @@ public abstract class DiscoveryRequestStreamObserver implements StreamObserver<D
     }
   }
 
+  // Requests that include the node of the stream share the interned copy, since watches and callbacks hold onto them.
+  // The node of a stream does not change, so it is only interned from the first request that includes it, and later
+  // requests have their copy replaced without comparing it.
+  private DiscoveryRequest withStreamNode(DiscoveryRequest request) {
+    if (!request.hasNode()) {
+      return request;
+    }
+
+    if (node == null) {
+      node = discoverySever.nodes.intern(request.getNode());
+    }
+
+    return request.getNode() == node ? request : request.toBuilder().setNode(node).build();
+  }
+
+  private StreamGroup<?> group(Node node) {
+    if (group == null) {
+      group = StreamGroup.of(discoverySever.configWatcher, node);
+    }
+
+    return group;
+  }
+
   void onCancelled() {
     LOGGER.info("[{}] stream cancelled", streamId);
     cancel();
@@ -137,7 +186,76 @@ public abstract class DiscoveryRequestStreamObserver implements StreamObserver<D
     cancel();
   }
 
-  private void send(Response response, String typeUrl) {
+  /**
+   * Sends the pending responses, in the order they became pending, for as long as the envoy is ready to receive them.
+   */
+  void onReady() {
+    sendPending();
+  }
+
+  private void sendOrConflate(Response response, String typeUrl, ResourceType type) {
+    if (flowControlledResponseObserver == null) {
+      send(response, typeUrl, type);
+      return;
+    }
+
+    synchronized (responseObserver) {
+      // Responses must be sent in order, so every response goes through the pending responses. A pending response of
+      // the same type is replaced, since the envoy is only interested in the latest one.
+      Response replaced = pendingResponses.put(typeUrl, response);
+
+      if (replaced != null) {
+        LOGGER.debug("[{}] replacing pending response {} version {} with version {}",
+            streamId,
+            typeUrl,
+            replaced.version(),
+            response.version());
+      }
+    }
+
+    sendPending();
+  }
+
+  // Only one thread at a time sends the pending responses, so that they are sent in order. Each response is taken from
+  // the pending responses under the lock of the response observer, but serialized and passed to the callbacks outside
+  // of it, so that other threads can add responses in the meantime. The sending thread only stops once there is no
+  // pending response left or the envoy is not ready, which it checks under the lock along with clearing the flag.
+  private void sendPending() {
+    synchronized (responseObserver) {
+      if (sendingPending) {
+        return;
+      }
+
+      sendingPending = true;
+    }
+
+    while (true) {
+      Map.Entry<String, Response> next;
+
+      synchronized (responseObserver) {
+        if (pendingResponses.isEmpty() || !flowControlledResponseObserver.isReady()) {
+          sendingPending = false;
+          return;
+        }
+
+        Iterator<Map.Entry<String, Response>> pending = pendingResponses.entrySet().iterator();
+        next = pending.next();
+        pending.remove();
+      }
+
+      try {
+        send(next.getValue(), next.getKey(), ResourceType.fromTypeUrl(next.getKey()));
+      } catch (RuntimeException e) {
+        synchronized (responseObserver) {
+          sendingPending = false;
+        }
+
+        throw e;
+      }
+    }
+  }
+
+  private void send(Response response, String typeUrl, ResourceType type) {
     String nonce = Long.toString(streamNonceUpdater.getAndIncrement(this));
 
     Collection<Any> resources = discoverySever.protoResourcesSerializer.serialize(response.resources());
@@ -155,13 +273,7 @@ public abstract class DiscoveryRequestStreamObserver implements StreamObserver<D
     // Store the latest response *before* we send the response. This ensures that by the time the request
     // is processed the map is guaranteed to be updated. Doing it afterwards leads to a race conditions
     // which may see the incoming request arrive before the map is updated, failing the nonce check erroneously.
-    setLatestResponse(
-        typeUrl,
-        LatestDiscoveryResponse.create(
-            nonce,
-            response.resources().stream().map(Resources::getResourceName).collect(Collectors.toSet())
-        )
-    );
+    setLatestResponse(typeUrl, type, LatestDiscoveryResponse.create(nonce, response.resourceNames()));
     synchronized (responseObserver) {
       if (!isClosing) {
         try {
@@ -179,13 +291,16 @@ public abstract class DiscoveryRequestStreamObserver implements StreamObserver<D
 
   abstract boolean ads();
 
-  abstract LatestDiscoveryResponse latestResponse(String typeUrl);
+  // The per type state of the stream is accessed by type URL, along with the type resolved from it, which is null if
+  // the type is not known to the cache.
+
+  abstract LatestDiscoveryResponse latestResponse(String typeUrl, ResourceType type);
 
-  abstract void setLatestResponse(String typeUrl, LatestDiscoveryResponse response);
+  abstract void setLatestResponse(String typeUrl, ResourceType type, LatestDiscoveryResponse response);
 
-  abstract Set<String> ackedResources(String typeUrl);
+  abstract Set<String> ackedResources(String typeUrl, ResourceType type);
 
-  abstract void setAckedResources(String typeUrl, Set<String> resources);
+  abstract void setAckedResources(String typeUrl, ResourceType type, Set<String> resources);
 
-  abstract void computeWatch(String typeUrl, Supplier<Watch> watchCreator);
+  abstract void computeWatch(String typeUrl, ResourceType type, Supplier<Watch> watchCreator);
 }
@@ -1,24 +1,39 @@
 package io.envoyproxy.controlplane.server;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import io.envoyproxy.controlplane.cache.ConfigWatcher;
+import io.envoyproxy.controlplane.cache.DeltaConfigWatcher;
 import io.envoyproxy.controlplane.cache.Resources;
+import io.envoyproxy.controlplane.server.serializer.CachedProtoResourcesSerializer;
 import io.envoyproxy.controlplane.server.serializer.DefaultProtoResourcesSerializer;
 import io.envoyproxy.controlplane.server.serializer.ProtoResourcesSerializer;
+import io.envoyproxy.controlplane.server.serializer.SharedDiscoveryResponseMarshaller;
 import io.envoyproxy.envoy.api.v2.ClusterDiscoveryServiceGrpc.ClusterDiscoveryServiceImplBase;
+import io.envoyproxy.envoy.api.v2.DeltaDiscoveryRequest;
+import io.envoyproxy.envoy.api.v2.DeltaDiscoveryResponse;
 import io.envoyproxy.envoy.api.v2.DiscoveryRequest;
 import io.envoyproxy.envoy.api.v2.DiscoveryResponse;
 import io.envoyproxy.envoy.api.v2.EndpointDiscoveryServiceGrpc.EndpointDiscoveryServiceImplBase;
 import io.envoyproxy.envoy.api.v2.ListenerDiscoveryServiceGrpc.ListenerDiscoveryServiceImplBase;
 import io.envoyproxy.envoy.api.v2.RouteDiscoveryServiceGrpc.RouteDiscoveryServiceImplBase;
+import io.envoyproxy.envoy.api.v2.core.Node;
 import io.envoyproxy.envoy.service.discovery.v2.AggregatedDiscoveryServiceGrpc.AggregatedDiscoveryServiceImplBase;
 import io.envoyproxy.envoy.service.discovery.v2.SecretDiscoveryServiceGrpc;
+import io.grpc.BindableService;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.ServiceDescriptor;
+import io.grpc.protobuf.ProtoUtils;
 import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,16 +41,22 @@ public class DiscoveryServer {
   static final String ANY_TYPE_URL = "";
   private static final Logger LOGGER = LoggerFactory.getLogger(DiscoveryServer.class);
   final List<DiscoveryServerCallbacks> callbacks;
-  final ConfigWatcher configWatcher;
+  final ConfigWatcher<?> configWatcher;
+  // The config watcher if it supports incremental xDS, or null if incremental xDS streams are not served.
+  final DeltaConfigWatcher<?> deltaConfigWatcher;
   final ProtoResourcesSerializer protoResourcesSerializer;
+  final boolean flowControl;
+  // The nodes of the streams, so that streams of equal nodes share one copy, which their watches and callbacks hold.
+  final Interner<Node> nodes = Interners.newWeakInterner();
   private final ExecutorGroup executorGroup;
+  private final MethodDescriptor.Marshaller<DiscoveryResponse> responseMarshaller;
   private final AtomicLong streamCount = new AtomicLong();
 
-  public DiscoveryServer(ConfigWatcher configWatcher) {
+  public DiscoveryServer(ConfigWatcher<?> configWatcher) {
     this(Collections.emptyList(), configWatcher);
   }
 
-  public DiscoveryServer(DiscoveryServerCallbacks callbacks, ConfigWatcher configWatcher) {
+  public DiscoveryServer(DiscoveryServerCallbacks callbacks, ConfigWatcher<?> configWatcher) {
     this(Collections.singletonList(callbacks), configWatcher);
   }
 
@@ -45,7 +66,7 @@ public class DiscoveryServer {
    * @param callbacks     server callbacks
    * @param configWatcher source of configuration updates
    */
-  public DiscoveryServer(List<DiscoveryServerCallbacks> callbacks, ConfigWatcher configWatcher) {
+  public DiscoveryServer(List<DiscoveryServerCallbacks> callbacks, ConfigWatcher<?> configWatcher) {
     this(callbacks, configWatcher, new DefaultExecutorGroup(), new DefaultProtoResourcesSerializer());
   }
 
@@ -58,22 +79,82 @@ public class DiscoveryServer {
    * @param protoResourcesSerializer serializer of proto buffer messages
    */
   public DiscoveryServer(List<DiscoveryServerCallbacks> callbacks,
-                         ConfigWatcher configWatcher,
+                         ConfigWatcher<?> configWatcher,
                          ExecutorGroup executorGroup,
                          ProtoResourcesSerializer protoResourcesSerializer) {
+    this(callbacks,
+        configWatcher,
+        executorGroup,
+        protoResourcesSerializer,
+        ProtoUtils.marshaller(DiscoveryResponse.getDefaultInstance()));
+  }
+
+  /**
+   * Creates the server.
+   *
+   * @param callbacks                server callbacks
+   * @param configWatcher            source of configuration updates
+   * @param executorGroup            executor group to use for responding stream requests
+   * @param protoResourcesSerializer serializer of proto buffer messages
+   * @param responseMarshaller       marshaller of the discovery responses sent on the wire, e.g. a
+   *                                 {@link SharedDiscoveryResponseMarshaller} to encode responses shared by many
+   *                                 streams only once, used by services bound with {@link #bindService}. The shared
+   *                                 marshaller requires a {@link CachedProtoResourcesSerializer}, since it only
+   *                                 shares responses whose resources were serialized to the same instances.
+   */
+  public DiscoveryServer(List<DiscoveryServerCallbacks> callbacks,
+                         ConfigWatcher<?> configWatcher,
+                         ExecutorGroup executorGroup,
+                         ProtoResourcesSerializer protoResourcesSerializer,
+                         MethodDescriptor.Marshaller<DiscoveryResponse> responseMarshaller) {
+    this(callbacks, configWatcher, executorGroup, protoResourcesSerializer, responseMarshaller, false);
+  }
+
+  /**
+   * Creates the server.
+   *
+   * @param callbacks                server callbacks
+   * @param configWatcher            source of configuration updates
+   * @param executorGroup            executor group to use for responding stream requests
+   * @param protoResourcesSerializer serializer of proto buffer messages
+   * @param responseMarshaller       marshaller of the discovery responses sent on the wire, used by services bound with
+   *                                 {@link #bindService}
+   * @param flowControl              whether responses should only be sent to envoys that are ready to receive them. If
+   *                                 set, at most one response per type is kept pending for an envoy that is not ready,
+   *                                 and it is replaced by any newer response of the same type.
+   */
+  public DiscoveryServer(List<DiscoveryServerCallbacks> callbacks,
+                         ConfigWatcher<?> configWatcher,
+                         ExecutorGroup executorGroup,
+                         ProtoResourcesSerializer protoResourcesSerializer,
+                         MethodDescriptor.Marshaller<DiscoveryResponse> responseMarshaller,
+                         boolean flowControl) {
     Preconditions.checkNotNull(callbacks, "callbacks cannot be null");
     Preconditions.checkNotNull(configWatcher, "configWatcher cannot be null");
     Preconditions.checkNotNull(executorGroup, "executorGroup cannot be null");
     Preconditions.checkNotNull(protoResourcesSerializer, "protoResourcesSerializer cannot be null");
+    Preconditions.checkNotNull(responseMarshaller, "responseMarshaller cannot be null");
+    Preconditions.checkArgument(
+        !(responseMarshaller instanceof SharedDiscoveryResponseMarshaller)
+            || protoResourcesSerializer instanceof CachedProtoResourcesSerializer,
+        "SharedDiscoveryResponseMarshaller requires a CachedProtoResourcesSerializer");
 
     this.callbacks = callbacks;
     this.configWatcher = configWatcher;
+    this.deltaConfigWatcher = configWatcher instanceof DeltaConfigWatcher
+        && ((DeltaConfigWatcher<?>) configWatcher).supportsDeltaWatches()
+        ? (DeltaConfigWatcher<?>) configWatcher
+        : null;
     this.executorGroup = executorGroup;
     this.protoResourcesSerializer = protoResourcesSerializer;
+    this.responseMarshaller = responseMarshaller;
+    this.flowControl = flowControl;
   }
 
   /**
-   * Returns an ADS implementation that uses this server's {@link ConfigWatcher}.
+   * Returns an ADS implementation that uses this server's {@link ConfigWatcher}. Like those of the other services, its
+   * incremental xDS streams are only served if the watcher is a {@link DeltaConfigWatcher} that supports them,
+   * and are otherwise closed as unimplemented.
    */
   public AggregatedDiscoveryServiceImplBase getAggregatedDiscoveryServiceImpl() {
     return new AggregatedDiscoveryServiceImplBase() {
@@ -83,6 +164,16 @@ public class DiscoveryServer {
 
         return createRequestHandler(responseObserver, true, ANY_TYPE_URL);
       }
+
+      @Override
+      public StreamObserver<DeltaDiscoveryRequest> deltaAggregatedResources(
+          StreamObserver<DeltaDiscoveryResponse> responseObserver) {
+        if (deltaConfigWatcher == null) {
+          return super.deltaAggregatedResources(responseObserver);
+        }
+
+        return createDeltaRequestHandler(responseObserver, true, ANY_TYPE_URL);
+      }
     };
   }
 
@@ -97,6 +188,16 @@ public class DiscoveryServer {
 
         return createRequestHandler(responseObserver, false, Resources.CLUSTER_TYPE_URL);
       }
+
+      @Override
+      public StreamObserver<DeltaDiscoveryRequest> deltaClusters(
+          StreamObserver<DeltaDiscoveryResponse> responseObserver) {
+        if (deltaConfigWatcher == null) {
+          return super.deltaClusters(responseObserver);
+        }
+
+        return createDeltaRequestHandler(responseObserver, false, Resources.CLUSTER_TYPE_URL);
+      }
     };
   }
 
@@ -111,6 +212,16 @@ public class DiscoveryServer {
 
         return createRequestHandler(responseObserver, false, Resources.ENDPOINT_TYPE_URL);
       }
+
+      @Override
+      public StreamObserver<DeltaDiscoveryRequest> deltaEndpoints(
+          StreamObserver<DeltaDiscoveryResponse> responseObserver) {
+        if (deltaConfigWatcher == null) {
+          return super.deltaEndpoints(responseObserver);
+        }
+
+        return createDeltaRequestHandler(responseObserver, false, Resources.ENDPOINT_TYPE_URL);
+      }
     };
   }
 
@@ -125,6 +236,16 @@ public class DiscoveryServer {
 
         return createRequestHandler(responseObserver, false, Resources.LISTENER_TYPE_URL);
       }
+
+      @Override
+      public StreamObserver<DeltaDiscoveryRequest> deltaListeners(
+          StreamObserver<DeltaDiscoveryResponse> responseObserver) {
+        if (deltaConfigWatcher == null) {
+          return super.deltaListeners(responseObserver);
+        }
+
+        return createDeltaRequestHandler(responseObserver, false, Resources.LISTENER_TYPE_URL);
+      }
     };
   }
 
@@ -139,6 +260,16 @@ public class DiscoveryServer {
 
         return createRequestHandler(responseObserver, false, Resources.ROUTE_TYPE_URL);
       }
+
+      @Override
+      public StreamObserver<DeltaDiscoveryRequest> deltaRoutes(
+          StreamObserver<DeltaDiscoveryResponse> responseObserver) {
+        if (deltaConfigWatcher == null) {
+          return super.deltaRoutes(responseObserver);
+        }
+
+        return createDeltaRequestHandler(responseObserver, false, Resources.ROUTE_TYPE_URL);
+      }
     };
   }
 
@@ -152,9 +283,66 @@ public class DiscoveryServer {
           StreamObserver<DiscoveryResponse> responseObserver) {
         return createRequestHandler(responseObserver, false, Resources.SECRET_TYPE_URL);
       }
+
+      @Override
+      public StreamObserver<DeltaDiscoveryRequest> deltaSecrets(
+          StreamObserver<DeltaDiscoveryResponse> responseObserver) {
+        if (deltaConfigWatcher == null) {
+          return super.deltaSecrets(responseObserver);
+        }
+
+        return createDeltaRequestHandler(responseObserver, false, Resources.SECRET_TYPE_URL);
+      }
     };
   }
 
+  /**
+   * Binds the given service, e.g. {@link #getAggregatedDiscoveryServiceImpl()}, such that its discovery responses are
+   * sent using the response marshaller of this server. Register the returned definition instead of the service itself
+   * when this server uses a custom response marshaller.
+   *
+   * @param service the service to bind
+   */
+  public ServerServiceDefinition bindService(BindableService service) {
+    ServerServiceDefinition definition = service.bindService();
+    ServiceDescriptor serviceDescriptor = definition.getServiceDescriptor();
+    ServiceDescriptor.Builder serviceDescriptorBuilder = ServiceDescriptor.newBuilder(serviceDescriptor.getName())
+        .setSchemaDescriptor(serviceDescriptor.getSchemaDescriptor());
+
+    List<ServerMethodDefinition<?, ?>> methods = definition.getMethods().stream()
+        .map(this::withResponseMarshaller)
+        .collect(Collectors.toList());
+
+    methods.forEach(method -> serviceDescriptorBuilder.addMethod(method.getMethodDescriptor()));
+
+    ServerServiceDefinition.Builder builder = ServerServiceDefinition.builder(serviceDescriptorBuilder.build());
+    methods.forEach(builder::addMethod);
+
+    return builder.build();
+  }
+
+  private <ReqT, RespT> ServerMethodDefinition<ReqT, RespT> withResponseMarshaller(
+      ServerMethodDefinition<ReqT, RespT> method) {
+
+    MethodDescriptor<ReqT, RespT> methodDescriptor = method.getMethodDescriptor();
+    MethodDescriptor.Marshaller<RespT> marshaller = methodDescriptor.getResponseMarshaller();
+
+    if (!(marshaller instanceof MethodDescriptor.PrototypeMarshaller)
+        || !(((MethodDescriptor.PrototypeMarshaller<RespT>) marshaller).getMessagePrototype()
+        instanceof DiscoveryResponse)) {
+      return method;
+    }
+
+    // The response type of the method is DiscoveryResponse.
+    @SuppressWarnings("unchecked")
+    MethodDescriptor.Marshaller<RespT> discoveryResponseMarshaller =
+        (MethodDescriptor.Marshaller<RespT>) responseMarshaller;
+
+    return ServerMethodDefinition.create(
+        methodDescriptor.toBuilder(methodDescriptor.getRequestMarshaller(), discoveryResponseMarshaller).build(),
+        method.getServerCallHandler());
+  }
+
   private StreamObserver<DiscoveryRequest> createRequestHandler(
       StreamObserver<DiscoveryResponse> responseObserver,
       boolean ads,
@@ -185,6 +373,47 @@ public class DiscoveryServer {
       );
     }
 
+    if (responseObserver instanceof ServerCallStreamObserver) {
+      ((ServerCallStreamObserver) responseObserver).setOnCancelHandler(requestStreamObserver::onCancelled);
+
+      if (flowControl) {
+        ((ServerCallStreamObserver) responseObserver).setOnReadyHandler(requestStreamObserver::onReady);
+      }
+    }
+
+    return requestStreamObserver;
+  }
+
+  private StreamObserver<DeltaDiscoveryRequest> createDeltaRequestHandler(
+      StreamObserver<DeltaDiscoveryResponse> responseObserver,
+      boolean ads,
+      String defaultTypeUrl) {
+
+    long streamId = streamCount.getAndIncrement();
+    Executor executor = executorGroup.next();
+
+    LOGGER.debug("[{}] open delta stream from {}", streamId, defaultTypeUrl);
+
+    callbacks.forEach(cb -> cb.onStreamOpen(streamId, defaultTypeUrl));
+
+    final DeltaDiscoveryRequestStreamObserver requestStreamObserver;
+    if (ads) {
+      requestStreamObserver = new AdsDeltaDiscoveryRequestStreamObserver(
+          responseObserver,
+          streamId,
+          executor,
+          this
+      );
+    } else {
+      requestStreamObserver = new XdsDeltaDiscoveryRequestStreamObserver(
+          defaultTypeUrl,
+          responseObserver,
+          streamId,
+          executor,
+          this
+      );
+    }
+
     if (responseObserver instanceof ServerCallStreamObserver) {
       ((ServerCallStreamObserver) responseObserver).setOnCancelHandler(requestStreamObserver::onCancelled);
     }
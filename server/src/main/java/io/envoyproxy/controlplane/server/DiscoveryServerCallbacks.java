@@ -1,8 +1,12 @@
 package io.envoyproxy.controlplane.server;
 
+import io.envoyproxy.controlplane.cache.ConfigWatcher;
 import io.envoyproxy.controlplane.server.exception.RequestException;
+import io.envoyproxy.envoy.api.v2.DeltaDiscoveryRequest;
+import io.envoyproxy.envoy.api.v2.DeltaDiscoveryResponse;
 import io.envoyproxy.envoy.api.v2.DiscoveryRequest;
 import io.envoyproxy.envoy.api.v2.DiscoveryResponse;
+import io.envoyproxy.envoy.api.v2.core.Node;
 
 /**
  * {@code DiscoveryServerCallbacks} defines the callbacks that are exposed by the {@link DiscoveryServer}. The callbacks
@@ -57,6 +61,22 @@ public interface DiscoveryServerCallbacks {
 
   }
 
+  /**
+   * {@code onStreamRequest} is called for each {@link DiscoveryRequest} that is received on the stream, along with the
+   * group of the node of the stream as resolved by {@link ConfigWatcher#group(Node)}, so that callbacks that track
+   * groups do not have to resolve it again. By default it calls {@link #onStreamRequest(long, DiscoveryRequest)}.
+   *
+   * @param streamId an ID for this stream that is only unique to this discovery server instance
+   * @param request the discovery request sent by the envoy instance
+   * @param group the group of the node of the stream, or null if the config watcher does not group nodes
+   *
+   * @throws RequestException optionally can throw {@link RequestException} with custom status. That status
+   *     will be returned to the client and the stream will be closed with error.
+   */
+  default void onStreamRequest(long streamId, DiscoveryRequest request, Object group) {
+    onStreamRequest(streamId, request);
+  }
+
   /**
    * {@code onStreamResponse} is called just before each {@link DiscoveryResponse} that is sent on the stream.
    *
@@ -67,4 +87,46 @@ public interface DiscoveryServerCallbacks {
   default void onStreamResponse(long streamId, DiscoveryRequest request, DiscoveryResponse response) {
 
   }
+
+  /**
+   * {@code onStreamDeltaRequest} is called for each {@link DeltaDiscoveryRequest} that is received on an incremental
+   * xDS stream.
+   *
+   * @param streamId an ID for this stream that is only unique to this discovery server instance
+   * @param request the delta discovery request sent by the envoy instance
+   *
+   * @throws RequestException optionally can throw {@link RequestException} with custom status. That status
+   *     will be returned to the client and the stream will be closed with error.
+   */
+  default void onStreamDeltaRequest(long streamId, DeltaDiscoveryRequest request) {
+
+  }
+
+  /**
+   * {@code onStreamDeltaRequest} is called for each {@link DeltaDiscoveryRequest} that is received on an incremental
+   * xDS stream, along with the group of the node of the stream as resolved by {@link ConfigWatcher#group(Node)}. By
+   * default it calls {@link #onStreamDeltaRequest(long, DeltaDiscoveryRequest)}.
+   *
+   * @param streamId an ID for this stream that is only unique to this discovery server instance
+   * @param request the delta discovery request sent by the envoy instance
+   * @param group the group of the node of the stream, or null if the config watcher does not group nodes
+   *
+   * @throws RequestException optionally can throw {@link RequestException} with custom status. That status
+   *     will be returned to the client and the stream will be closed with error.
+   */
+  default void onStreamDeltaRequest(long streamId, DeltaDiscoveryRequest request, Object group) {
+    onStreamDeltaRequest(streamId, request);
+  }
+
+  /**
+   * {@code onStreamDeltaResponse} is called just before each {@link DeltaDiscoveryResponse} that is sent on an
+   * incremental xDS stream.
+   *
+   * @param streamId an ID for this stream that is only unique to this discovery server instance
+   * @param request the delta discovery request sent by the envoy instance
+   * @param response the delta discovery response sent by the discovery server
+   */
+  default void onStreamDeltaResponse(long streamId, DeltaDiscoveryRequest request, DeltaDiscoveryResponse response) {
+
+  }
 }
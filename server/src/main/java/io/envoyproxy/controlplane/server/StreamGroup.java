@@ -0,0 +1,95 @@
+package io.envoyproxy.controlplane.server;
+
+import io.envoyproxy.controlplane.cache.ConfigWatcher;
+import io.envoyproxy.controlplane.cache.DeltaConfigWatcher;
+import io.envoyproxy.controlplane.cache.DeltaResponse;
+import io.envoyproxy.controlplane.cache.DeltaWatch;
+import io.envoyproxy.controlplane.cache.ResourceType;
+import io.envoyproxy.controlplane.cache.Response;
+import io.envoyproxy.controlplane.cache.Watch;
+import io.envoyproxy.envoy.api.v2.DeltaDiscoveryRequest;
+import io.envoyproxy.envoy.api.v2.DiscoveryRequest;
+import io.envoyproxy.envoy.api.v2.core.Node;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * {@code StreamGroup} holds the group of the node of a stream along with the watcher that resolved it, so that the
+ * watches of the stream are created for that group without it being resolved again for each request.
+ *
+ * @param <T> the type of the groups of the watcher
+ */
+final class StreamGroup<T> {
+
+  private final ConfigWatcher<T> watcher;
+  // The same watcher if the stream is an incremental xDS stream, null otherwise.
+  private final DeltaConfigWatcher<T> deltaWatcher;
+  private final T group;
+
+  private StreamGroup(ConfigWatcher<T> watcher, DeltaConfigWatcher<T> deltaWatcher, T group) {
+    this.watcher = watcher;
+    this.deltaWatcher = deltaWatcher;
+    this.group = group;
+  }
+
+  /**
+   * Returns the group of the given node, as resolved by the given watcher.
+   *
+   * @param watcher the watcher to create the watches of the stream with
+   * @param node    the node of the stream
+   */
+  static <T> StreamGroup<T> of(ConfigWatcher<T> watcher, Node node) {
+    return new StreamGroup<>(watcher, null, watcher.group(node));
+  }
+
+  /**
+   * Returns the group of the given node, as resolved by the given watcher, for an incremental xDS stream.
+   *
+   * @param watcher the watcher to create the delta watches of the stream with
+   * @param node    the node of the stream
+   */
+  static <T> StreamGroup<T> ofDelta(DeltaConfigWatcher<T> watcher, Node node) {
+    return new StreamGroup<>(watcher, watcher, watcher.group(node));
+  }
+
+  /**
+   * Returns the group, or null if the watcher does not group nodes.
+   */
+  T group() {
+    return group;
+  }
+
+  /**
+   * Creates a watch for the given request of the stream, see
+   * {@link ConfigWatcher#createWatch(boolean, DiscoveryRequest, ResourceType, Object, Set, Consumer, boolean)}.
+   */
+  Watch createWatch(
+      boolean ads,
+      DiscoveryRequest request,
+      ResourceType type,
+      Set<String> knownResourceNames,
+      Consumer<Response> responseConsumer,
+      boolean hasClusterChanged) {
+    return watcher.createWatch(ads, request, type, group, knownResourceNames, responseConsumer, hasClusterChanged);
+  }
+
+  /**
+   * Creates a delta watch for the given request of the stream, see
+   * {@link DeltaConfigWatcher#createDeltaWatch(DeltaDiscoveryRequest, Object, Map, Set, boolean, Consumer)}.
+   */
+  DeltaWatch createDeltaWatch(
+      DeltaDiscoveryRequest request,
+      Map<String, String> resourceVersions,
+      Set<String> subscribedResourceNames,
+      boolean isWildcard,
+      Consumer<DeltaResponse> responseConsumer) {
+    return deltaWatcher.createDeltaWatch(
+        request,
+        group,
+        resourceVersions,
+        subscribedResourceNames,
+        isWildcard,
+        responseConsumer);
+  }
+}
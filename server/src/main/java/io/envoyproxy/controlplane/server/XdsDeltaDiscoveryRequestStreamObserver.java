@@ -0,0 +1,32 @@
+package io.envoyproxy.controlplane.server;
+
+import io.envoyproxy.envoy.api.v2.DeltaDiscoveryResponse;
+import io.grpc.stub.StreamObserver;
+import java.util.concurrent.Executor;
+
+/**
+ * {@code XdsDeltaDiscoveryRequestStreamObserver} is a lightweight implementation of
+ * {@link DeltaDiscoveryRequestStreamObserver} tailored for incremental non-ADS streams which handle a single type.
+ */
+public class XdsDeltaDiscoveryRequestStreamObserver extends DeltaDiscoveryRequestStreamObserver {
+  private final DeltaSubscriptionState subscriptionState;
+
+  XdsDeltaDiscoveryRequestStreamObserver(String defaultTypeUrl,
+                                         StreamObserver<DeltaDiscoveryResponse> responseObserver,
+                                         long streamId,
+                                         Executor executor,
+                                         DiscoveryServer discoveryServer) {
+    super(defaultTypeUrl, responseObserver, streamId, executor, discoveryServer);
+    this.subscriptionState = new DeltaSubscriptionState();
+  }
+
+  @Override
+  void cancel() {
+    subscriptionState.cancel();
+  }
+
+  @Override
+  DeltaSubscriptionState subscriptionState(String typeUrl) {
+    return subscriptionState;
+  }
+}
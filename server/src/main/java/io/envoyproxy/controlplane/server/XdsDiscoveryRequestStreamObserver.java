@@ -1,5 +1,6 @@
 package io.envoyproxy.controlplane.server;
 
+import io.envoyproxy.controlplane.cache.ResourceType;
 import io.envoyproxy.controlplane.cache.Watch;
 import io.envoyproxy.envoy.api.v2.DiscoveryResponse;
 import io.grpc.stub.StreamObserver;
@@ -40,27 +41,27 @@ public class XdsDiscoveryRequestStreamObserver extends DiscoveryRequestStreamObs
   }
 
   @Override
-  LatestDiscoveryResponse latestResponse(String typeUrl) {
+  LatestDiscoveryResponse latestResponse(String typeUrl, ResourceType type) {
     return latestDiscoveryResponse;
   }
 
   @Override
-  void setLatestResponse(String typeUrl, LatestDiscoveryResponse response) {
+  void setLatestResponse(String typeUrl, ResourceType type, LatestDiscoveryResponse response) {
     latestDiscoveryResponse = response;
   }
 
   @Override
-  Set<String> ackedResources(String typeUrl) {
+  Set<String> ackedResources(String typeUrl, ResourceType type) {
     return ackedResources;
   }
 
   @Override
-  void setAckedResources(String typeUrl, Set<String> resources) {
+  void setAckedResources(String typeUrl, ResourceType type, Set<String> resources) {
     ackedResources = resources;
   }
 
   @Override
-  void computeWatch(String typeUrl, Supplier<Watch> watchCreator) {
+  void computeWatch(String typeUrl, ResourceType type, Supplier<Watch> watchCreator) {
     cancel();
     watch = watchCreator.get();
   }
@@ -1,22 +1,33 @@
 package io.envoyproxy.controlplane.server.callback;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Collections2;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.envoyproxy.controlplane.cache.NodeGroup;
 import io.envoyproxy.controlplane.cache.Snapshot;
 import io.envoyproxy.controlplane.cache.SnapshotCache;
 import io.envoyproxy.controlplane.server.DiscoveryServerCallbacks;
+import io.envoyproxy.envoy.api.v2.DeltaDiscoveryRequest;
 import io.envoyproxy.envoy.api.v2.DiscoveryRequest;
+import io.envoyproxy.envoy.api.v2.core.Node;
 import java.time.Clock;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 
 /**
@@ -29,21 +40,77 @@ import java.util.function.Consumer;
  * <p>Every {@code collectionIntervalMillis} milliseconds a cleanup job runs which looks for snapshots with no
  * active streams that haven't been updated within the configured time frame. Checking the time since last update
  * is done to prevent snapshots from being prematurely removed from the cache. It ensures that a group must have
- * no active streams for {@code collectAfterMillis} milliseconds before being collected.
+ * no active streams for {@code collectAfterMillis} milliseconds before being collected. Groups are queued in the order
+ * in which their last stream closed, so that the job only visits the groups that may have expired rather than every
+ * group. The snapshots of the expired groups are then cleared from the cache at once.
  *
  * <p>To be notified of snapshots that are removed, a set of callbacks may be provided which will be triggered
  * whenever a snapshot is removed from the cache. Any other callback which maintains state about the snapshots
  * that is cleaned up by one of these callbacks should be run *after* this callback. This helps ensure that
- * if state is cleaned up while a request in inbound, the request will be blocked by the lock in this callback
- * until collection finishes and the subsequent callbacks will see the new request come in after collection. If the
- * order is reversed, another callback might have seen the new request but the refcount here hasn't been incremented,
- * causing it to get cleaned up and wipe the state of the other callback even though we now have an active stream
- * for that group.
+ * if state is cleaned up while a request in inbound, the request will be blocked by the lock of the group in this
+ * callback until collection finishes and the subsequent callbacks will see the new request come in after collection.
+ * If the order is reversed, another callback might have seen the new request but the refcount here hasn't been
+ * incremented, causing it to get cleaned up and wipe the state of the other callback even though we now have an active
+ * stream for that group.
+ *
+ * <p>Requests do not otherwise take any lock: the stream count of each group is updated atomically, and only a request
+ * that opens a stream for a group whose snapshot is being collected waits for the collection to finish. The group of a
+ * stream is that of its first request, since proxies may only send their node on the first request of a stream.
  */
 public class SnapshotCollectingCallback<T> implements DiscoveryServerCallbacks {
-  private static class SnapshotState {
-    int streamCount;
-    Instant lastSeen;
+  // The stream count of a group whose snapshot is being, or has been, collected.
+  private static final int COLLECTED = -1;
+
+  private class SnapshotState {
+    final T group;
+    final AtomicInteger streamCount = new AtomicInteger();
+    final Lock collectionLock = new ReentrantLock();
+    volatile Instant lastSeen;
+
+    SnapshotState(T group, Instant lastSeen) {
+      this.group = group;
+      this.lastSeen = lastSeen;
+    }
+
+    /**
+     * Counts a new stream of the group, unless its snapshot is being or has been collected.
+     */
+    boolean retain() {
+      while (true) {
+        int count = streamCount.get();
+
+        if (count == COLLECTED) {
+          return false;
+        }
+
+        if (streamCount.compareAndSet(count, count + 1)) {
+          return true;
+        }
+      }
+    }
+
+    /**
+     * Marks the snapshot of the group as being collected, if the group has had no streams since the given instant. Must
+     * be called while holding the collection lock of this state.
+     */
+    boolean markCollected(Instant unreferencedSince) {
+      if (streamCount.get() != 0 || !lastSeen.isBefore(unreferencedSince)) {
+        return false;
+      }
+
+      if (!streamCount.compareAndSet(0, COLLECTED)) {
+        return false;
+      }
+
+      // A stream may have opened and closed since the count was checked, which the last seen instant reflects since it
+      // is updated before the count is decremented.
+      if (!lastSeen.isBefore(unreferencedSince)) {
+        streamCount.set(0);
+        return false;
+      }
+
+      return true;
+    }
   }
 
   private final SnapshotCache<T> snapshotCache;
@@ -51,8 +118,15 @@ public class SnapshotCollectingCallback<T> implements DiscoveryServerCallbacks {
   private final Clock clock;
   private final Set<Consumer<T>> collectorCallbacks;
   private final long collectAfterMillis;
-  private final Map<T, SnapshotState> snapshotStates = new ConcurrentHashMap<>();
-  private final Map<Long, T> groupByStream = new ConcurrentHashMap<>();
+  private final ConcurrentMap<T, SnapshotState> snapshotStates = new ConcurrentHashMap<>();
+  private final Map<Long, SnapshotState> stateByStream = new ConcurrentHashMap<>();
+
+  // Groups whose stream count dropped to zero, in the order in which it did. Since all groups expire after the same
+  // delay, this is also the order in which they expire.
+  private final Queue<Unreferenced> unreferenced = new ConcurrentLinkedQueue<>();
+
+  // Expired groups whose snapshot could not be cleared because of pending watches, to retry on the next collection.
+  private final Set<SnapshotState> retries = new LinkedHashSet<>();
 
   /**
    * Creates the callback.
@@ -79,16 +153,23 @@ public class SnapshotCollectingCallback<T> implements DiscoveryServerCallbacks {
   }
 
   @Override
-  public synchronized void onStreamRequest(long streamId, DiscoveryRequest request) {
-    T groupIdentifier = nodeGroup.hash(request.getNode());
+  public void onStreamRequest(long streamId, DiscoveryRequest request) {
+    onStreamRequestHelper(streamId, request.getNode(), null);
+  }
+
+  @Override
+  public void onStreamRequest(long streamId, DiscoveryRequest request, Object group) {
+    onStreamRequestHelper(streamId, request.getNode(), group);
+  }
 
-    SnapshotState snapshotState =
-        this.snapshotStates.computeIfAbsent(groupIdentifier, x -> new SnapshotState());
-    snapshotState.lastSeen = clock.instant();
+  @Override
+  public void onStreamDeltaRequest(long streamId, DeltaDiscoveryRequest request) {
+    onStreamRequestHelper(streamId, request.getNode(), null);
+  }
 
-    if (groupByStream.put(streamId, groupIdentifier) == null) {
-      snapshotState.streamCount++;
-    }
+  @Override
+  public void onStreamDeltaRequest(long streamId, DeltaDiscoveryRequest request, Object group) {
+    onStreamRequestHelper(streamId, request.getNode(), group);
   }
 
   @Override public void onStreamClose(long streamId, String typeUrl) {
@@ -101,37 +182,113 @@ public class SnapshotCollectingCallback<T> implements DiscoveryServerCallbacks {
 
   @VisibleForTesting
   synchronized void deleteUnreferenced(Clock clock) {
-    // Keep track of snapshots to delete to avoid CME.
-    Set<T> toDelete = new LinkedHashSet<>();
-
-    for (Map.Entry<T, SnapshotState> entry : snapshotStates.entrySet()) {
-      if (entry.getValue().streamCount == 0 && entry.getValue().lastSeen.isBefore(
-          clock.instant().minus(collectAfterMillis, ChronoUnit.MILLIS))) {
-
-        // clearSnapshot will do nothing and return false if there are any pending watches - this
-        // ensures that we don't actually remove a snapshot that's in use.
-        T groupIdentifier = entry.getKey();
-        if (snapshotCache.clearSnapshot(groupIdentifier)) {
-          toDelete.add(groupIdentifier);
+    Instant unreferencedSince = clock.instant().minus(collectAfterMillis, ChronoUnit.MILLIS);
+    Set<SnapshotState> expired = new LinkedHashSet<>(retries);
+    retries.clear();
+
+    Unreferenced next;
+    while ((next = unreferenced.peek()) != null && next.since.isBefore(unreferencedSince)) {
+      unreferenced.poll();
+      expired.add(next.snapshotState);
+    }
+
+    // Requests that open a stream for a collected group wait on its lock until collection finishes. Groups that were
+    // referenced again are skipped, and are queued again once they are unreferenced.
+    List<SnapshotState> collected = new ArrayList<>(expired.size());
+    for (SnapshotState snapshotState : expired) {
+      snapshotState.collectionLock.lock();
+
+      if (snapshotState.markCollected(unreferencedSince)) {
+        collected.add(snapshotState);
+      } else {
+        snapshotState.collectionLock.unlock();
+      }
+    }
+
+    if (collected.isEmpty()) {
+      return;
+    }
+
+    try {
+      // clearSnapshots will not clear groups with pending watches - this
+      // ensures that we don't actually remove a snapshot that's in use.
+      Set<T> cleared = snapshotCache.clearSnapshots(Collections2.transform(collected, state -> state.group));
+
+      for (SnapshotState snapshotState : collected) {
+        if (cleared.contains(snapshotState.group)) {
+          snapshotStates.remove(snapshotState.group, snapshotState);
+          collectorCallbacks.forEach(cb -> cb.accept(snapshotState.group));
+        } else {
+          snapshotState.streamCount.set(0);
+          retries.add(snapshotState);
         }
       }
+    } finally {
+      collected.forEach(snapshotState -> snapshotState.collectionLock.unlock());
     }
+  }
 
-    toDelete.forEach(group -> {
-      snapshotStates.remove(group);
-      collectorCallbacks.forEach(cb -> cb.accept(group));
-    });
+  // The group resolved by the server is that of the snapshot cache, which maps nodes with the same node group, so it is
+  // only computed here if the server did not resolve it.
+  @SuppressWarnings("unchecked")
+  private void onStreamRequestHelper(long streamId, Node node, Object resolvedGroup) {
+    SnapshotState streamState = stateByStream.get(streamId);
+
+    if (streamState != null) {
+      streamState.lastSeen = clock.instant();
+      return;
+    }
+
+    T groupIdentifier = resolvedGroup == null ? nodeGroup.hash(node) : (T) resolvedGroup;
+
+    while (true) {
+      SnapshotState snapshotState = snapshotStates.computeIfAbsent(
+          groupIdentifier,
+          group -> new SnapshotState(group, clock.instant()));
+
+      if (!snapshotState.retain()) {
+        // The snapshot of the group is being collected. Once collection finishes, either the state is still in use
+        // because the snapshot could not be cleared, or a new state is created for the group.
+        snapshotState.collectionLock.lock();
+        try {
+          if (!snapshotState.retain()) {
+            snapshotStates.remove(groupIdentifier, snapshotState);
+            continue;
+          }
+        } finally {
+          snapshotState.collectionLock.unlock();
+        }
+      }
+
+      snapshotState.lastSeen = clock.instant();
+      stateByStream.put(streamId, snapshotState);
+      return;
+    }
   }
 
-  private synchronized void onStreamCloseHelper(long streamId) {
-    T removed = groupByStream.remove(streamId);
-    if (removed == null) {
+  private void onStreamCloseHelper(long streamId) {
+    SnapshotState snapshotState = stateByStream.remove(streamId);
+    if (snapshotState == null) {
       // This will happen if the stream closed before we received the first request.
       return;
     }
 
-    SnapshotState snapshotState = snapshotStates.get(removed);
-    snapshotState.streamCount--;
-    snapshotState.lastSeen = clock.instant();
+    // The last seen instant is updated before the count, so that collection sees it once the count drops to zero.
+    Instant now = clock.instant();
+    snapshotState.lastSeen = now;
+
+    if (snapshotState.streamCount.decrementAndGet() == 0) {
+      unreferenced.add(new Unreferenced(snapshotState, now));
+    }
+  }
+
+  private class Unreferenced {
+    final SnapshotState snapshotState;
+    final Instant since;
+
+    Unreferenced(SnapshotState snapshotState, Instant since) {
+      this.snapshotState = snapshotState;
+      this.since = since;
+    }
   }
 }
@@ -1,26 +1,44 @@
 package io.envoyproxy.controlplane.server.serializer;
 
+import com.google.common.base.Preconditions;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.protobuf.Any;
 import com.google.protobuf.Message;
-import io.envoyproxy.envoy.api.v2.DiscoveryResponse;
 import java.util.concurrent.ExecutionException;
 
 /**
- * Cached version of the {@link ProtoResourcesSerializer}. It uses Guava Cache with weak values to store the serialized
- * messages. The weak values are used so it's possible to share the same proto instance between snapshots that are kept
- * in the memory. The improvement especially visible when the same message is send to multiple Envoys.
- * The message is then only serialized once as long as it's referenced anywhere else.
+ * Cached version of the {@link ProtoResourcesSerializer}. It uses Guava Cache with weak keys to store the serialized
+ * messages. Weak keys are compared by identity, so a lookup doesn't hash or compare the whole message, which for large
+ * messages costs almost as much as serializing it. A serialized message is kept as long as the message instance is
+ * referenced anywhere else, e.g. by the snapshots that are kept in the memory. The improvement especially visible
+ * when the same message is send to multiple Envoys. The message is then only serialized once.
  * The same instance is used not only between snapshots for different groups but also between subsequent snapshots
- * for the same group, because the last serialized proto instance of {@link DiscoveryResponse} is set in
- * DiscoveryRequestStreamObserver#latestResponse.
+ * for the same group, as long as they share the message instance. Equal messages that are distinct instances are
+ * serialized separately.
  */
 public class CachedProtoResourcesSerializer implements ProtoResourcesSerializer {
 
-  private static final Cache<Message, Any> cache = CacheBuilder.newBuilder()
-      .weakValues()
-      .build();
+  private final Cache<Message, Any> cache;
+
+  public CachedProtoResourcesSerializer() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates the serializer.
+   *
+   * @param concurrencyLevel the number of threads expected to serialize messages concurrently, see
+   *                         {@link CacheBuilder#concurrencyLevel(int)}
+   */
+  public CachedProtoResourcesSerializer(int concurrencyLevel) {
+    Preconditions.checkArgument(concurrencyLevel > 0, "concurrencyLevel must be positive");
+
+    this.cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(concurrencyLevel)
+        .weakKeys()
+        .build();
+  }
 
   /**
    * {@inheritDoc}
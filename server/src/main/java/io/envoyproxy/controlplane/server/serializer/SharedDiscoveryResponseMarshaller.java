@@ -0,0 +1,320 @@
+package io.envoyproxy.controlplane.server.serializer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.protobuf.Any;
+import com.google.protobuf.CodedOutputStream;
+import io.envoyproxy.envoy.api.v2.DiscoveryResponse;
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+import io.grpc.protobuf.ProtoUtils;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * {@code SharedDiscoveryResponseMarshaller} is a gRPC marshaller of {@link DiscoveryResponse} that encodes the part of
+ * a response shared by many streams only once. Responses with the same version, type and resources are encoded once,
+ * and only the nonce of each stream is encoded separately and appended to the shared encoding.
+ *
+ * <p>Resources are compared by identity, so responses are only shared if the same {@link Any} instances are used for
+ * all streams, which is why a server only accepts this marshaller along with the
+ * {@link CachedProtoResourcesSerializer}. The shared encodings are kept in a cache that is bounded by their total size,
+ * and only hold their resources weakly, so that they do not keep the resources of snapshots that were replaced alive.
+ * Encodings of resources that were collected are never used again, and are evicted as newer encodings are added.
+ */
+public class SharedDiscoveryResponseMarshaller implements MethodDescriptor.PrototypeMarshaller<DiscoveryResponse> {
+
+  private static final long DEFAULT_MAXIMUM_ENCODED_BYTES = 64L * 1024 * 1024;
+
+  private static final MethodDescriptor.PrototypeMarshaller<DiscoveryResponse> DELEGATE =
+      (MethodDescriptor.PrototypeMarshaller<DiscoveryResponse>) ProtoUtils.marshaller(
+          DiscoveryResponse.getDefaultInstance());
+
+  private final Cache<EncodingKey, byte[]> encodings;
+
+  public SharedDiscoveryResponseMarshaller() {
+    this(DEFAULT_MAXIMUM_ENCODED_BYTES);
+  }
+
+  /**
+   * Creates the marshaller.
+   *
+   * @param maximumEncodedBytes maximum total size of the cached shared encodings
+   */
+  public SharedDiscoveryResponseMarshaller(long maximumEncodedBytes) {
+    Preconditions.checkArgument(maximumEncodedBytes >= 0, "maximumEncodedBytes cannot be negative");
+
+    this.encodings = CacheBuilder.newBuilder()
+        .maximumWeight(maximumEncodedBytes)
+        .weigher((EncodingKey key, byte[] encoding) -> encoding.length)
+        .build();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public InputStream stream(DiscoveryResponse value) {
+    // The nonce is the last field we set, so appending it to the encoding of the rest of the response yields the same
+    // bytes as encoding the whole response. Other fields would be encoded out of order, which is valid but not worth
+    // sharing since we never set them.
+    if (value.getCanary() || value.hasControlPlane()) {
+      return DELEGATE.stream(value);
+    }
+
+    // The encoding is looked up with the resources of the response, and only a miss allocates the key that is stored.
+    byte[] body = encodings.getIfPresent(
+        new ResponseKey(value.getVersionInfo(), value.getTypeUrl(), value.getResourcesList()));
+
+    if (body == null) {
+      try {
+        body = encodings.get(
+            new StoredKey(value.getVersionInfo(), value.getTypeUrl(), value.getResourcesList()),
+            () -> value.toBuilder().clearNonce().build().toByteArray());
+      } catch (ExecutionException e) {
+        throw new ProtoResourcesSerializer.ProtoSerializerException("Error while encoding response", e);
+      }
+    }
+
+    return new SplicedInputStream(body, encodeNonce(value.getNonce()));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public DiscoveryResponse parse(InputStream stream) {
+    return DELEGATE.parse(stream);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public DiscoveryResponse getMessagePrototype() {
+    return DiscoveryResponse.getDefaultInstance();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Class<DiscoveryResponse> getMessageClass() {
+    return DiscoveryResponse.class;
+  }
+
+  private static byte[] encodeNonce(String nonce) {
+    if (nonce.isEmpty()) {
+      return new byte[0];
+    }
+
+    byte[] encoded = new byte[CodedOutputStream.computeStringSize(DiscoveryResponse.NONCE_FIELD_NUMBER, nonce)];
+
+    try {
+      CodedOutputStream output = CodedOutputStream.newInstance(encoded);
+      output.writeString(DiscoveryResponse.NONCE_FIELD_NUMBER, nonce);
+      output.checkNoSpaceLeft();
+    } catch (IOException e) {
+      throw new ProtoResourcesSerializer.ProtoSerializerException("Error while encoding nonce", e);
+    }
+
+    return encoded;
+  }
+
+  /**
+   * Key of a shared encoding, which compares the resources by identity. Keys that hold the resources strongly and keys
+   * that hold them weakly are equal if they have the same resources.
+   */
+  private abstract static class EncodingKey {
+
+    private final String version;
+    private final String typeUrl;
+    private final int hashCode;
+
+    EncodingKey(String version, String typeUrl, List<Any> resources) {
+      this.version = version;
+      this.typeUrl = typeUrl;
+
+      int hash = version.hashCode() * 31 + typeUrl.hashCode();
+      for (Any resource : resources) {
+        hash = hash * 31 + System.identityHashCode(resource);
+      }
+
+      this.hashCode = hash;
+    }
+
+    abstract int size();
+
+    /**
+     * Returns the resource at the given index, or null if it was collected.
+     */
+    abstract Any resource(int index);
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+
+      if (!(o instanceof EncodingKey)) {
+        return false;
+      }
+
+      EncodingKey other = (EncodingKey) o;
+
+      if (hashCode != other.hashCode
+          || size() != other.size()
+          || !version.equals(other.version)
+          || !typeUrl.equals(other.typeUrl)) {
+        return false;
+      }
+
+      for (int i = 0; i < size(); i++) {
+        Any resource = resource(i);
+
+        if (resource == null || resource != other.resource(i)) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  private static final class ResponseKey extends EncodingKey {
+
+    private final List<Any> resources;
+
+    ResponseKey(String version, String typeUrl, List<Any> resources) {
+      super(version, typeUrl, resources);
+      this.resources = resources;
+    }
+
+    @Override
+    int size() {
+      return resources.size();
+    }
+
+    @Override
+    Any resource(int index) {
+      return resources.get(index);
+    }
+  }
+
+  private static final class StoredKey extends EncodingKey {
+
+    private final WeakReference<?>[] resources;
+
+    StoredKey(String version, String typeUrl, List<Any> resources) {
+      super(version, typeUrl, resources);
+      this.resources = new WeakReference<?>[resources.size()];
+
+      for (int i = 0; i < resources.size(); i++) {
+        this.resources[i] = new WeakReference<>(resources.get(i));
+      }
+    }
+
+    @Override
+    int size() {
+      return resources.length;
+    }
+
+    @Override
+    Any resource(int index) {
+      return (Any) resources[index].get();
+    }
+  }
+
+  /**
+   * Streams the shared encoding of a response followed by the encoded nonce of a single stream, without copying them
+   * into a single buffer.
+   */
+  private static final class SplicedInputStream extends InputStream implements Drainable, KnownLength {
+
+    private final byte[] body;
+    private final byte[] suffix;
+    private int position;
+
+    SplicedInputStream(byte[] body, byte[] suffix) {
+      this.body = body;
+      this.suffix = suffix;
+    }
+
+    @Override
+    public int read() {
+      if (position < body.length) {
+        return body[position++] & 0xff;
+      }
+
+      if (position < body.length + suffix.length) {
+        return suffix[position++ - body.length] & 0xff;
+      }
+
+      return -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      int remaining = available();
+
+      if (len == 0) {
+        return 0;
+      }
+
+      if (remaining == 0) {
+        return -1;
+      }
+
+      int count = Math.min(len, remaining);
+      int read = 0;
+
+      if (position < body.length) {
+        int fromBody = Math.min(count, body.length - position);
+        System.arraycopy(body, position, b, off, fromBody);
+        position += fromBody;
+        read += fromBody;
+      }
+
+      if (read < count) {
+        int fromSuffix = count - read;
+        System.arraycopy(suffix, position - body.length, b, off + read, fromSuffix);
+        position += fromSuffix;
+        read += fromSuffix;
+      }
+
+      return read;
+    }
+
+    @Override
+    public int available() {
+      return body.length + suffix.length - position;
+    }
+
+    @Override
+    public int drainTo(OutputStream target) throws IOException {
+      int drained = available();
+
+      if (position < body.length) {
+        target.write(body, position, body.length - position);
+        target.write(suffix);
+      } else {
+        target.write(suffix, position - body.length, drained);
+      }
+
+      position = body.length + suffix.length;
+
+      return drained;
+    }
+  }
+}
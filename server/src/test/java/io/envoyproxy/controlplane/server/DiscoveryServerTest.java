@@ -2,6 +2,7 @@ package io.envoyproxy.controlplane.server;
 
 import static java.lang.String.format;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.assertj.core.api.Assertions.fail;
 
 import com.google.common.base.Strings;
@@ -9,18 +10,26 @@ import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.Table;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Message;
 import io.envoyproxy.controlplane.cache.ConfigWatcher;
 import io.envoyproxy.controlplane.cache.Resources;
 import io.envoyproxy.controlplane.cache.Response;
+import io.envoyproxy.controlplane.cache.SimpleCache;
+import io.envoyproxy.controlplane.cache.Snapshot;
 import io.envoyproxy.controlplane.cache.TestResources;
 import io.envoyproxy.controlplane.cache.Watch;
 import io.envoyproxy.controlplane.cache.WatchCancelledException;
 import io.envoyproxy.controlplane.server.exception.RequestException;
+import io.envoyproxy.controlplane.server.serializer.CachedProtoResourcesSerializer;
+import io.envoyproxy.controlplane.server.serializer.DefaultProtoResourcesSerializer;
+import io.envoyproxy.controlplane.server.serializer.SharedDiscoveryResponseMarshaller;
 import io.envoyproxy.envoy.api.v2.Cluster;
 import io.envoyproxy.envoy.api.v2.ClusterDiscoveryServiceGrpc;
 import io.envoyproxy.envoy.api.v2.ClusterDiscoveryServiceGrpc.ClusterDiscoveryServiceStub;
 import io.envoyproxy.envoy.api.v2.ClusterLoadAssignment;
+import io.envoyproxy.envoy.api.v2.DeltaDiscoveryRequest;
+import io.envoyproxy.envoy.api.v2.DeltaDiscoveryResponse;
 import io.envoyproxy.envoy.api.v2.DiscoveryRequest;
 import io.envoyproxy.envoy.api.v2.DiscoveryResponse;
 import io.envoyproxy.envoy.api.v2.EndpointDiscoveryServiceGrpc;
@@ -28,6 +37,7 @@ import io.envoyproxy.envoy.api.v2.EndpointDiscoveryServiceGrpc.EndpointDiscovery
 import io.envoyproxy.envoy.api.v2.Listener;
 import io.envoyproxy.envoy.api.v2.ListenerDiscoveryServiceGrpc;
 import io.envoyproxy.envoy.api.v2.ListenerDiscoveryServiceGrpc.ListenerDiscoveryServiceStub;
+import io.envoyproxy.envoy.api.v2.Resource;
 import io.envoyproxy.envoy.api.v2.RouteConfiguration;
 import io.envoyproxy.envoy.api.v2.RouteDiscoveryServiceGrpc;
 import io.envoyproxy.envoy.api.v2.RouteDiscoveryServiceGrpc.RouteDiscoveryServiceStub;
@@ -39,17 +49,25 @@ import io.envoyproxy.envoy.service.discovery.v2.SecretDiscoveryServiceGrpc;
 import io.envoyproxy.envoy.service.discovery.v2.SecretDiscoveryServiceGrpc.SecretDiscoveryServiceStub;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import io.grpc.stub.StreamObserver;
 import io.grpc.testing.GrpcServerRule;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -152,6 +170,53 @@ public class DiscoveryServerTest {
     }
   }
 
+  @Test
+  public void testFlowControlledAggregatedHandler() throws InterruptedException {
+    MockConfigWatcher configWatcher = new MockConfigWatcher(false, createResponses());
+    List<String> callbackTypeUrls = Collections.synchronizedList(new ArrayList<>());
+    DiscoveryServerCallbacks callbacks = new DiscoveryServerCallbacks() {
+      @Override
+      public void onStreamResponse(long streamId, DiscoveryRequest request, DiscoveryResponse response) {
+        callbackTypeUrls.add(response.getTypeUrl());
+      }
+    };
+    DiscoveryServer server = new DiscoveryServer(
+        Collections.singletonList(callbacks),
+        configWatcher,
+        new DefaultExecutorGroup(),
+        new DefaultProtoResourcesSerializer(),
+        ProtoUtils.marshaller(DiscoveryResponse.getDefaultInstance()),
+        true);
+
+    grpcServer.getServiceRegistry().addService(server.getAggregatedDiscoveryServiceImpl());
+
+    AggregatedDiscoveryServiceStub stub = AggregatedDiscoveryServiceGrpc.newStub(grpcServer.getChannel());
+
+    MockDiscoveryResponseObserver responseObserver = new MockDiscoveryResponseObserver();
+
+    StreamObserver<DiscoveryRequest> requestObserver = stub.streamAggregatedResources(responseObserver);
+
+    for (String typeUrl : Resources.TYPE_URLS) {
+      requestObserver.onNext(DiscoveryRequest.newBuilder()
+          .setNode(NODE)
+          .setTypeUrl(typeUrl)
+          .build());
+    }
+
+    requestObserver.onCompleted();
+
+    if (!responseObserver.completedLatch.await(1, TimeUnit.SECONDS) || responseObserver.error.get()) {
+      fail(format("failed to complete request before timeout, error = %b", responseObserver.error.get()));
+    }
+
+    responseObserver.assertThatNoErrors();
+
+    // Pending responses are sent in order, and the callbacks see each response that is sent.
+    assertThat(responseObserver.responses.stream().map(DiscoveryResponse::getTypeUrl).collect(Collectors.toList()))
+        .containsExactlyElementsOf(Resources.TYPE_URLS)
+        .containsExactlyElementsOf(callbackTypeUrls);
+  }
+
   @Test
   public void testSeparateHandlers() throws InterruptedException {
     MockConfigWatcher configWatcher = new MockConfigWatcher(false, createResponses());
@@ -950,6 +1015,465 @@ public class DiscoveryServerTest {
     assertThat(callbacks.streamResponseCount).hasValue(0);
   }
 
+  @Test
+  public void testSharedResponseMarshallerRequiresCachedSerializer() {
+    assertThatThrownBy(() -> new DiscoveryServer(
+        Collections.emptyList(),
+        new SimpleCache<>(node -> "group"),
+        new DefaultExecutorGroup(),
+        new DefaultProtoResourcesSerializer(),
+        new SharedDiscoveryResponseMarshaller()))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("CachedProtoResourcesSerializer");
+  }
+
+  @Test
+  public void testSharedResponseMarshaller() throws InterruptedException, InvalidProtocolBufferException {
+    SimpleCache<String> cache = new SimpleCache<>(node -> "group");
+    cache.setSnapshot("group", Snapshot.create(
+        ImmutableList.of(CLUSTER),
+        ImmutableList.of(ENDPOINT),
+        ImmutableList.of(LISTENER),
+        ImmutableList.of(ROUTE),
+        ImmutableList.of(SECRET),
+        VERSION));
+
+    DiscoveryServer server = new DiscoveryServer(
+        Collections.emptyList(),
+        cache,
+        new DefaultExecutorGroup(),
+        new CachedProtoResourcesSerializer(),
+        new SharedDiscoveryResponseMarshaller());
+
+    grpcServer.getServiceRegistry().addService(server.bindService(server.getClusterDiscoveryServiceImpl()));
+
+    ClusterDiscoveryServiceStub stub = ClusterDiscoveryServiceGrpc.newStub(grpcServer.getChannel());
+
+    for (int i = 0; i < 2; i++) {
+      MockDiscoveryResponseObserver responseObserver = new MockDiscoveryResponseObserver();
+
+      StreamObserver<DiscoveryRequest> requestObserver = stub.streamClusters(responseObserver);
+
+      requestObserver.onNext(DiscoveryRequest.newBuilder()
+          .setNode(NODE)
+          .setTypeUrl(Resources.CLUSTER_TYPE_URL)
+          .build());
+
+      requestObserver.onCompleted();
+
+      if (!responseObserver.completedLatch.await(1, TimeUnit.SECONDS) || responseObserver.error.get()) {
+        fail(format("failed to complete request before timeout, error = %b", responseObserver.error.get()));
+      }
+
+      responseObserver.assertThatNoErrors();
+
+      assertThat(responseObserver.responses).hasSize(1);
+      assertThat(responseObserver.responses.iterator().next().getResources(0).unpack(Cluster.class))
+          .isEqualTo(CLUSTER);
+    }
+  }
+
+  @Test
+  public void testFlowControlConflatesPendingResponses() throws InterruptedException {
+    SimpleCache<String> cache = new SimpleCache<>(node -> "group");
+    cache.setSnapshot("group", Snapshot.create(
+        ImmutableList.of(CLUSTER),
+        ImmutableList.of(ENDPOINT),
+        ImmutableList.of(LISTENER),
+        ImmutableList.of(ROUTE),
+        ImmutableList.of(SECRET),
+        VERSION));
+
+    DiscoveryServer server = new DiscoveryServer(
+        Collections.emptyList(),
+        cache,
+        new DefaultExecutorGroup(),
+        new CachedProtoResourcesSerializer(),
+        ProtoUtils.marshaller(DiscoveryResponse.getDefaultInstance()),
+        true);
+
+    grpcServer.getServiceRegistry().addService(server.getClusterDiscoveryServiceImpl());
+
+    ClusterDiscoveryServiceStub stub = ClusterDiscoveryServiceGrpc.newStub(grpcServer.getChannel());
+
+    FlowControlledDiscoveryResponseObserver responseObserver = new FlowControlledDiscoveryResponseObserver();
+
+    StreamObserver<DiscoveryRequest> requestObserver = stub.streamClusters(responseObserver);
+
+    try {
+      // The client initially requests a single response.
+      requestObserver.onNext(DiscoveryRequest.newBuilder()
+          .setNode(NODE)
+          .setTypeUrl(Resources.CLUSTER_TYPE_URL)
+          .build());
+
+      DiscoveryResponse response = responseObserver.responses.poll(1, TimeUnit.SECONDS);
+
+      assertThat(response).isNotNull();
+      assertThat(response.getVersionInfo()).isEqualTo(VERSION);
+
+      DiscoveryRequest ack = DiscoveryRequest.newBuilder()
+          .setNode(NODE)
+          .setTypeUrl(Resources.CLUSTER_TYPE_URL)
+          .setVersionInfo(VERSION)
+          .setResponseNonce(response.getNonce())
+          .build();
+
+      requestObserver.onNext(ack);
+
+      for (String version : ImmutableList.of(VERSION + "1", VERSION + "2")) {
+        cache.setSnapshot("group", Snapshot.create(
+            ImmutableList.of(CLUSTER),
+            ImmutableList.of(ENDPOINT),
+            ImmutableList.of(LISTENER),
+            ImmutableList.of(ROUTE),
+            ImmutableList.of(SECRET),
+            version));
+
+        // Creates a new watch that responds with the latest snapshot, since the pending response was not sent yet.
+        requestObserver.onNext(ack);
+      }
+
+      assertThat(responseObserver.responses.poll(100, TimeUnit.MILLISECONDS)).isNull();
+
+      responseObserver.requestStream.request(2);
+
+      response = responseObserver.responses.poll(1, TimeUnit.SECONDS);
+
+      assertThat(response).isNotNull();
+      assertThat(response.getVersionInfo()).isEqualTo(VERSION + "2");
+      assertThat(response.getNonce()).isEqualTo("1");
+      assertThat(responseObserver.responses.poll(100, TimeUnit.MILLISECONDS)).isNull();
+    } finally {
+      requestObserver.onCompleted();
+    }
+  }
+
+  @Test
+  public void testDeltaHandlersAreUnimplementedWithoutDeltaWatches() throws InterruptedException {
+    MockConfigWatcher configWatcher = new MockConfigWatcher(false, ImmutableTable.of());
+    DiscoveryServer server = new DiscoveryServer(configWatcher);
+
+    grpcServer.getServiceRegistry().addService(server.getAggregatedDiscoveryServiceImpl());
+    grpcServer.getServiceRegistry().addService(server.getClusterDiscoveryServiceImpl());
+
+    MockDeltaDiscoveryResponseObserver adsResponseObserver = new MockDeltaDiscoveryResponseObserver();
+    MockDeltaDiscoveryResponseObserver clusterResponseObserver = new MockDeltaDiscoveryResponseObserver();
+
+    AggregatedDiscoveryServiceGrpc.newStub(grpcServer.getChannel())
+        .deltaAggregatedResources(adsResponseObserver)
+        .onNext(DeltaDiscoveryRequest.newBuilder().setNode(NODE).setTypeUrl(Resources.CLUSTER_TYPE_URL).build());
+    ClusterDiscoveryServiceGrpc.newStub(grpcServer.getChannel())
+        .deltaClusters(clusterResponseObserver)
+        .onNext(DeltaDiscoveryRequest.newBuilder().setNode(NODE).build());
+
+    for (MockDeltaDiscoveryResponseObserver responseObserver
+        : ImmutableList.of(adsResponseObserver, clusterResponseObserver)) {
+      assertThat(responseObserver.errorLatch.await(1, TimeUnit.SECONDS)).isTrue();
+      assertThat(Status.fromThrowable(responseObserver.errorException).getCode()).isEqualTo(Status.Code.UNIMPLEMENTED);
+      assertThat(responseObserver.responses).isEmpty();
+    }
+  }
+
+  @Test
+  public void testDeltaAggregatedHandler() throws InterruptedException {
+    SimpleCache<String> cache = new SimpleCache<>(node -> "group");
+    cache.setSnapshot("group", Snapshot.create(
+        ImmutableList.of(CLUSTER, TestResources.createCluster("cluster1")),
+        ImmutableList.of(ENDPOINT),
+        ImmutableList.of(LISTENER),
+        ImmutableList.of(ROUTE),
+        ImmutableList.of(SECRET),
+        VERSION));
+
+    DiscoveryServer server = new DiscoveryServer(cache);
+
+    grpcServer.getServiceRegistry().addService(server.getAggregatedDiscoveryServiceImpl());
+
+    AggregatedDiscoveryServiceStub stub = AggregatedDiscoveryServiceGrpc.newStub(grpcServer.getChannel());
+
+    MockDeltaDiscoveryResponseObserver responseObserver = new MockDeltaDiscoveryResponseObserver();
+
+    StreamObserver<DeltaDiscoveryRequest> requestObserver = stub.deltaAggregatedResources(responseObserver);
+
+    requestObserver.onNext(DeltaDiscoveryRequest.newBuilder()
+        .setNode(NODE)
+        .setTypeUrl(Resources.CLUSTER_TYPE_URL)
+        .build());
+
+    DeltaDiscoveryResponse initial = responseObserver.responses.poll(1, TimeUnit.SECONDS);
+
+    assertThat(initial).isNotNull();
+    assertThat(initial.getTypeUrl()).isEqualTo(Resources.CLUSTER_TYPE_URL);
+    assertThat(initial.getSystemVersionInfo()).isEqualTo(VERSION);
+    assertThat(initial.getResourcesList()).extracting(Resource::getName).containsOnly(CLUSTER_NAME, "cluster1");
+    assertThat(initial.getRemovedResourcesList()).isEmpty();
+
+    requestObserver.onNext(DeltaDiscoveryRequest.newBuilder()
+        .setNode(NODE)
+        .setTypeUrl(Resources.CLUSTER_TYPE_URL)
+        .setResponseNonce(initial.getNonce())
+        .build());
+
+    // Only the version of the snapshot changes, which does not trigger a response.
+    cache.setSnapshot("group", Snapshot.create(
+        ImmutableList.of(CLUSTER, TestResources.createCluster("cluster1")),
+        ImmutableList.of(ENDPOINT),
+        ImmutableList.of(LISTENER),
+        ImmutableList.of(ROUTE),
+        ImmutableList.of(SECRET),
+        VERSION + "1"));
+
+    cache.setSnapshot("group", Snapshot.create(
+        ImmutableList.of(TestResources.createCluster(CLUSTER_NAME, "127.0.0.1", ENDPOINT_PORT)),
+        ImmutableList.of(ENDPOINT),
+        ImmutableList.of(LISTENER),
+        ImmutableList.of(ROUTE),
+        ImmutableList.of(SECRET),
+        VERSION + "2"));
+
+    DeltaDiscoveryResponse update = responseObserver.responses.poll(1, TimeUnit.SECONDS);
+
+    assertThat(update).isNotNull();
+    assertThat(update.getSystemVersionInfo()).isEqualTo(VERSION + "2");
+    assertThat(update.getResourcesList()).extracting(Resource::getName).containsOnly(CLUSTER_NAME);
+    assertThat(update.getRemovedResourcesList()).containsOnly("cluster1");
+    assertThat(responseObserver.responses).isEmpty();
+
+    requestObserver.onCompleted();
+
+    if (!responseObserver.completedLatch.await(1, TimeUnit.SECONDS) || responseObserver.error.get()) {
+      fail(format("failed to complete request before timeout, error = %b", responseObserver.error.get()));
+    }
+  }
+
+  @Test
+  public void testDeltaSeparateHandlerSubscriptions() throws InterruptedException {
+    SimpleCache<String> cache = new SimpleCache<>(node -> "group");
+    cache.setSnapshot("group", Snapshot.create(
+        ImmutableList.of(CLUSTER),
+        ImmutableList.of(ENDPOINT, TestResources.createEndpoint("cluster1", ENDPOINT_PORT)),
+        ImmutableList.of(LISTENER),
+        ImmutableList.of(ROUTE),
+        ImmutableList.of(SECRET),
+        VERSION));
+
+    DiscoveryServer server = new DiscoveryServer(cache);
+
+    grpcServer.getServiceRegistry().addService(server.getEndpointDiscoveryServiceImpl());
+
+    EndpointDiscoveryServiceStub stub = EndpointDiscoveryServiceGrpc.newStub(grpcServer.getChannel());
+
+    MockDeltaDiscoveryResponseObserver responseObserver = new MockDeltaDiscoveryResponseObserver();
+
+    StreamObserver<DeltaDiscoveryRequest> requestObserver = stub.deltaEndpoints(responseObserver);
+
+    // The type url is filled in by the server.
+    requestObserver.onNext(DeltaDiscoveryRequest.newBuilder()
+        .setNode(NODE)
+        .addResourceNamesSubscribe(CLUSTER_NAME)
+        .build());
+
+    DeltaDiscoveryResponse initial = responseObserver.responses.poll(1, TimeUnit.SECONDS);
+
+    assertThat(initial).isNotNull();
+    assertThat(initial.getTypeUrl()).isEqualTo(Resources.ENDPOINT_TYPE_URL);
+    assertThat(initial.getResourcesList()).extracting(Resource::getName).containsOnly(CLUSTER_NAME);
+
+    requestObserver.onNext(DeltaDiscoveryRequest.newBuilder()
+        .setNode(NODE)
+        .setResponseNonce(initial.getNonce())
+        .addResourceNamesSubscribe("cluster1")
+        .build());
+
+    DeltaDiscoveryResponse subscribed = responseObserver.responses.poll(1, TimeUnit.SECONDS);
+
+    assertThat(subscribed).isNotNull();
+    assertThat(subscribed.getResourcesList()).extracting(Resource::getName).containsOnly("cluster1");
+    assertThat(responseObserver.responses).isEmpty();
+
+    requestObserver.onCompleted();
+
+    if (!responseObserver.completedLatch.await(1, TimeUnit.SECONDS) || responseObserver.error.get()) {
+      fail(format("failed to complete request before timeout, error = %b", responseObserver.error.get()));
+    }
+  }
+
+  @Test
+  public void testDeltaReconnectOnlySendsResourcesWithChangedVersions() throws InterruptedException {
+    SimpleCache<String> cache = new SimpleCache<>(node -> "group");
+    cache.setSnapshot("group", Snapshot.create(
+        ImmutableList.of(CLUSTER),
+        ImmutableList.of(ENDPOINT, TestResources.createEndpoint("cluster1", ENDPOINT_PORT)),
+        ImmutableList.of(LISTENER),
+        ImmutableList.of(ROUTE),
+        ImmutableList.of(SECRET),
+        VERSION));
+
+    DiscoveryServer server = new DiscoveryServer(cache);
+
+    grpcServer.getServiceRegistry().addService(server.getEndpointDiscoveryServiceImpl());
+
+    EndpointDiscoveryServiceStub stub = EndpointDiscoveryServiceGrpc.newStub(grpcServer.getChannel());
+
+    MockDeltaDiscoveryResponseObserver responseObserver = new MockDeltaDiscoveryResponseObserver();
+    StreamObserver<DeltaDiscoveryRequest> requestObserver = stub.deltaEndpoints(responseObserver);
+
+    requestObserver.onNext(DeltaDiscoveryRequest.newBuilder()
+        .setNode(NODE)
+        .addResourceNamesSubscribe(CLUSTER_NAME)
+        .addResourceNamesSubscribe("cluster1")
+        .build());
+
+    DeltaDiscoveryResponse initial = responseObserver.responses.poll(1, TimeUnit.SECONDS);
+
+    assertThat(initial).isNotNull();
+    assertThat(initial.getResourcesList()).extracting(Resource::getName).containsOnly(CLUSTER_NAME, "cluster1");
+
+    requestObserver.onCompleted();
+
+    // The envoy reconnects with the version of one of the resources it subscribes to.
+    Resource known = initial.getResourcesList().stream()
+        .filter(resource -> resource.getName().equals(CLUSTER_NAME))
+        .findFirst()
+        .get();
+
+    MockDeltaDiscoveryResponseObserver reconnectedResponseObserver = new MockDeltaDiscoveryResponseObserver();
+    StreamObserver<DeltaDiscoveryRequest> reconnectedRequestObserver = stub.deltaEndpoints(
+        reconnectedResponseObserver);
+
+    reconnectedRequestObserver.onNext(DeltaDiscoveryRequest.newBuilder()
+        .setNode(NODE)
+        .addResourceNamesSubscribe(CLUSTER_NAME)
+        .addResourceNamesSubscribe("cluster1")
+        .putInitialResourceVersions(CLUSTER_NAME, known.getVersion())
+        .putInitialResourceVersions("cluster1", "stale")
+        .build());
+
+    DeltaDiscoveryResponse reconnected = reconnectedResponseObserver.responses.poll(1, TimeUnit.SECONDS);
+
+    assertThat(reconnected).isNotNull();
+    assertThat(reconnected.getResourcesList()).extracting(Resource::getName).containsOnly("cluster1");
+
+    reconnectedRequestObserver.onCompleted();
+  }
+
+  @Test
+  public void testDeltaRejectedResourcesAreResentAfterNextAck() throws InterruptedException {
+    SimpleCache<String> cache = new SimpleCache<>(node -> "group");
+    cache.setSnapshot("group", Snapshot.create(
+        ImmutableList.of(CLUSTER),
+        ImmutableList.of(ENDPOINT, TestResources.createEndpoint("cluster1", ENDPOINT_PORT)),
+        ImmutableList.of(LISTENER),
+        ImmutableList.of(ROUTE),
+        ImmutableList.of(SECRET),
+        VERSION));
+
+    DiscoveryServer server = new DiscoveryServer(cache);
+
+    grpcServer.getServiceRegistry().addService(server.getEndpointDiscoveryServiceImpl());
+
+    EndpointDiscoveryServiceStub stub = EndpointDiscoveryServiceGrpc.newStub(grpcServer.getChannel());
+
+    MockDeltaDiscoveryResponseObserver responseObserver = new MockDeltaDiscoveryResponseObserver();
+    StreamObserver<DeltaDiscoveryRequest> requestObserver = stub.deltaEndpoints(responseObserver);
+
+    requestObserver.onNext(DeltaDiscoveryRequest.newBuilder()
+        .setNode(NODE)
+        .addResourceNamesSubscribe(CLUSTER_NAME)
+        .addResourceNamesSubscribe("cluster1")
+        .build());
+
+    DeltaDiscoveryResponse initial = responseObserver.responses.poll(1, TimeUnit.SECONDS);
+
+    assertThat(initial).isNotNull();
+    assertThat(initial.getResourcesList()).extracting(Resource::getName).containsOnly(CLUSTER_NAME, "cluster1");
+
+    requestObserver.onNext(DeltaDiscoveryRequest.newBuilder()
+        .setNode(NODE)
+        .setResponseNonce(initial.getNonce())
+        .setErrorDetail(com.google.rpc.Status.newBuilder().setMessage("rejected"))
+        .build());
+
+    // The rejected resources are not resent until they change.
+    assertThat(responseObserver.responses.poll(200, TimeUnit.MILLISECONDS)).isNull();
+
+    cache.setSnapshot("group", Snapshot.create(
+        ImmutableList.of(CLUSTER),
+        ImmutableList.of(ENDPOINT, TestResources.createEndpoint("cluster1", ENDPOINT_PORT + 1)),
+        ImmutableList.of(LISTENER),
+        ImmutableList.of(ROUTE),
+        ImmutableList.of(SECRET),
+        VERSION + "1"));
+
+    DeltaDiscoveryResponse updated = responseObserver.responses.poll(1, TimeUnit.SECONDS);
+
+    assertThat(updated).isNotNull();
+    assertThat(updated.getResourcesList()).extracting(Resource::getName).containsOnly("cluster1");
+
+    requestObserver.onNext(DeltaDiscoveryRequest.newBuilder()
+        .setNode(NODE)
+        .setResponseNonce(updated.getNonce())
+        .build());
+
+    // The envoy still has the resource version from before the rejected response.
+    DeltaDiscoveryResponse resent = responseObserver.responses.poll(1, TimeUnit.SECONDS);
+
+    assertThat(resent).isNotNull();
+    assertThat(resent.getResourcesList()).extracting(Resource::getName).containsOnly(CLUSTER_NAME);
+
+    requestObserver.onCompleted();
+  }
+
+  @Test
+  public void testStreamsShareEqualNodes() throws InterruptedException {
+    BlockingQueue<DiscoveryRequest> requests = new LinkedBlockingQueue<>();
+    DiscoveryServer server = new DiscoveryServer((ads, request, knownResources, responseConsumer, changed) -> {
+      requests.add(request);
+
+      return new Watch(ads, request, responseConsumer);
+    });
+
+    grpcServer.getServiceRegistry().addService(server.getAggregatedDiscoveryServiceImpl());
+
+    AggregatedDiscoveryServiceStub stub = AggregatedDiscoveryServiceGrpc.newStub(grpcServer.getChannel());
+
+    List<StreamObserver<DiscoveryRequest>> requestObservers = new ArrayList<>();
+
+    for (int stream = 0; stream < 2; stream++) {
+      StreamObserver<DiscoveryRequest> requestObserver = stub.streamAggregatedResources(
+          new MockDiscoveryResponseObserver());
+
+      requestObserver.onNext(DiscoveryRequest.newBuilder()
+          .setNode(NODE)
+          .setTypeUrl(Resources.CLUSTER_TYPE_URL)
+          .build());
+
+      requestObservers.add(requestObserver);
+    }
+
+    DiscoveryRequest first = requests.poll(1, TimeUnit.SECONDS);
+    DiscoveryRequest second = requests.poll(1, TimeUnit.SECONDS);
+
+    // Each request is parsed into its own node, which the streams replace with the node interned by the server.
+    assertThat(first).isNotNull();
+    assertThat(second).isNotNull();
+    assertThat(second.getNode()).isEqualTo(NODE).isSameAs(first.getNode());
+
+    // Later requests of a stream that include the node again share the node of the stream as well.
+    requestObservers.get(0).onNext(DiscoveryRequest.newBuilder()
+        .setNode(NODE)
+        .setTypeUrl(Resources.ENDPOINT_TYPE_URL)
+        .build());
+
+    DiscoveryRequest later = requests.poll(1, TimeUnit.SECONDS);
+
+    assertThat(later).isNotNull();
+    assertThat(later.getNode()).isSameAs(first.getNode());
+
+    requestObservers.forEach(StreamObserver::onCompleted);
+  }
+
   private static Table<String, String, Collection<? extends Message>> createResponses() {
     return ImmutableTable.<String, String, Collection<? extends Message>>builder()
         .put(Resources.CLUSTER_TYPE_URL, VERSION, ImmutableList.of(CLUSTER))
@@ -960,7 +1484,7 @@ public class DiscoveryServerTest {
         .build();
   }
 
-  private static class MockConfigWatcher implements ConfigWatcher {
+  private static class MockConfigWatcher implements ConfigWatcher<Object> {
 
     private final boolean closeWatch;
     private final Map<String, Integer> counts;
@@ -1152,4 +1676,57 @@ public class DiscoveryServerTest {
       completedLatch.countDown();
     }
   }
+
+  private static class MockDeltaDiscoveryResponseObserver implements StreamObserver<DeltaDiscoveryResponse> {
+
+    private final CountDownLatch completedLatch = new CountDownLatch(1);
+    private final AtomicBoolean error = new AtomicBoolean();
+    private final CountDownLatch errorLatch = new CountDownLatch(1);
+    private final BlockingQueue<DeltaDiscoveryResponse> responses = new LinkedBlockingQueue<>();
+
+    private volatile Throwable errorException;
+
+    @Override
+    public void onNext(DeltaDiscoveryResponse value) {
+      responses.add(value);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      errorException = t;
+      error.set(true);
+      errorLatch.countDown();
+    }
+
+    @Override
+    public void onCompleted() {
+      completedLatch.countDown();
+    }
+  }
+
+  private static class FlowControlledDiscoveryResponseObserver
+      implements ClientResponseObserver<DiscoveryRequest, DiscoveryResponse> {
+
+    private final BlockingQueue<DiscoveryResponse> responses = new LinkedBlockingQueue<>();
+    private ClientCallStreamObserver<DiscoveryRequest> requestStream;
+
+    @Override
+    public void beforeStart(ClientCallStreamObserver<DiscoveryRequest> requestStream) {
+      this.requestStream = requestStream;
+      requestStream.disableAutoInboundFlowControl();
+    }
+
+    @Override
+    public void onNext(DiscoveryResponse value) {
+      responses.add(value);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+    }
+
+    @Override
+    public void onCompleted() {
+    }
+  }
 }
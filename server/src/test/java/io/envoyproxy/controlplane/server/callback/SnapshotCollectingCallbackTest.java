@@ -6,6 +6,7 @@ import com.google.common.collect.ImmutableSet;
 import io.envoyproxy.controlplane.cache.NodeGroup;
 import io.envoyproxy.controlplane.cache.SimpleCache;
 import io.envoyproxy.controlplane.cache.Snapshot;
+import io.envoyproxy.controlplane.cache.Watch;
 import io.envoyproxy.envoy.api.v2.DiscoveryRequest;
 import java.time.Clock;
 import java.time.Duration;
@@ -84,9 +85,63 @@ public class SnapshotCollectingCallbackTest {
     assertThat(collectedGroups).containsExactly("group");
   }
 
+  @Test
+  public void testResolvedGroupIsUsed() {
+    cache.setSnapshot("other", Snapshot.createEmpty(""));
+
+    // The server passes along the group it resolved for the stream, which is used instead of the node group.
+    callback.onStreamRequest(0, DiscoveryRequest.getDefaultInstance(), "other");
+    callback.onStreamClose(0, "");
+
+    callback.deleteUnreferenced(Clock.offset(CLOCK, Duration.ofMillis(5)));
+    assertThat(collectedGroups).containsExactly("other");
+  }
+
   @Test
   public void testCloseBeforeRequest() {
     callback.onStreamClose(0, "");
     assertThat(collectedGroups).isEmpty();
   }
+
+  @Test
+  public void testStreamOpenedAfterCollection() {
+    callback.onStreamRequest(0, DiscoveryRequest.getDefaultInstance());
+    callback.onStreamClose(0, "");
+
+    callback.deleteUnreferenced(Clock.offset(CLOCK, Duration.ofMillis(5)));
+    assertThat(collectedGroups).containsExactly("group");
+
+    // A stream opened once the snapshot was collected is counted for the group again.
+    cache.setSnapshot("group", Snapshot.createEmpty(""));
+    callback.onStreamRequest(1, DiscoveryRequest.getDefaultInstance());
+
+    callback.deleteUnreferenced(Clock.offset(CLOCK, Duration.ofMillis(5)));
+    assertThat(collectedGroups).containsExactly("group");
+
+    callback.onStreamClose(1, "");
+
+    callback.deleteUnreferenced(Clock.offset(CLOCK, Duration.ofMillis(5)));
+    assertThat(collectedGroups).containsExactly("group", "group");
+  }
+
+  @Test
+  public void testRetriesGroupWithPendingWatches() {
+    final Watch watch = cache.createWatch(
+        false,
+        DiscoveryRequest.getDefaultInstance(),
+        Collections.emptySet(),
+        r -> { });
+
+    callback.onStreamRequest(0, DiscoveryRequest.getDefaultInstance());
+    callback.onStreamClose(0, "");
+
+    // The group has expired, but its snapshot cannot be cleared while it has a watch.
+    callback.deleteUnreferenced(Clock.offset(CLOCK, Duration.ofMillis(5)));
+    assertThat(collectedGroups).isEmpty();
+
+    watch.cancel();
+
+    callback.deleteUnreferenced(Clock.offset(CLOCK, Duration.ofMillis(5)));
+    assertThat(collectedGroups).containsExactly("group");
+  }
 }
@@ -45,4 +45,18 @@ public class CachedProtoResourcesSerializerTest {
         .usingElementComparator((x, y) -> x == y ? 0 : 1)
         .hasSameElementsAs(serializedSameEndpoints);
   }
+
+  @Test
+  public void shouldSerializeEqualMessagesSeparately() {
+    ClusterLoadAssignment endpoint = ClusterLoadAssignment.newBuilder()
+        .setClusterName("service1")
+        .build();
+    ClusterLoadAssignment equalEndpoint = endpoint.toBuilder().build();
+
+    Any serializedEndpoint = serializer.serialize(endpoint);
+    Any serializedEqualEndpoint = serializer.serialize(equalEndpoint);
+
+    assertThat(serializedEndpoint).isEqualTo(serializedEqualEndpoint);
+    assertThat(serializedEndpoint).isNotSameAs(serializedEqualEndpoint);
+  }
 }
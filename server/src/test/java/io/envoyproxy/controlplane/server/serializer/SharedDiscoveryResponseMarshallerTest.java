@@ -0,0 +1,80 @@
+package io.envoyproxy.controlplane.server.serializer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.io.ByteStreams;
+import com.google.protobuf.Any;
+import io.envoyproxy.controlplane.cache.Resources;
+import io.envoyproxy.envoy.api.v2.ClusterLoadAssignment;
+import io.envoyproxy.envoy.api.v2.DiscoveryResponse;
+import io.grpc.Drainable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class SharedDiscoveryResponseMarshallerTest {
+
+  private static final Any ENDPOINT = Any.pack(ClusterLoadAssignment.newBuilder()
+      .setClusterName("service1")
+      .build());
+
+  SharedDiscoveryResponseMarshaller marshaller = new SharedDiscoveryResponseMarshaller();
+
+  @Test
+  public void shouldEncodeResponsesLikeTheProtoMarshaller() throws IOException {
+    DiscoveryResponse response = response("0");
+    DiscoveryResponse sameResponseOtherNonce = response("1");
+
+    assertThat(ByteStreams.toByteArray(marshaller.stream(response))).isEqualTo(response.toByteArray());
+    assertThat(ByteStreams.toByteArray(marshaller.stream(sameResponseOtherNonce)))
+        .isEqualTo(sameResponseOtherNonce.toByteArray());
+  }
+
+  @Test
+  public void shouldDrainSplicedResponse() throws IOException {
+    DiscoveryResponse response = response("12");
+
+    InputStream stream = marshaller.stream(response);
+
+    assertThat(stream.available()).isEqualTo(response.getSerializedSize());
+    assertThat(stream.read()).isEqualTo(response.toByteArray()[0] & 0xff);
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    int drained = ((Drainable) stream).drainTo(output);
+
+    assertThat(drained).isEqualTo(response.getSerializedSize() - 1);
+    assertThat(output.toByteArray()).isEqualTo(Arrays.copyOfRange(response.toByteArray(), 1, drained + 1));
+    assertThat(stream.read()).isEqualTo(-1);
+  }
+
+  @Test
+  public void shouldEncodeEqualResourcesOfOtherInstancesSeparately() throws IOException {
+    DiscoveryResponse response = response("0");
+    DiscoveryResponse equalResourcesOtherInstances = response.toBuilder()
+        .setResources(0, ENDPOINT.toBuilder().build())
+        .setNonce("1")
+        .build();
+
+    assertThat(ByteStreams.toByteArray(marshaller.stream(response))).isEqualTo(response.toByteArray());
+    assertThat(ByteStreams.toByteArray(marshaller.stream(equalResourcesOtherInstances)))
+        .isEqualTo(equalResourcesOtherInstances.toByteArray());
+  }
+
+  @Test
+  public void shouldParseEncodedResponse() {
+    DiscoveryResponse response = response("0").toBuilder().setCanary(true).build();
+
+    assertThat(marshaller.parse(marshaller.stream(response))).isEqualTo(response);
+  }
+
+  private static DiscoveryResponse response(String nonce) {
+    return DiscoveryResponse.newBuilder()
+        .setVersionInfo("1")
+        .addResources(ENDPOINT)
+        .setTypeUrl(Resources.ENDPOINT_TYPE_URL)
+        .setNonce(nonce)
+        .build();
+  }
+}